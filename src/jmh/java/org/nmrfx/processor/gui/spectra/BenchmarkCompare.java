@@ -0,0 +1,137 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare a JMH csv result file with a baseline file and report the change in
+ * score of each benchmark present in both. Benchmarks that got slower by more
+ * than the threshold are flagged, and the exit status is 1 if there are any.
+ *
+ * Usage: BenchmarkCompare baseline.csv result.csv [thresholdPercent]
+ *
+ * @author brucejohnson
+ */
+public class BenchmarkCompare {
+
+    static class Score {
+
+        final double value;
+        final String unit;
+
+        Score(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+
+    static List<String> splitCSV(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if ((c == ',') && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Read the scores from a JMH csv result file. Benchmarks are keyed by name
+     * and parameter values.
+     *
+     * @param fileName the file to read
+     * @return the scores
+     * @throws IOException if the file can't be read
+     */
+    static Map<String, Score> readScores(String fileName) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(fileName));
+        Map<String, Score> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return scores;
+        }
+        List<String> header = splitCSV(lines.get(0));
+        int benchmarkCol = header.indexOf("Benchmark");
+        int modeCol = header.indexOf("Mode");
+        int scoreCol = header.indexOf("Score");
+        int unitCol = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = splitCSV(line);
+            StringBuilder key = new StringBuilder(fields.get(benchmarkCol));
+            key.append(' ').append(fields.get(modeCol));
+            for (int i = unitCol + 1; i < fields.size(); i++) {
+                key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+            }
+            scores.put(key.toString(), new Score(Double.parseDouble(fields.get(scoreCol)), fields.get(unitCol)));
+        }
+        return scores;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BenchmarkCompare baseline.csv result.csv [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Score> baseline = readScores(args[0]);
+        Map<String, Score> current = readScores(args[1]);
+        int nSlower = 0;
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score base = baseline.get(entry.getKey());
+            Score score = entry.getValue();
+            if ((base == null) || !base.unit.equals(score.unit) || (base.value == 0.0)) {
+                System.out.printf("%-70s %12.3f %s (no baseline)%n", entry.getKey(), score.value, score.unit);
+                continue;
+            }
+            // scores are times for AverageTime and SampleTime modes, rates otherwise
+            boolean isTime = !score.unit.startsWith("ops/");
+            double change = 100.0 * (score.value - base.value) / base.value;
+            double slowdown = isTime ? change : -change;
+            String flag = "";
+            if (slowdown > threshold) {
+                flag = " SLOWER";
+                nSlower++;
+            } else if (slowdown < -threshold) {
+                flag = " faster";
+            }
+            System.out.printf("%-70s %12.3f %12.3f %s %+7.1f%%%s%n", entry.getKey(), base.value, score.value, score.unit, change, flag);
+        }
+        if (nSlower > 0) {
+            System.out.println(nSlower + " benchmarks slower than baseline by more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+}
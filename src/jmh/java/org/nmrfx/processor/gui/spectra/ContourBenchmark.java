@@ -0,0 +1,88 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.concurrent.TimeUnit;
+import org.nmrfx.graphicsio.GraphicsIOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contouring of one data chunk: marching squares for a level, and tracing the
+ * resulting cells into line segments on a recording graphics context.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContourBenchmark {
+
+    @Param({"64", "256"})
+    int size;
+
+    @Param({"0.05", "0.2"})
+    float level;
+
+    float[][] z;
+    int[][] cells;
+    Contour contour;
+    RecordingGraphicsContext recorder;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        z = SyntheticData.spectrum2D(size, size, size / 4);
+        cells = new int[size][size];
+        double[][] pts = {{0, size - 1}, {0, size - 1}};
+        double[][] pix = {{0, 800}, {600, 0}};
+        contour = new Contour(pts, pix);
+        recorder = new RecordingGraphicsContext(800, 600);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        // drawSquares marks the cells it has drawn, so start each draw from freshly marched cells
+        contour.marchSquares(level, z, cells);
+    }
+
+    @Benchmark
+    public int[][] marchSquares() {
+        contour.marchSquares(level, z, cells);
+        return cells;
+    }
+
+    @Benchmark
+    public long drawSquares() throws GraphicsIOException {
+        recorder.reset();
+        contour.drawSquares(recorder.getGraphicsContext());
+        return recorder.getCallCount();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.scene.text.Font;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Peak display hot paths: finding the peaks in the visible region (the spatial
+ * index query plus exact region test that findPeaksInRegion does once the
+ * region limits are known) and measuring peak labels.
+ *
+ * The label benchmarks need the JavaFX toolkit for font metrics, so it is
+ * started in the setup and a display is needed to run them.
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeakBenchmark {
+
+    @Param({"1000", "20000"})
+    int nPeaks;
+
+    PeakList peakList;
+    PeakListAttributes peakAttr;
+    int[] peakDim = {0, 1};
+    // a zoomed in region holding about 1/16 of the peaks
+    double[][] zoomLimits = {{7.5, 8.625}, {110.0, 117.5}};
+    double[][] fullLimits = {{5.5, 11.0}, {100.0, 135.0}};
+    Font font;
+    String[] labels;
+    int iLabel = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        peakList = SyntheticData.peakList("bench" + nPeaks, nPeaks);
+        peakAttr = new PeakListAttributes(null, null, peakList);
+        peakAttr.foldLimits = new double[][]{{5.0, 12.0}, {95.0, 140.0}};
+        labels = new String[256];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = String.valueOf(i * 7 + 1) + ".HN";
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startToolkit() {
+        try {
+            Platform.startup(() -> {
+            });
+        } catch (IllegalStateException isE) {
+            // already started
+        }
+        font = Font.font("Liberation Sans", 12);
+    }
+
+    @Benchmark
+    public List<Peak> peaksInZoomedRegion() {
+        return peakAttr.getPeaksInRegion(zoomLimits, peakDim);
+    }
+
+    @Benchmark
+    public List<Peak> peaksInFullRegion() {
+        return peakAttr.getPeaksInRegion(fullLimits, peakDim);
+    }
+
+    @Benchmark
+    public Bounds measureLabel() {
+        String label = labels[iLabel++ & 255];
+        return DrawPeaks.measureText(label, font, 0.0, 100.0, 200.0);
+    }
+
+    @Benchmark
+    public Bounds measureRotatedLabel() {
+        String label = labels[iLabel++ & 255];
+        return DrawPeaks.measureText(label, font, -90.0, 100.0, 200.0);
+    }
+}
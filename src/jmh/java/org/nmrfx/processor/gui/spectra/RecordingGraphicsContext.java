@@ -0,0 +1,140 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import javafx.scene.paint.Color;
+import org.nmrfx.graphicsio.GraphicsContextInterface;
+
+/**
+ * A stand-in for a canvas that records the drawing calls made on it instead
+ * of drawing anything, so the drawing code can be run without a screen. The
+ * GraphicsContextInterface is implemented with a dynamic proxy, so every
+ * method of the interface is handled: calls are counted by method name,
+ * getters return the size, stroke and fill set on the recorder, and
+ * everything else returns a default value.
+ *
+ * @author brucejohnson
+ */
+public class RecordingGraphicsContext {
+
+    final double width;
+    final double height;
+    final Map<String, long[]> counts = new TreeMap<>();
+    long nCalls = 0;
+    double lastX = 0.0;
+    double lastY = 0.0;
+    Object stroke = Color.BLACK;
+    Object fill = Color.BLACK;
+    final GraphicsContextInterface graphicsContext;
+
+    public RecordingGraphicsContext(double width, double height) {
+        this.width = width;
+        this.height = height;
+        graphicsContext = (GraphicsContextInterface) Proxy.newProxyInstance(
+                GraphicsContextInterface.class.getClassLoader(),
+                new Class<?>[]{GraphicsContextInterface.class},
+                (proxy, method, args) -> record(method, args));
+    }
+
+    public GraphicsContextInterface getGraphicsContext() {
+        return graphicsContext;
+    }
+
+    Object record(Method method, Object[] args) {
+        String name = method.getName();
+        nCalls++;
+        counts.computeIfAbsent(name, k -> new long[1])[0]++;
+        switch (name) {
+            case "moveTo":
+            case "lineTo":
+                // keep the coordinates so the calls can't be optimized away
+                lastX = (Double) args[0];
+                lastY = (Double) args[1];
+                break;
+            case "setStroke":
+                stroke = args[0];
+                break;
+            case "setFill":
+                fill = args[0];
+                break;
+            case "getWidth":
+                return width;
+            case "getHeight":
+                return height;
+            case "getStroke":
+                return stroke;
+            case "getFill":
+                return fill;
+            case "hashCode":
+                return System.identityHashCode(this);
+            case "equals":
+                return args[0] == graphicsContext;
+            case "toString":
+                return "RecordingGraphicsContext " + counts;
+            default:
+                break;
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || (type == void.class)) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else {
+            return (char) 0;
+        }
+    }
+
+    public long getCallCount() {
+        return nCalls;
+    }
+
+    public long getCallCount(String methodName) {
+        long[] count = counts.get(methodName);
+        return count == null ? 0 : count[0];
+    }
+
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        counts.forEach((k, v) -> result.put(k, v[0]));
+        return result;
+    }
+
+    public void reset() {
+        counts.clear();
+        nCalls = 0;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.Random;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+
+/**
+ * Synthetic spectra and peak lists for the benchmarks. Everything is generated
+ * from a fixed seed so runs are comparable.
+ *
+ * @author brucejohnson
+ */
+public class SyntheticData {
+
+    static final long SEED = 17;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Make a 2D spectrum of Lorentzian peaks on a noisy baseline.
+     *
+     * @param ny number of rows
+     * @param nx number of columns
+     * @param nPeaks number of peaks
+     * @return the spectrum, indexed [row][column]
+     */
+    public static float[][] spectrum2D(int ny, int nx, int nPeaks) {
+        Random random = new Random(SEED);
+        float[][] z = new float[ny][nx];
+        for (int i = 0; i < ny; i++) {
+            for (int j = 0; j < nx; j++) {
+                z[i][j] = (float) (random.nextGaussian() * 0.01);
+            }
+        }
+        for (int k = 0; k < nPeaks; k++) {
+            double cy = random.nextDouble() * ny;
+            double cx = random.nextDouble() * nx;
+            double wy = 1.0 + random.nextDouble() * 3.0;
+            double wx = 1.0 + random.nextDouble() * 3.0;
+            double amp = (random.nextBoolean() ? 1.0 : -0.3) * (0.2 + random.nextDouble());
+            int iy0 = Math.max(0, (int) (cy - 10 * wy));
+            int iy1 = Math.min(ny - 1, (int) (cy + 10 * wy));
+            int ix0 = Math.max(0, (int) (cx - 10 * wx));
+            int ix1 = Math.min(nx - 1, (int) (cx + 10 * wx));
+            for (int i = iy0; i <= iy1; i++) {
+                double dy = (i - cy) / wy;
+                for (int j = ix0; j <= ix1; j++) {
+                    double dx = (j - cx) / wx;
+                    z[i][j] += (float) (amp / ((1.0 + dx * dx) * (1.0 + dy * dy)));
+                }
+            }
+        }
+        return z;
+    }
+
+    /**
+     * Make a 1D spectrum of Lorentzian peaks on a noisy baseline.
+     *
+     * @param n number of points
+     * @param nPeaks number of peaks
+     * @return the spectrum
+     */
+    public static double[] spectrum1D(int n, int nPeaks) {
+        Random random = new Random(SEED);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian() * 0.001;
+        }
+        for (int k = 0; k < nPeaks; k++) {
+            double center = random.nextDouble() * n;
+            double width = 2.0 + random.nextDouble() * 8.0;
+            double amp = 0.1 + random.nextDouble();
+            int i0 = Math.max(0, (int) (center - 50 * width));
+            int i1 = Math.min(n - 1, (int) (center + 50 * width));
+            for (int i = i0; i <= i1; i++) {
+                double dx = (i - center) / width;
+                values[i] += amp / (1.0 + dx * dx);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Make a 2D (1H, 15N) peak list with peaks spread over a typical HSQC
+     * region.
+     *
+     * @param name the peak list name
+     * @param nPeaks number of peaks
+     * @return the peak list
+     */
+    public static PeakList peakList(String name, int nPeaks) {
+        Random random = new Random(SEED);
+        PeakList peakList = new PeakList(name, 2);
+        for (int k = 0; k < nPeaks; k++) {
+            Peak peak = peakList.getNewPeak();
+            setPeakDim(peak.peakDims[0], 6.0 + random.nextDouble() * 4.5, 0.02);
+            setPeakDim(peak.peakDims[1], 102.0 + random.nextDouble() * 30.0, 0.3);
+        }
+        return peakList;
+    }
+
+    static void setPeakDim(PeakDim peakDim, double shift, double width) {
+        peakDim.setChemShiftValue((float) shift);
+        peakDim.setLineWidthValue((float) width);
+        peakDim.setBoundsValue((float) (width * 3.0));
+    }
+}
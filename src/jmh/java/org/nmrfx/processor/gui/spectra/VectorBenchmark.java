@@ -0,0 +1,89 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleBinaryOperator;
+import org.nmrfx.processor.gui.spectra.DatasetAttributes.AXMODE;
+import org.nmrfx.processor.math.Vec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of a 1D spectrum into the screen coordinates of its trace:
+ * the min/max decimation done by speedSpectrum, and the full drawVector path
+ * (which reads the vector and then calls speedSpectrum or maps each point).
+ *
+ * @author brucejohnson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorBenchmark {
+
+    static final double WIDTH = 1200.0;
+    static final double HEIGHT = 600.0;
+
+    @Param({"2048", "65536"})
+    int size;
+
+    double[] values;
+    Vec vec;
+    NMRAxisIO xAxis;
+    NMRAxisIO yAxis;
+    DoubleBinaryOperator xFunction;
+    DoubleBinaryOperator yFunction;
+    double[][] xy = new double[2][];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        values = SyntheticData.spectrum1D(size, 200);
+        vec = new Vec(size, false);
+        for (int i = 0; i < size; i++) {
+            vec.set(i, values[i]);
+        }
+        xAxis = new NMRAxisIO(0, size - 1, 0, WIDTH);
+        yAxis = new NMRAxisIO(-0.1, 1.5, HEIGHT, 0);
+        xFunction = (index, intensity) -> xAxis.getDisplayPosition(index);
+        yFunction = (index, intensity) -> yAxis.getDisplayPosition(intensity);
+    }
+
+    @Benchmark
+    public int speedSpectrum() {
+        int incr = Math.max(1, (size - 1) / 2048);
+        return DrawSpectrum.speedSpectrum(values, 0, 0, size - 1, 0.0, 1.0, incr, xy, xFunction, yFunction);
+    }
+
+    @Benchmark
+    public int drawVector() {
+        return DrawSpectrum.drawVector(vec, xAxis, yAxis, AXMODE.PTS, xy);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import javafx.concurrent.Task;
+import org.nmrfx.processor.math.Vec;
+
+/**
+ * Determines the phase of the FIDs being processed from a set of rows of a
+ * multidimensional (or arrayed) experiment, rather than from the one row
+ * shown in the processor. Each row is read and processed with the current
+ * script (one row at a time, as processing uses the shared process of the
+ * interpreter) and the automatic phasing of the rows, which takes most of the
+ * time, is done concurrently. The phases of the rows are combined into a
+ * consensus value with medians, so a few rows with little signal don't pull
+ * it away.
+ *
+ * @author brucejohnson
+ */
+public class BatchAutoPhase {
+
+    public enum Mode {
+        FLAT0("AutoPhase 0"),
+        FLAT01("AutoPhase 0+1"),
+        MAX("AutoPhase MaxMode");
+
+        final String description;
+
+        Mode(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * The phases found for each row and their consensus.
+     */
+    public static class Result {
+
+        final Mode mode;
+        final List<int[]> rows;
+        final double[] ph0;
+        final double[] ph1;
+        double consensusPh0 = 0.0;
+        double consensusPh1 = 0.0;
+        double spreadPh0 = 0.0;
+        double spreadPh1 = 0.0;
+
+        Result(Mode mode, List<int[]> rows) {
+            this.mode = mode;
+            this.rows = rows;
+            ph0 = new double[rows.size()];
+            ph1 = new double[rows.size()];
+            Arrays.fill(ph0, Double.NaN);
+            Arrays.fill(ph1, Double.NaN);
+        }
+
+        public double getPh0() {
+            return consensusPh0;
+        }
+
+        public double getPh1() {
+            return consensusPh1;
+        }
+
+        void calculateConsensus() {
+            List<Double> values0 = new ArrayList<>();
+            List<Double> values1 = new ArrayList<>();
+            double sumSin = 0.0;
+            double sumCos = 0.0;
+            for (int i = 0; i < ph0.length; i++) {
+                if (Double.isFinite(ph0[i]) && Double.isFinite(ph1[i])) {
+                    sumSin += Math.sin(Math.toRadians(ph0[i]));
+                    sumCos += Math.cos(Math.toRadians(ph0[i]));
+                    values1.add(ph1[i]);
+                }
+            }
+            if (values1.isEmpty()) {
+                throw new IllegalStateException("No rows could be phased");
+            }
+            // zero order phases are circular, so bring them within 180 degrees of their mean direction
+            double mean0 = Math.toDegrees(Math.atan2(sumSin, sumCos));
+            for (int i = 0; i < ph0.length; i++) {
+                if (Double.isFinite(ph0[i]) && Double.isFinite(ph1[i])) {
+                    values0.add(mean0 + wrap(ph0[i] - mean0));
+                }
+            }
+            consensusPh0 = median(values0);
+            consensusPh1 = median(values1);
+            spreadPh0 = medianDeviation(values0, consensusPh0);
+            spreadPh1 = medianDeviation(values1, consensusPh1);
+        }
+
+        static double wrap(double delta) {
+            delta = delta % 360.0;
+            if (delta > 180.0) {
+                delta -= 360.0;
+            } else if (delta < -180.0) {
+                delta += 360.0;
+            }
+            return delta;
+        }
+
+        static double median(List<Double> values) {
+            double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+            int n = sorted.length;
+            return (n % 2) == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2.0;
+        }
+
+        static double medianDeviation(List<Double> values, double center) {
+            List<Double> deviations = new ArrayList<>();
+            for (Double value : values) {
+                deviations.add(Math.abs(value - center));
+            }
+            return median(deviations);
+        }
+
+        public String getReport() {
+            StringBuilder sBuilder = new StringBuilder();
+            sBuilder.append(mode.getDescription()).append(" of ").append(rows.size()).append(" rows\n");
+            sBuilder.append(String.format("%-12s %8s %8s%n", "row", "ph0", "ph1"));
+            for (int i = 0; i < rows.size(); i++) {
+                String rowString = rowString(rows.get(i));
+                if (Double.isFinite(ph0[i])) {
+                    sBuilder.append(String.format("%-12s %8.1f %8.1f%n", rowString, ph0[i], ph1[i]));
+                } else {
+                    sBuilder.append(String.format("%-12s %8s %8s%n", rowString, "failed", ""));
+                }
+            }
+            sBuilder.append(String.format("%-12s %8.1f %8.1f%n", "consensus", consensusPh0, consensusPh1));
+            sBuilder.append(String.format("%-12s %8.1f %8.1f%n", "spread", spreadPh0, spreadPh1));
+            return sBuilder.toString();
+        }
+
+        static String rowString(int[] rows) {
+            StringBuilder sBuilder = new StringBuilder();
+            for (int i = 0; i < rows.length; i++) {
+                if (i > 0) {
+                    sBuilder.append(',');
+                }
+                sBuilder.append(rows[i] + 1);
+            }
+            return sBuilder.toString();
+        }
+    }
+
+    /**
+     * Parse a specification of rows (numbered from 1) like "1-64:4" (every
+     * fourth row from 1 to 64) or "1,5,9" into row indices.
+     *
+     * @param spec the specification
+     * @param size the number of rows
+     * @return the row indices (numbered from 0)
+     * @throws IllegalArgumentException if the specification can't be parsed
+     */
+    public static List<Integer> parseRows(String spec, int size) {
+        List<Integer> rows = new ArrayList<>();
+        for (String field : spec.split(",")) {
+            field = field.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            int step = 1;
+            int colon = field.indexOf(':');
+            if (colon != -1) {
+                step = Integer.parseInt(field.substring(colon + 1).trim());
+                field = field.substring(0, colon).trim();
+            }
+            int dash = field.indexOf('-', 1);
+            int first;
+            int last;
+            if (dash != -1) {
+                first = Integer.parseInt(field.substring(0, dash).trim());
+                last = Integer.parseInt(field.substring(dash + 1).trim());
+            } else {
+                first = Integer.parseInt(field);
+                last = first;
+            }
+            if ((step < 1) || (first < 1) || (last < first)) {
+                throw new IllegalArgumentException("Invalid rows " + field);
+            }
+            for (int row = first; row <= Math.min(last, size); row += step) {
+                if (!rows.contains(row - 1)) {
+                    rows.add(row - 1);
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("No rows in " + spec);
+        }
+        return rows;
+    }
+
+    /**
+     * Get a default specification of about nRows rows evenly spaced over the
+     * rows.
+     *
+     * @param size the number of rows
+     * @param nRows the number of rows wanted
+     * @return the specification
+     */
+    public static String getDefaultSpec(int size, int nRows) {
+        int step = Math.max(1, size / nRows);
+        return "1-" + size + ":" + step;
+    }
+
+    /**
+     * A background task that phases each of a set of rows.
+     */
+    public static class PhaseTask extends Task<Result> {
+
+        final ChartProcessor chartProcessor;
+        final Mode mode;
+        final List<int[]> rows;
+
+        PhaseTask(ChartProcessor chartProcessor, Mode mode, List<int[]> rows) {
+            this.chartProcessor = chartProcessor;
+            this.mode = mode;
+            this.rows = rows;
+        }
+
+        @Override
+        protected Result call() throws Exception {
+            Result result = new Result(mode, rows);
+            AtomicInteger nDone = new AtomicInteger(0);
+            int nRows = rows.size();
+            updateMessage(mode.getDescription());
+            updateProgress(0, nRows);
+            List<Exception> errors = new ArrayList<>();
+            IntStream.range(0, nRows).parallel().forEach(i -> {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    double[] phases = phaseRow(rows.get(i));
+                    result.ph0[i] = phases[0];
+                    result.ph1[i] = phases[1];
+                } catch (Exception ex) {
+                    synchronized (errors) {
+                        errors.add(ex);
+                    }
+                }
+                updateProgress(nDone.incrementAndGet(), nRows);
+            });
+            if (isCancelled()) {
+                return result;
+            }
+            if (errors.size() == nRows) {
+                throw errors.get(0);
+            }
+            result.calculateConsensus();
+            updateMessage("");
+            return result;
+        }
+
+        double[] phaseRow(int[] row) throws Exception {
+            FIDRowCache.RowVectors rowVectors = chartProcessor.readRowVectors(row);
+            List<Vec> processed = chartProcessor.processRowVectors(rowVectors);
+            Vec vec = processed.get(0);
+            double ph0;
+            double ph1 = vec.getPH1();
+            switch (mode) {
+                case MAX:
+                    ph0 = vec.autoPhaseByMax() + vec.getPH0();
+                    break;
+                default:
+                    double[] phases = vec.autoPhase(mode == Mode.FLAT01, 0, 0, 0, 45.0, 1.0);
+                    ph0 = phases[0] + vec.getPH0();
+                    if (phases.length == 2) {
+                        ph1 = phases[1] + vec.getPH1();
+                    }
+            }
+            return new double[]{ph0, ph1};
+        }
+    }
+
+    /**
+     * Start phasing a set of rows in the background. Progress is shown in the
+     * status bar of the controller, which also allows cancelling the task.
+     *
+     * @param controller the controller of the processor chart
+     * @param mode how to phase each row
+     * @param rows the rows (one index per indirect dimension for each)
+     * @return the task
+     */
+    public static PhaseTask phaseRows(FXMLController controller, Mode mode, List<int[]> rows) {
+        PhaseTask task = new PhaseTask(controller.chartProcessor, mode, rows);
+        controller.getStatusBar().showJob(task);
+        Thread thread = new Thread(task, "BatchAutoPhase");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+}
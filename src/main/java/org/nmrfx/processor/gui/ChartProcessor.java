@@ -70,6 +70,7 @@ public class ChartProcessor {
     }
 
     public void setNMRData(NMRData value) {
+        clearRowCache();
         nmrDataProperty().set(value);
     }
 
@@ -165,6 +166,14 @@ public class ChartProcessor {
 
     final ProcessorController processorController;
     FXMLController fxmlController;
+    final PreviewExecutor previewExecutor = new PreviewExecutor("ProcessingPreview");
+    // the script of the preview that hasn't been shown yet, if any
+    String pendingPreview = null;
+    static final int ROW_PREFETCH = Integer.getInteger("nmrfx.rowPrefetch", 4);
+    final PreviewExecutor rowExecutor = new PreviewExecutor("RowPrefetch");
+    final FIDRowCache rowCache = new FIDRowCache();
+    int lastRowDim = -1;
+    int lastRow = 0;
 
     static double[] echoAntiEchoCoefs = {1.0, 0.0, -1.0, 0.0, 0.0, 1.0, 0.0, 1.0};
     static double[] echoAntiEchoRCoefs = {1.0, 0.0, 1.0, 0.0, 0.0, 1.0, 0.0, -1.0};
@@ -227,6 +236,13 @@ public class ChartProcessor {
         return interpreter;
     }
 
+    /**
+     * Get the current process of the interpreter. Callers that change the
+     * process or execute it should hold the lock of the interpreter while
+     * doing so, as previews use the process from a background thread.
+     *
+     * @return the current process
+     */
     org.nmrfx.processor.processing.processes.ProcessOps getProcess() {
         PyObject pObject = interpreter.eval("getCurrentProcess()");
         ProcessOps process = (ProcessOps) pObject.__tojava__(ProcessOps.class);
@@ -412,6 +428,23 @@ public class ChartProcessor {
     }
 
     public int[] loadVectors(int iDim, int[] rows) {
+        // a preview of the previous vectors must not replace the new ones
+        previewExecutor.cancel();
+        FIDRowCache.RowVectors rowVectors = readRowVectors(rows);
+        synchronized (interpreter) {
+            showRowVectors(rowVectors, false);
+        }
+        return rowVectors.fileIndices;
+    }
+
+    /**
+     * Read the vectors of a group of rows from the data, without changing the
+     * vectors used for the preview. Can be called from a background thread.
+     *
+     * @param rows the row in each indirect dimension
+     * @return the vectors that were read
+     */
+    FIDRowCache.RowVectors readRowVectors(int[] rows) {
         //setFlags();
         NMRData nmrData = getNMRData();
         int nPoints = nmrData.getNPoints();
@@ -421,10 +454,7 @@ public class ChartProcessor {
                 nPoints *= 2;
             }
         }
-        ProcessOps process = getProcess();
-        process.clearVectors();
-        vectors.clear();
-        saveVectors.clear();
+        List<Vec> newVectors = new ArrayList<>();
         int nVectors = 1;
         VecIndex vecIndex = null;
         int index = 0;
@@ -456,37 +486,63 @@ public class ChartProcessor {
             }
         }
         int[] fileIndices = new int[nVectors];
-        for (int j = 0; j < nVectors; j++) {
-            Vec newVec = new Vec(nPoints, nmrData.isComplex(vecDim));
-            Vec saveVec = new Vec(nPoints, nmrData.isComplex(vecDim));
-
-            if (vecDim == 0) {
-                if (vecIndex == null) {
-                    fileIndices[j] = index;
-                    nmrData.readVector(index, newVec);
-                } else {
-                    fileIndices[j] = vecIndex.getInVec(j);
-                    nmrData.readVector(vecIndex.getInVec(j), newVec);
-                }
-            } else {
-                fileIndices[j] = index + j;
-                nmrData.readVector(vecDim, index + j, newVec);
-                if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("echo-antiecho")) {
-                    newVec.eaCombine(echoAntiEchoCoefs);
-                } else if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("echo-antiecho-r")) {
-                    newVec.eaCombine(echoAntiEchoRCoefs);
-                } else if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("hyper")) {
-                    newVec.eaCombine(hyperCoefs);
-                } else if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("hyper-r")) {
-                    newVec.eaCombine(hyperRCoefs);
+        // the readers of the vendor formats share file state between reads
+        synchronized (nmrData) {
+            for (int j = 0; j < nVectors; j++) {
+                Vec newVec = new Vec(nPoints, nmrData.isComplex(vecDim));
+
+                if (vecDim == 0) {
+                    if (vecIndex == null) {
+                        fileIndices[j] = index;
+                        nmrData.readVector(index, newVec);
+                    } else {
+                        fileIndices[j] = vecIndex.getInVec(j);
+                        nmrData.readVector(vecIndex.getInVec(j), newVec);
+                    }
                 } else {
-                    newVec.hcCombine();
+                    fileIndices[j] = index + j;
+                    nmrData.readVector(vecDim, index + j, newVec);
+                    if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("echo-antiecho")) {
+                        newVec.eaCombine(echoAntiEchoCoefs);
+                    } else if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("echo-antiecho-r")) {
+                        newVec.eaCombine(echoAntiEchoRCoefs);
+                    } else if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("hyper")) {
+                        newVec.eaCombine(hyperCoefs);
+                    } else if ((acqMode[vecDim] != null) && acqMode[vecDim].equals("hyper-r")) {
+                        newVec.eaCombine(hyperRCoefs);
+                    } else {
+                        newVec.hcCombine();
+                    }
                 }
+
+                newVec.setPh0(0.0);
+                newVec.setPh1(0.0);
+                newVectors.add(newVec);
             }
+        }
+        return new FIDRowCache.RowVectors(rows, newVectors, fileIndices);
+    }
 
-            newVec.setPh0(0.0);
-            newVec.setPh1(0.0);
-            newVec.copy(saveVec);
+    /**
+     * Make a group of rows the vectors used for the preview.
+     *
+     * @param rowVectors the vectors of the rows
+     * @param processed true to show the processed vectors, false to show the
+     * vectors as read (ready to be processed)
+     */
+    void showRowVectors(FIDRowCache.RowVectors rowVectors, boolean processed) {
+        ProcessOps process = getProcess();
+        process.clearVectors();
+        vectors.clear();
+        saveVectors.clear();
+        List<Vec> sourceVectors = processed ? rowVectors.processed : rowVectors.vectors;
+        for (int j = 0; j < rowVectors.vectors.size(); j++) {
+            Vec readVec = rowVectors.vectors.get(j);
+            Vec sourceVec = sourceVectors.get(j);
+            Vec newVec = new Vec(sourceVec.getSize(), sourceVec.isComplex());
+            Vec saveVec = new Vec(readVec.getSize(), readVec.isComplex());
+            sourceVec.copy(newVec);
+            readVec.copy(saveVec);
             int[][] pt = new int[1][2];
             int[] dim = new int[1];
             newVec.setPt(pt, dim);
@@ -497,7 +553,6 @@ public class ChartProcessor {
         Vec vec = vectors.get(iVec);
         vec.setName("vec" + iVec);
         chart.setDataset(new Dataset(vec), false, true);
-        return fileIndices;
     }
 
     public void setVector(int value) {
@@ -543,18 +598,151 @@ public class ChartProcessor {
                 i = 0;
             }
             fxmlController.setRowLabel(i + 1, size);
+            // a preview still running was made from the vectors of the old
+            // row, so drop it and preview the new row with its script instead
+            String previewPending = pendingPreview;
+            previewExecutor.cancel();
+            pendingPreview = null;
             int[] rows = fxmlController.getRows();
-            int[] fileIndices = loadVectors(1, rows);
+            int direction = (iDim == lastRowDim) && (i < lastRow) ? -1 : 1;
+            lastRowDim = iDim;
+            lastRow = i;
+            FIDRowCache.RowVectors cached = rowCache.get(vecDim, rows);
+            int[] fileIndices;
+            if ((cached != null) && (cached.processed != null)) {
+                synchronized (interpreter) {
+                    showRowVectors(cached, true);
+                }
+                fileIndices = cached.fileIndices;
+            } else {
+                FIDRowCache.RowVectors rowVectors = readRowVectors(rows);
+                fileIndices = rowVectors.fileIndices;
+                synchronized (interpreter) {
+                    showRowVectors(rowVectors, false);
+                    try {
+                        ProcessOps process = getProcess();
+                        process.exec();
+                        rowVectors.processed = copyVectors(vectors);
+                        rowCache.put(vecDim, rowVectors, rowCache.getGeneration());
+                    } catch (IncompleteProcessException ipe) {
+                        ipe.printStackTrace();
+                    }
+                }
+            }
             fxmlController.setFileIndex(fileIndices);
+
+            chart.layoutPlotChildren();
+            if (previewPending != null) {
+                previewScript(previewPending);
+            } else if ((nDim > 1) && (iDim > 0) && (iDim <= rows.length)) {
+                prefetchRows(rows, iDim - 1, size, direction);
+            }
+        }
+    }
+
+    static List<Vec> copyVectors(List<Vec> source) {
+        List<Vec> copies = new ArrayList<>();
+        for (Vec vec : source) {
+            Vec copy = new Vec(vec.getSize(), vec.isComplex());
+            vec.copy(copy);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Read and process, in the background, the rows next to the current one
+     * (mostly in the direction the user is stepping) so they can be shown
+     * immediately. The row cache drops the least recently shown rows to make
+     * room for them. Prefetching is abandoned when the user steps again or the
+     * processing changes.
+     *
+     * @param rows the current rows
+     * @param rowIndex the index in rows of the dimension being stepped
+     * @param size the number of rows in that dimension
+     * @param direction the direction the user is stepping (1 or -1)
+     */
+    void prefetchRows(int[] rows, int rowIndex, int size, int direction) {
+        if (processorController.isViewingDataset() || (ROW_PREFETCH < 1)) {
+            return;
+        }
+        List<int[]> prefetchRows = new ArrayList<>();
+        for (int k = 1; k <= ROW_PREFETCH + 1; k++) {
+            // one row behind, after the rows ahead
+            int delta = k <= ROW_PREFETCH ? k * direction : -direction;
+            int row = rows[rowIndex] + delta;
+            if ((row >= 0) && (row < size)) {
+                int[] neighbor = rows.clone();
+                neighbor[rowIndex] = row;
+                prefetchRows.add(neighbor);
+            }
+        }
+        int prefetchDim = vecDim;
+        long cacheGeneration = rowCache.getGeneration();
+        rowExecutor.submit(token -> {
+            int nRead = 0;
+            for (int[] neighbor : prefetchRows) {
+                if (token.isCancelled()) {
+                    break;
+                }
+                if (rowCache.contains(prefetchDim, neighbor)) {
+                    continue;
+                }
+                FIDRowCache.RowVectors rowVectors = readRowVectors(neighbor);
+                token.checkCancelled();
+                rowVectors.processed = processRowVectors(rowVectors);
+                if (rowCache.put(prefetchDim, rowVectors, cacheGeneration)) {
+                    nRead++;
+                }
+            }
+            return nRead;
+        }, nRead -> {
+        }, throwable -> System.out.println("Can't prefetch rows " + throwable.getMessage()));
+    }
+
+    /**
+     * Process copies of the vectors of a group of rows with the current
+     * script, leaving the preview vectors as they are. Can be called from a
+     * background thread; processing is done one group at a time as it uses
+     * the current process of the interpreter.
+     *
+     * @param rowVectors the vectors of the rows, as read
+     * @return the processed vectors
+     * @throws IncompleteProcessException if the processing fails
+     */
+    List<Vec> processRowVectors(FIDRowCache.RowVectors rowVectors) throws IncompleteProcessException {
+        List<Vec> workVectors = copyVectors(rowVectors.vectors);
+        synchronized (interpreter) {
+            ProcessOps process = getProcess();
+            process.clearVectors();
+            for (Vec workVec : workVectors) {
+                workVec.setPt(new int[1][2], new int[1]);
+                process.addVec(workVec);
+            }
             try {
-                ProcessOps process = getProcess();
                 process.exec();
-            } catch (IncompleteProcessException ipe) {
-                ipe.printStackTrace();
+            } finally {
+                // leave the process with the displayed vectors
+                process.clearVectors();
+                for (Vec vec : vectors) {
+                    process.addVec(vec);
+                }
             }
-
-            chart.layoutPlotChildren();
         }
+        return workVectors;
+    }
+
+    /**
+     * Drop the prefetched rows, and stop prefetching. Called whenever the
+     * processing of the rows changes.
+     */
+    void clearRowCache() {
+        rowExecutor.cancel();
+        rowCache.clear();
+    }
+
+    public String getRowCacheStatistics() {
+        return rowCache.getStatistics();
     }
 
     public void setupProcess() {
@@ -668,7 +856,7 @@ public class ChartProcessor {
         if (pController.isViewingDataset() && pController.autoProcess.isSelected()) {
             processorController.processIfIdle();
         } else {
-            execScriptList(false);
+            previewScriptList();
         }
 
     }
@@ -686,6 +874,7 @@ public class ChartProcessor {
             value = 0;
             isDim = false;
         }
+        clearRowCache();
         vecDimName = dimName;
         vecDim = value;
         ArrayList<String> oldList = new ArrayList<>();
@@ -1107,10 +1296,12 @@ public class ChartProcessor {
     }
 
     public void setFlags(Map<String, Boolean> flags) {
+        clearRowCache();
         getNMRData().setFidFlags(flags);
     }
 
     void updateCounter() {
+        clearRowCache();
         NMRData nmrData = getNMRData();
         String[] acqOrder = nmrData.getAcqOrder();
 
@@ -1234,11 +1425,13 @@ public class ChartProcessor {
             //System.out.println("load vec from reload");
             loadVectors(0);
             chart.setCrossHairState(false, true, false, true);
-            try {
-                ProcessOps process = getProcess();
-                process.exec();
-            } catch (IncompleteProcessException ipe) {
-                ipe.printStackTrace();
+            synchronized (interpreter) {
+                try {
+                    ProcessOps process = getProcess();
+                    process.exec();
+                } catch (IncompleteProcessException ipe) {
+                    ipe.printStackTrace();
+                }
             }
             int[] sizes = new int[1];
             sizes[0] = 1;
@@ -1268,6 +1461,15 @@ public class ChartProcessor {
     }
 
     public void execScript(String script, boolean doProcess, boolean reloadData) {
+        previewExecutor.cancel();
+        pendingPreview = null;
+        clearRowCache();
+        synchronized (interpreter) {
+            execScriptNow(script, doProcess, reloadData);
+        }
+    }
+
+    void execScriptNow(String script, boolean doProcess, boolean reloadData) {
         Processor.getProcessor().clearProcessorError();
         ProcessOps process = getProcess();
         process.clearOps();
@@ -1304,24 +1506,7 @@ public class ChartProcessor {
             }
             interpreter.exec(script);
         } catch (Exception pE) {
-            if (pE instanceof IncompleteProcessException) {
-                OperationListCell.failedOperation(((IncompleteProcessException) pE).index);
-                processorController.setProcessingStatus(pE.getMessage(), false, pE);
-            } else if (pE instanceof PyException) {
-                PyException pyE = (PyException) pE;
-                if (pyE.getCause() == null) {
-                    if (pE.getLocalizedMessage() != null) {
-                        processorController.setProcessingStatus("pyerror " + pE.getLocalizedMessage(), false, pE);
-                    } else {
-                        processorController.setProcessingStatus("pyerror " + pyE.type.toString(), false, pE);
-                    }
-                } else {
-                    processorController.setProcessingStatus(pyE.getCause().getMessage(), false, pE);
-                }
-                pyE.printStackTrace();
-            } else {
-                processorController.setProcessingStatus("error " + pE.getMessage(), false, pE);
-            }
+            showScriptError(pE);
             int j = 0;
             for (Vec saveVec : saveVectors) {
                 Vec loadVec = vectors.get(j);
@@ -1370,17 +1555,150 @@ public class ChartProcessor {
         }
     }
 
-    public void addFIDToPython() {
-        interpreter.exec("from pyproc import *");
-        interpreter.exec("useLocal()");
-        interpreter.exec("fidInfo = makeFIDInfo()");
+    void showScriptError(Exception pE) {
+        if (pE instanceof IncompleteProcessException) {
+            OperationListCell.failedOperation(((IncompleteProcessException) pE).index);
+            processorController.setProcessingStatus(pE.getMessage(), false, pE);
+        } else if (pE instanceof PyException) {
+            PyException pyE = (PyException) pE;
+            if (pyE.getCause() == null) {
+                if (pE.getLocalizedMessage() != null) {
+                    processorController.setProcessingStatus("pyerror " + pE.getLocalizedMessage(), false, pE);
+                } else {
+                    processorController.setProcessingStatus("pyerror " + pyE.type.toString(), false, pE);
+                }
+            } else {
+                processorController.setProcessingStatus(pyE.getCause().getMessage(), false, pE);
+            }
+            pyE.printStackTrace();
+        } else {
+            processorController.setProcessingStatus("error " + pE.getMessage(), false, pE);
+        }
+    }
+
+    public void previewScriptList() {
+        if (vecDimName.startsWith("D") && (vecDimName.indexOf(',') == -1)) {
+            previewScript(processorController.getScript());
+        }
+    }
+
+    /**
+     * Process the displayed vectors with a script in the background, for live
+     * previews while parameters are being edited. Only the most recent preview
+     * is processed: previews that haven't started when a newer one is
+     * requested are dropped, and one that is running is abandoned (between the
+     * script and processing steps) and its result discarded. The vectors are
+     * processed as copies and the displayed vectors are only updated, on the
+     * FX thread, with the result of the latest preview.
+     *
+     * @param script the processing script
+     */
+    public void previewScript(String script) {
+        if (processorController.isViewingDataset()) {
+            return;
+        }
+        NMRData nmrData = getNMRData();
+        if ((nmrData == null) || ((nmrData instanceof NMRViewData) && !nmrData.isFID())
+                || (processorController.refManager == null) || saveVectors.isEmpty()) {
+            execScript(script, true, false);
+            return;
+        }
+        // the cache is cleared once the new script has been run
+        rowExecutor.cancel();
+        String parString = processorController.refManager.getParString(nmrData.getNDim(), "");
+        List<Vec> workVectors = new ArrayList<>();
+        for (Vec saveVec : saveVectors) {
+            Vec workVec = new Vec(saveVec.getSize(), saveVec.isComplex());
+            saveVec.copy(workVec);
+            workVec.setPt(new int[1][2], new int[1]);
+            workVectors.add(workVec);
+        }
+        processorController.clearProcessingTextLabel();
+        pendingPreview = script;
+        previewExecutor.submit(token -> {
+            synchronized (interpreter) {
+                token.checkCancelled();
+                Processor.getProcessor().clearProcessorError();
+                ProcessOps process = getProcess();
+                process.clearOps();
+                NMRDataUtil.setCurrentData(nmrData);
+                interpreter.exec("useLocal()");
+                interpreter.exec("fidInfo = makeFIDInfo()");
+                interpreter.exec(parString);
+                interpreter.exec(script);
+                clearRowCache();
+                token.checkCancelled();
+                process.clearVectors();
+                for (Vec workVec : workVectors) {
+                    process.addVec(workVec);
+                }
+                process.exec();
+                return workVectors;
+            }
+        }, this::showPreview, this::showPreviewError);
+    }
+
+    void showPreview(List<Vec> workVectors) {
+        pendingPreview = null;
+        if (processorController.isViewingDataset() || (workVectors.size() != vectors.size())) {
+            return;
+        }
+        synchronized (interpreter) {
+            ProcessOps process = getProcess();
+            process.clearVectors();
+            for (int i = 0; i < workVectors.size(); i++) {
+                workVectors.get(i).copy(vectors.get(i));
+                process.addVec(vectors.get(i));
+            }
+        }
+        OperationListCell.resetCells();
+        chart.layoutPlotChildren();
+    }
+
+    void showPreviewError(Throwable throwable) {
+        pendingPreview = null;
+        if (throwable instanceof Exception) {
+            showScriptError((Exception) throwable);
+        } else {
+            processorController.setProcessingStatus("error " + throwable.getMessage(), false, throwable);
+        }
+        if (processorController.isViewingDataset() || (saveVectors.size() != vectors.size())) {
+            return;
+        }
+        // the failed preview left its work copies in the process
+        synchronized (interpreter) {
+            ProcessOps process = getProcess();
+            process.clearVectors();
+            int j = 0;
+            for (Vec saveVec : saveVectors) {
+                Vec loadVec = vectors.get(j);
+                saveVec.copy(loadVec);
+                process.addVec(loadVec);
+                j++;
+            }
+        }
+        chart.layoutPlotChildren();
+    }
 
+    public String getPreviewStatistics() {
+        return previewExecutor.getStatistics();
+    }
+
+    public void addFIDToPython() {
+        synchronized (interpreter) {
+            interpreter.exec("from pyproc import *");
+            interpreter.exec("useLocal()");
+            interpreter.exec("fidInfo = makeFIDInfo()");
+        }
     }
 
     public String getGenScript(boolean arrayed) {
-        addFIDToPython();
         String arrayVal = arrayed ? "True" : "False";
-        PyObject pyDocObject = interpreter.eval("genScript(arrayed=" + arrayVal + ")");
+        PyObject pyDocObject;
+        synchronized (interpreter) {
+            addFIDToPython();
+            pyDocObject = interpreter.eval("genScript(arrayed=" + arrayVal + ")");
+        }
         String scriptString = (String) pyDocObject.__tojava__(String.class);
         return scriptString;
     }
@@ -0,0 +1,118 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A simple blocking client for {@link CommandServer}, for use from scripts or
+ * as a stand-in for an external program when checking the server.
+ *
+ * @author brucejohnson
+ */
+public class CommandClient implements Closeable {
+
+    final Socket socket;
+    final BufferedReader reader;
+    final Writer writer;
+    int nextId = 1;
+
+    public CommandClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Send a command and wait for its response.
+     *
+     * @param command the command and its arguments, without a request id
+     * @return the response line, without the request id
+     * @throws IOException if the connection fails
+     */
+    public String send(String command) throws IOException {
+        return send(List.of(command)).get(0);
+    }
+
+    /**
+     * Send a list of commands without waiting between them and then collect
+     * all the responses.
+     *
+     * @param commandList the commands, without request ids
+     * @return the response lines, without the request ids, in the same order
+     * as the commands
+     * @throws IOException if the connection fails
+     */
+    public List<String> send(List<String> commandList) throws IOException {
+        return send(commandList, false);
+    }
+
+    /**
+     * Send a list of commands and then collect all the responses, optionally
+     * shutting down the output side of the connection once the commands have
+     * been written. No more commands can be sent after the output is shut
+     * down, but the responses to those already sent are still read.
+     *
+     * @param commandList the commands, without request ids
+     * @param closeOutput true to shut down the output after the commands
+     * @return the response lines, without the request ids, in the same order
+     * as the commands
+     * @throws IOException if the connection fails
+     */
+    public List<String> send(List<String> commandList, boolean closeOutput) throws IOException {
+        int firstId = nextId;
+        for (String command : commandList) {
+            writer.write(nextId++ + " " + command + "\n");
+        }
+        writer.flush();
+        if (closeOutput) {
+            socket.shutdownOutput();
+        }
+        String[] responses = new String[commandList.size()];
+        Map<Integer, String> responseMap = new HashMap<>();
+        for (int i = 0; i < responses.length; i++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Connection closed");
+            }
+            int space = line.indexOf(' ');
+            int id = Integer.parseInt(space < 0 ? line : line.substring(0, space));
+            responseMap.put(id, space < 0 ? "" : line.substring(space + 1));
+        }
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = responseMap.get(firstId + i);
+        }
+        return List.of(responses);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import org.nmrfx.processor.gui.spectra.DatasetBlockCache;
+
+/**
+ * A non-blocking command server that lets external programs drive NMRFx over
+ * a local TCP connection. Any number of clients can be connected, and each
+ * can pipeline requests without waiting for the responses.
+ *
+ * Requests and responses are single lines of UTF-8 text. A request is
+ * {@code <id> <command> [args...]} where the id is an integer chosen by the
+ * client. Each request gets one response, {@code <id> OK [result]} or
+ * {@code <id> ERR <message>}, with newlines in the result escaped as
+ * {@code \n}. Responses to commands that don't touch the GUI are sent as soon
+ * as they are handled, so a connection's responses may arrive out of order
+ * and should be matched up by id.
+ *
+ * Commands that touch the GUI are queued, and all those waiting are run
+ * together in a single task on the FX thread. Drawing of the charts is held
+ * off while the queue is run, and each chart that asked to be drawn is
+ * redrawn once at the end.
+ *
+ * A client may shut down its side of the connection once it has sent its
+ * requests. The connection is closed after the responses to all of them,
+ * including any still waiting to be run on the FX thread, have been written.
+ *
+ * Lines that don't start with an integer id are passed to an optional legacy
+ * handler (without a response), so older clients that send bare
+ * {@code showpeak} requests keep working.
+ *
+ * @author brucejohnson
+ */
+public class CommandServer {
+
+    static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    /**
+     * Executes a command. The returned string is sent back to the client as
+     * the result. Thrown exceptions are reported to the client as errors.
+     */
+    public interface CommandHandler {
+
+        String handle(List<String> args) throws Exception;
+    }
+
+    static class Command {
+
+        final boolean gui;
+        final CommandHandler handler;
+
+        Command(boolean gui, CommandHandler handler) {
+            this.gui = gui;
+            this.handler = handler;
+        }
+    }
+
+    static class Connection {
+
+        final SocketChannel channel;
+        final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+        final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pending = new AtomicInteger();
+        volatile boolean inputClosed = false;
+        SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    static class Request {
+
+        final Connection connection;
+        final String id;
+        final Command command;
+        final List<String> args;
+        final long startTime;
+
+        Request(Connection connection, String id, Command command, List<String> args) {
+            this.connection = connection;
+            this.id = id;
+            this.command = command;
+            this.args = args;
+            this.startTime = System.nanoTime();
+        }
+    }
+
+    final int port;
+    final Map<String, Command> commands = new ConcurrentHashMap<>();
+    final Queue<Request> guiQueue = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean guiDrainScheduled = new AtomicBoolean(false);
+    final Queue<Connection> writeReady = new ConcurrentLinkedQueue<>();
+    Consumer<String> legacyHandler = null;
+    Executor guiExecutor = Platform::runLater;
+    Selector selector;
+    ServerSocketChannel serverChannel;
+    Thread thread;
+    volatile boolean running = false;
+
+    final LongAdder nRequests = new LongAdder();
+    final LongAdder nErrors = new LongAdder();
+    final LongAdder nGUIRequests = new LongAdder();
+    final LongAdder nGUIBatches = new LongAdder();
+    final LongAdder totalLatency = new LongAdder();
+    final AtomicLong maxLatency = new AtomicLong();
+    final AtomicLong nConnections = new AtomicLong();
+    long startTime = 0;
+
+    public CommandServer(int port) {
+        this.port = port;
+        registerDefaultCommands();
+    }
+
+    /**
+     * Add (or replace) a command.
+     *
+     * @param name the command name, as it appears after the request id
+     * @param gui true if the command must be run on the FX thread. Such
+     * commands are batched together with any others that are waiting.
+     * @param handler the handler that executes the command
+     */
+    public void register(String name, boolean gui, CommandHandler handler) {
+        commands.put(name, new Command(gui, handler));
+    }
+
+    public void setLegacyHandler(Consumer<String> legacyHandler) {
+        this.legacyHandler = legacyHandler;
+    }
+
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    void registerDefaultCommands() {
+        register("ping", false, args -> "pong");
+        register("stats", false, args -> statsString());
+        register("commands", false, args -> String.join(" ", commands.keySet()));
+        register("metrics", false, args -> {
+            PolyChart chart = PolyChart.getActiveChart();
+            return chart == null ? "" : chart.getRenderMetrics().getMetrics().toString();
+        });
+        register("cache", false, args -> DatasetBlockCache.getStatistics().toString());
+        register("stalls", false, args -> {
+            FxWatchdog watchdog = FxWatchdog.getWatchdog();
+            return watchdog == null ? "" : watchdog.getSummary(10).trim();
+        });
+        register("showPeak", true, args -> {
+            checkArgs(args, 1);
+            FXMLController.getActiveController().refreshPeakView(args.get(0));
+            return "";
+        });
+        register("active", true, args -> {
+            checkArgs(args, 1);
+            new GUIScripter().active(args.get(0));
+            return "";
+        });
+        register("limit", true, args -> {
+            checkArgs(args, 3);
+            new GUIScripter().limit(args.get(0), Double.parseDouble(args.get(1)), Double.parseDouble(args.get(2)));
+            return "";
+        });
+        register("full", true, args -> {
+            new GUIScripter().full();
+            return "";
+        });
+        register("draw", true, args -> {
+            new GUIScripter().drawAll();
+            return "";
+        });
+    }
+
+    static void checkArgs(List<String> args, int nArgs) {
+        if (args.size() < nArgs) {
+            throw new IllegalArgumentException("Need " + nArgs + " arguments");
+        }
+    }
+
+    /**
+     * Start listening on the loopback interface. Returns once the port is
+     * bound; connections are handled on a background thread.
+     *
+     * @throws IOException if the port can't be bound
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        startTime = System.nanoTime();
+        thread = new Thread(this::run, "CommandServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection connection;
+                while ((connection = writeReady.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(getWriteOps(connection));
+                    }
+                }
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException ioE) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException ioE) {
+            System.out.println("Command server stopped " + ioE.getMessage());
+        } finally {
+            running = false;
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException ioE) {
+                System.out.println(ioE.getMessage());
+            }
+        }
+    }
+
+    void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            nConnections.incrementAndGet();
+        }
+    }
+
+    void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ioE) {
+            System.out.println(ioE.getMessage());
+        }
+    }
+
+    void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.readBuffer;
+        int nRead = connection.channel.read(buffer);
+        if (nRead < 0) {
+            // the client has finished sending, but responses may still be due
+            if (connection.lineBuffer.size() > 0) {
+                String line = new String(connection.lineBuffer.toByteArray(), StandardCharsets.UTF_8);
+                connection.lineBuffer.reset();
+                handleLine(connection, line.trim());
+            }
+            connection.inputClosed = true;
+            closeIfDone(key);
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                String line = new String(connection.lineBuffer.toByteArray(), StandardCharsets.UTF_8);
+                connection.lineBuffer.reset();
+                handleLine(connection, line.trim());
+            } else {
+                connection.lineBuffer.write(b);
+                if (connection.lineBuffer.size() > MAX_LINE_LENGTH) {
+                    throw new IOException("Request too long");
+                }
+            }
+        }
+        buffer.clear();
+    }
+
+    void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer;
+        while ((buffer = connection.output.peek()) != null) {
+            connection.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            connection.output.poll();
+        }
+        if (connection.inputClosed) {
+            closeIfDone(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        // a response may have been queued while the interest was being reset
+        if (!connection.output.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Close a connection whose client has shut down its output, once there
+     * are no requests left to run and all the responses have been written.
+     * Until then only writes are of interest.
+     */
+    void closeIfDone(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if ((connection.pending.get() == 0) && connection.output.isEmpty()) {
+            close(key);
+        } else {
+            key.interestOps(connection.output.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        }
+    }
+
+    static int getWriteOps(Connection connection) {
+        return connection.inputClosed ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+    }
+
+    void handleLine(Connection connection, String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+        List<String> fields = Arrays.asList(line.split("\\s+"));
+        String id = fields.get(0);
+        if (!isId(id)) {
+            if (legacyHandler != null) {
+                Consumer<String> handler = legacyHandler;
+                Platform.runLater(() -> handler.accept(line));
+            } else {
+                send(connection, "- ERR Request must start with an integer id");
+            }
+            return;
+        }
+        if (fields.size() < 2) {
+            nRequests.increment();
+            nErrors.increment();
+            send(connection, id + " ERR No command");
+            return;
+        }
+        Command command = commands.get(fields.get(1));
+        if (command == null) {
+            nRequests.increment();
+            nErrors.increment();
+            send(connection, id + " ERR Unknown command \"" + fields.get(1) + "\"");
+            return;
+        }
+        Request request = new Request(connection, id, command, new ArrayList<>(fields.subList(2, fields.size())));
+        if (command.gui) {
+            nGUIRequests.increment();
+            connection.pending.incrementAndGet();
+            guiQueue.add(request);
+            if (guiDrainScheduled.compareAndSet(false, true)) {
+                guiExecutor.execute(this::runGUIRequests);
+            }
+        } else {
+            execute(request);
+        }
+    }
+
+    static boolean isId(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return !s.isEmpty();
+    }
+
+    /**
+     * Run all the queued GUI requests. Charts are disabled while the requests
+     * run and any that tried to draw are refreshed once afterwards.
+     */
+    void runGUIRequests() {
+        guiDrainScheduled.set(false);
+        nGUIBatches.increment();
+        List<PolyChart> heldCharts = new ArrayList<>();
+        for (PolyChart chart : PolyChart.CHARTS) {
+            if (!chart.disabled) {
+                chart.drawDeferred = false;
+                chart.setDisable(true);
+                heldCharts.add(chart);
+            }
+        }
+        try {
+            Request request;
+            while ((request = guiQueue.poll()) != null) {
+                execute(request);
+                if (request.connection.pending.decrementAndGet() == 0) {
+                    // wake the server so it can close a half closed connection
+                    writeReady.add(request.connection);
+                    selector.wakeup();
+                }
+            }
+        } finally {
+            for (PolyChart chart : heldCharts) {
+                chart.setDisable(false);
+                if (chart.drawDeferred) {
+                    chart.drawDeferred = false;
+                    chart.refresh();
+                }
+            }
+        }
+    }
+
+    void execute(Request request) {
+        String response;
+        try {
+            String result = request.command.handler.handle(request.args);
+            response = request.id + " OK";
+            if ((result != null) && !result.isEmpty()) {
+                response += " " + result;
+            }
+        } catch (Exception e) {
+            nErrors.increment();
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            response = request.id + " ERR " + message;
+        }
+        long latency = System.nanoTime() - request.startTime;
+        nRequests.increment();
+        totalLatency.add(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        send(request.connection, response);
+    }
+
+    void send(Connection connection, String response) {
+        String line = response.replace("\r", "").replace("\n", "\\n") + "\n";
+        connection.output.add(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+        if (Thread.currentThread() == thread) {
+            connection.key.interestOps(getWriteOps(connection));
+        } else {
+            writeReady.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Get the server's counters.
+     *
+     * @return a map of counter name to value. Latencies are in milliseconds,
+     * throughput in requests per second.
+     */
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        long n = nRequests.sum();
+        double elapsed = (System.nanoTime() - startTime) / 1.0e9;
+        stats.put("connections", nConnections.get());
+        stats.put("requests", n);
+        stats.put("errors", nErrors.sum());
+        stats.put("guiRequests", nGUIRequests.sum());
+        stats.put("guiBatches", nGUIBatches.sum());
+        stats.put("meanLatency", n > 0 ? totalLatency.sum() / n / 1.0e6 : 0.0);
+        stats.put("maxLatency", maxLatency.get() / 1.0e6);
+        stats.put("throughput", elapsed > 0.0 ? n / elapsed : 0.0);
+        return stats;
+    }
+
+    String statsString() {
+        StringBuilder sBuilder = new StringBuilder();
+        for (Map.Entry<String, Number> entry : getStats().entrySet()) {
+            if (sBuilder.length() > 0) {
+                sBuilder.append(' ');
+            }
+            Number value = entry.getValue();
+            sBuilder.append(entry.getKey()).append('=');
+            if (value instanceof Double) {
+                sBuilder.append(String.format("%.3f", value.doubleValue()));
+            } else {
+                sBuilder.append(value);
+            }
+        }
+        return sBuilder.toString();
+    }
+}
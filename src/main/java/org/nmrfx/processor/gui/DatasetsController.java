@@ -69,6 +69,10 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.Tooltip;
 import javafx.scene.shape.Polygon;
 import org.nmrfx.datasets.DatasetBase;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.gui.spectra.DatasetBlockCache;
+import org.nmrfx.processor.gui.spectra.DatasetStatistics;
+import org.nmrfx.processor.gui.spectra.IntegralCache;
 import org.nmrfx.processor.gui.controls.FractionCanvas;
 import org.nmrfx.project.ProjectBase;
 
@@ -614,6 +618,11 @@ public class DatasetsController implements Initializable, PropertyChangeListener
         if (response.isPresent() && response.get().getText().equals("OK")) {
             ObservableList<DatasetBase> datasets = tableView.getSelectionModel().getSelectedItems();
             for (DatasetBase dataset : datasets) {
+                if (dataset instanceof Dataset) {
+                    DatasetBlockCache.invalidate((Dataset) dataset);
+                    IntegralCache.invalidate((Dataset) dataset);
+                    DatasetStatistics.remove((Dataset) dataset);
+                }
                 dataset.close();
             }
         }
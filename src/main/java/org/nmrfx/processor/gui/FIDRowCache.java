@@ -0,0 +1,144 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.nmrfx.processor.math.Vec;
+
+/**
+ * Holds the vectors of FID rows that have been read, and processed with the
+ * current script, for the processor preview, so that stepping back and forth
+ * through the rows of a multidimensional experiment can show rows without
+ * reading and processing them again. The least recently used rows are dropped
+ * when the vectors take more memory than the limit (set in MB with the
+ * nmrfx.rowCacheMB property). The cache must be cleared whenever anything
+ * that changes the vectors read or their processing (the data, the script,
+ * the dimension or the acquisition order) changes.
+ *
+ * @author brucejohnson
+ */
+public class FIDRowCache {
+
+    static final long MAX_BYTES = Long.getLong("nmrfx.rowCacheMB", 128) * 1024 * 1024;
+
+    /**
+     * The vectors of one group of rows, as read from the data and after
+     * processing.
+     */
+    public static class RowVectors {
+
+        final int[] rows;
+        final List<Vec> vectors;
+        final int[] fileIndices;
+        List<Vec> processed = null;
+
+        RowVectors(int[] rows, List<Vec> vectors, int[] fileIndices) {
+            this.rows = rows.clone();
+            this.vectors = vectors;
+            this.fileIndices = fileIndices;
+        }
+
+        long getBytes() {
+            long bytes = 0;
+            for (Vec vec : vectors) {
+                bytes += (long) vec.getSize() * (vec.isComplex() ? 16 : 8);
+            }
+            if (processed != null) {
+                for (Vec vec : processed) {
+                    bytes += (long) vec.getSize() * (vec.isComplex() ? 16 : 8);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    final Map<String, RowVectors> cache = new LinkedHashMap<>(16, 0.75f, true);
+    final Map<String, Long> sizes = new LinkedHashMap<>();
+    long cacheBytes = 0;
+    long generation = 0;
+    long hits = 0;
+    long misses = 0;
+
+    static String getKey(int vecDim, int[] rows) {
+        return vecDim + ":" + Arrays.toString(rows);
+    }
+
+    public synchronized RowVectors get(int vecDim, int[] rows) {
+        RowVectors rowVectors = cache.get(getKey(vecDim, rows));
+        if ((rowVectors != null) && (rowVectors.processed != null)) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return rowVectors;
+    }
+
+    public synchronized boolean contains(int vecDim, int[] rows) {
+        RowVectors rowVectors = cache.get(getKey(vecDim, rows));
+        return (rowVectors != null) && (rowVectors.processed != null);
+    }
+
+    /**
+     * Get the generation of the cache, which changes each time it's cleared.
+     * Rows read in the background are only added if the cache hasn't been
+     * cleared since they were requested.
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized boolean put(int vecDim, RowVectors rowVectors, long requestGeneration) {
+        String key = getKey(vecDim, rowVectors.rows);
+        long bytes = rowVectors.getBytes();
+        if ((requestGeneration != generation) || (bytes > MAX_BYTES / 2)) {
+            return false;
+        }
+        cache.put(key, rowVectors);
+        Long oldBytes = sizes.put(key, bytes);
+        if (oldBytes != null) {
+            cacheBytes -= oldBytes;
+        }
+        cacheBytes += bytes;
+        Iterator<String> iter = cache.keySet().iterator();
+        while ((cacheBytes > MAX_BYTES) && iter.hasNext()) {
+            String oldest = iter.next();
+            if (!oldest.equals(key)) {
+                cacheBytes -= sizes.remove(oldest);
+                iter.remove();
+            }
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        generation++;
+        cache.clear();
+        sizes.clear();
+        cacheBytes = 0;
+    }
+
+    public synchronized String getStatistics() {
+        return String.format("rows %d bytes %d hits %d misses %d", cache.size(), cacheBytes, hits, misses);
+    }
+}
@@ -18,12 +18,15 @@
 package org.nmrfx.processor.gui;
 
 import org.nmrfx.processor.datasets.Dataset;
-import org.nmrfx.processor.datasets.peaks.PeakNetworkMatch;
+import org.nmrfx.peaks.InvalidPeakException;
 import org.nmrfx.processor.datasets.vendor.NMRData;
 import org.nmrfx.processor.datasets.vendor.NMRDataUtil;
 import org.nmrfx.processor.datasets.vendor.NMRViewData;
 import org.nmrfx.processor.gui.controls.FractionPaneChild;
 import org.nmrfx.processor.gui.spectra.DatasetAttributes;
+import org.nmrfx.processor.gui.spectra.DatasetBlockCache;
+import org.nmrfx.processor.gui.spectra.IntegralCache;
+import org.nmrfx.processor.gui.spectra.DatasetStatistics;
 import de.jensd.fx.glyphs.GlyphsDude;
 import de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon;
 import java.io.ByteArrayOutputStream;
@@ -44,6 +47,11 @@ import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.application.Platform;
@@ -56,6 +64,7 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.event.EventHandler;
@@ -671,6 +680,10 @@ public class FXMLController implements FractionPaneChild, Initializable, PeakNav
             dataset.setFreqDomain(i, true);
         }
         DatasetAttributes datasetAttributes = getActiveChart().setDataset(dataset, appendFile, false);
+        if (dataset instanceof Dataset) {
+            // start building the intensity statistics used by auto scaling
+            DatasetStatistics.request((Dataset) dataset, null);
+        }
         datasetAttributes.dim[0] = 0;
         if (nDim > 1) {
             datasetAttributes.dim[1] = 1;
@@ -721,6 +734,9 @@ public class FXMLController implements FractionPaneChild, Initializable, PeakNav
                 try {
                     if (Files.exists(file.toPath())) {
                         if (Files.isSameFile(path1, file.toPath())) {
+                            DatasetBlockCache.invalidate(dataset);
+                            IntegralCache.invalidate(dataset);
+                            DatasetStatistics.invalidate(dataset);
                             dataset.close();
                         }
                     }
@@ -1474,6 +1490,58 @@ public class FXMLController implements FractionPaneChild, Initializable, PeakNav
         return controller;
     }
 
+    /**
+     * Create a controller whose stage is never shown, for rendering figures
+     * without a window. The controller and its chart aren't registered with
+     * the application's list of windows and charts, and the previously active
+     * controller and chart stay active. Must be called on the FX thread.
+     *
+     * @return the new controller, or null if it couldn't be created
+     */
+    static FXMLController createOffscreen() {
+        FXMLController previousController = activeController.get();
+        PolyChart previousChart = PolyChart.getActiveChart();
+        FXMLLoader loader = new FXMLLoader(FXMLController.class.getResource("/fxml/NMRScene.fxml"));
+        FXMLController controller = null;
+        try {
+            Parent parent = loader.load();
+            Stage stage = new Stage(StageStyle.DECORATED);
+            stage.setScene(new Scene((Pane) parent));
+            controller = loader.<FXMLController>getController();
+            controller.stage = stage;
+            controllers.remove(controller);
+            for (PolyChart chart : controller.charts) {
+                PolyChart.CHARTS.remove(chart);
+                // charts of offscreen controllers are only drawn by renderOffscreen
+                chart.setDisable(true);
+            }
+        } catch (IOException ioE) {
+            System.out.println(ioE.getMessage());
+        }
+        activeController.set(previousController);
+        PolyChart.activeChart.set(previousChart);
+        return controller;
+    }
+
+    /**
+     * Release a controller made by createOffscreen, closing its charts and its
+     * (never shown) stage, without changing the active controller or chart.
+     */
+    void closeOffscreen() {
+        FXMLController previousController = activeController.get();
+        PolyChart previousChart = PolyChart.getActiveChart();
+        for (PolyChart chart : new ArrayList<>(charts)) {
+            chart.removeAllDatasets();
+            chart.close();
+        }
+        controllers.remove(this);
+        if (stage != null) {
+            stage.close();
+        }
+        activeController.set(previousController);
+        PolyChart.activeChart.set(previousChart);
+    }
+
     public static StackPane makeNewWinIcon() {
         StackPane stackPane = new StackPane();
         stackPane.setPadding(Insets.EMPTY);
@@ -2067,6 +2135,64 @@ public class FXMLController implements FractionPaneChild, Initializable, PeakNav
         }
     }
 
+    /**
+     * The result of aligning one dataset against the reference list.
+     */
+    static class AlignResult {
+
+        final DatasetAttributes dataAttr;
+        final int[] dims;
+        final double[] match;
+        final long pickTime;
+        final long alignTime;
+
+        AlignResult(DatasetAttributes dataAttr, int[] dims, double[] match, long pickTime, long alignTime) {
+            this.dataAttr = dataAttr;
+            this.dims = dims;
+            this.match = match;
+            this.pickTime = pickTime;
+            this.alignTime = alignTime;
+        }
+    }
+
+    /**
+     * Pick a moving dataset and match its peaks to the reference list. The
+     * moving list must already exist (it's created on the FX thread by the
+     * PickJob) and is removed by the caller on the FX thread. Each moving
+     * dataset is matched to its own copy of the reference list (made on the FX
+     * thread), so picking and matching run concurrently with the others.
+     */
+    static AlignResult alignToRefList(PeakList refList, PeakPicking.PickJob pickJob, DatasetAttributes dataAttr,
+            int[] dims, String dimName1, String dimName2) throws IOException, InvalidPeakException {
+        long startTime = System.currentTimeMillis();
+        PeakList movingList = pickJob.pickAll();
+        long pickTime = System.currentTimeMillis() - startTime;
+        if (movingList == null) {
+            return null;
+        }
+        movingList.unLinkPeaks();
+        movingList.clearSearchDims();
+        movingList.addSearchDim(dimName1, 0.05);
+        movingList.addSearchDim(dimName2, 0.1);
+        String[] dimNames = {dimName1, dimName2};
+        double[] centers = refList.centerAlign(movingList, dims);
+        double[] nOffset = {centers[0], centers[1]};
+        PeakNeighbors neighbor = new PeakNeighbors(refList, movingList, 25, dimNames);
+        neighbor.optimizeMatch(nOffset, 0.0, 1.0);
+        double[] match = {nOffset[0], nOffset[1], 0.0};
+        long alignTime = System.currentTimeMillis() - startTime - pickTime;
+        return new AlignResult(dataAttr, dims, match, pickTime, alignTime);
+    }
+
+    /**
+     * Align every other dataset in the window to the first dataset of the
+     * active chart. Peaks are picked in the reference and in each moving
+     * dataset (into temporary lists), and the moving datasets are referenced
+     * so their peaks match the reference peaks. The moving datasets are picked
+     * and matched concurrently in a background job. The new references are
+     * applied together, and each chart refreshed once, when all datasets are
+     * done. The temporary lists are created and removed on the FX thread.
+     */
     public void alignCentersWithTempLists() {
         DatasetAttributes activeAttr = (DatasetAttributes) activeChart.datasetAttributesList.get(0);
         // any peak lists created just for alignmnent should be deleted
@@ -2086,56 +2212,126 @@ public class FXMLController implements FractionPaneChild, Initializable, PeakNav
         for (int i = 2; i < dims.length; i++) {
             dims[i] = -1;
         }
-        System.out.println(refList.getName());
+        List<PeakPicking.PickJob> pickJobs = new ArrayList<>();
+        List<PeakList> refCopies = new ArrayList<>();
+        List<DatasetAttributes> movingAttrs = new ArrayList<>();
+        Set<PolyChart> movingCharts = new HashSet<>();
         for (PolyChart chart : charts) {
             ObservableList<DatasetAttributes> dataAttrList = chart.getDatasetAttributes();
             for (DatasetAttributes dataAttr : dataAttrList) {
                 if (dataAttr != activeAttr) {
-                    PeakList movingList = PeakPicking.peakPickActive(chart, dataAttr, false, false, false, "movingList");
-                    movingList.unLinkPeaks();
-                    movingList.clearSearchDims();
-                    movingList.addSearchDim(dimName1, 0.05);
-                    movingList.addSearchDim(dimName2, 0.1);
-                    //movingList.clusterPeaks();
-                    System.out.println("act " + dataAttr.getFileName() + " " + movingList.size());
-
-                    System.out.println("test " + movingList.getName());
-                    double[] centers = refList.centerAlign(movingList, dims);
-                    for (double center : centers) {
-                        System.out.println(center);
-                    }
-                    double[] match;
-                    if (false) {
-                        PeakNetworkMatch networkMatcher = new PeakNetworkMatch(refList, movingList);
-                        networkMatcher.bpMatchPeaks(dimName1, dimName2, 0.1, 3.0, centers, true, null);
-                        match = networkMatcher.getOptOffset();
-                    } else {
-                        String[] dimNames = {dimName1, dimName2};
-                        double[] nOffset = {centers[0], centers[1]};
-                        PeakNeighbors neighbor = new PeakNeighbors(refList, movingList, 25, dimNames);
-                        neighbor.optimizeMatch(nOffset, 0.0, 1.0);
-                        match = new double[3];
-                        match[0] = nOffset[0];
-                        match[1] = nOffset[1];
+                    String listName = "movingList" + pickJobs.size();
+                    PeakList refCopy = refList.copy("refList" + pickJobs.size(), false, false, false);
+                    refCopy.clearSearchDims();
+                    refCopy.addSearchDim(dimName1, 0.05);
+                    refCopy.addSearchDim(dimName2, 0.1);
+                    refCopies.add(refCopy);
+                    pickJobs.add(new PeakPicking.PickJob(chart, dataAttr, false, false, false, listName));
+                    movingAttrs.add(dataAttr);
+                    movingCharts.add(chart);
+                }
+            }
+        }
+        AtomicBoolean started = new AtomicBoolean(false);
+        Task<List<AlignResult>> task = new Task<List<AlignResult>>() {
+            @Override
+            protected List<AlignResult> call() throws Exception {
+                int nJobs = pickJobs.size();
+                updateMessage("Aligning");
+                updateProgress(0, nJobs);
+                int nThreads = Math.max(1, Math.min(nJobs, Runtime.getRuntime().availableProcessors()));
+                ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+                started.set(true);
+                AtomicInteger remaining = new AtomicInteger(nJobs);
+                if (nJobs == 0) {
+                    Platform.runLater(() -> PeakList.remove("refList"));
+                }
+                try {
+                    List<Future<AlignResult>> futures = new ArrayList<>();
+                    for (int i = 0; i < nJobs; i++) {
+                        PeakPicking.PickJob pickJob = pickJobs.get(i);
+                        PeakList refCopy = refCopies.get(i);
+                        DatasetAttributes dataAttr = movingAttrs.get(i);
+                        // every submitted job runs, so each removes its list once nothing uses it
+                        futures.add(executor.submit(() -> {
+                            try {
+                                return isCancelled() ? null : alignToRefList(refCopy, pickJob, dataAttr, dims, dimName1, dimName2);
+                            } finally {
+                                Platform.runLater(() -> {
+                                    PeakList.remove(pickJob.listName);
+                                    PeakList.remove(refCopy.getName());
+                                    if (remaining.decrementAndGet() == 0) {
+                                        PeakList.remove("refList");
+                                    }
+                                });
+                            }
+                        }));
                     }
-                    for (int i = 0, j = 0; i < dims.length; i++) {
-                        if (dims[i] != -1) {
-                            double ref = dataAttr.getDataset().getRefValue(dims[i]);
-                            double delta = match[j++];
-                            ref -= delta;
-                            dataAttr.getDataset().setRefValue(dims[i], ref);
-                            int pDim = movingList.getListDim(dataAttr.getLabel(i));
-                            movingList.shiftPeak(pDim, -delta);
+                    List<AlignResult> results = new ArrayList<>();
+                    int nDone = 0;
+                    for (Future<AlignResult> future : futures) {
+                        if (isCancelled()) {
+                            break;
+                        }
+                        AlignResult result = future.get();
+                        if (result != null) {
+                            results.add(result);
                         }
+                        updateProgress(++nDone, nJobs);
                     }
-                    dataAttr.getDataset().writeParFile();
-                    PeakList.remove("movingList");
+                    return results;
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            applyAlignment(task.getValue());
+            for (PolyChart chart : movingCharts) {
+                chart.refresh();
+            }
+        });
+        task.setOnCancelled(e -> {
+            // if the job never ran nothing else will remove the temporary lists
+            if (!started.get()) {
+                for (PeakPicking.PickJob pickJob : pickJobs) {
+                    PeakList.remove(pickJob.listName);
+                }
+                for (PeakList refCopy : refCopies) {
+                    PeakList.remove(refCopy.getName());
+                }
+                PeakList.remove("refList");
+            }
+        });
+        task.setOnFailed(e -> {
+            ExceptionDialog dialog = new ExceptionDialog(task.getException());
+            dialog.showAndWait();
+        });
+        statusBar.showJob(task);
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
 
+    void applyAlignment(List<AlignResult> results) {
+        for (AlignResult result : results) {
+            DatasetAttributes dataAttr = result.dataAttr;
+            StringBuilder sBuilder = new StringBuilder();
+            sBuilder.append("align ").append(dataAttr.getFileName());
+            for (int i = 0, j = 0; i < result.dims.length; i++) {
+                if (result.dims[i] != -1) {
+                    double ref = dataAttr.getDataset().getRefValue(result.dims[i]);
+                    double delta = result.match[j++];
+                    ref -= delta;
+                    dataAttr.getDataset().setRefValue(result.dims[i], ref);
+                    sBuilder.append(" ").append(String.format("%.4f", delta));
                 }
             }
-            chart.refresh();
+            dataAttr.getDataset().writeParFile();
+            sBuilder.append(" pick ").append(result.pickTime).append(" ms");
+            sBuilder.append(" align ").append(result.alignTime).append(" ms");
+            Logger.getLogger(FXMLController.class.getName()).info(sBuilder.toString());
         }
-        PeakList.remove("refList");
     }
 
     public void config(String name, Object value) {
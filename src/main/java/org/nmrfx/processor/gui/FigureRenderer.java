@@ -0,0 +1,450 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import org.nmrfx.graphicsio.GraphicsContextProxy;
+import org.nmrfx.graphicsio.GraphicsIOException;
+import org.nmrfx.graphicsio.PDFGraphicsContext;
+import org.nmrfx.graphicsio.SVGGraphicsContext;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.gui.spectra.DatasetAttributes;
+import org.nmrfx.processor.gui.spectra.PeakListAttributes;
+import org.nmrfx.utils.GUIUtils;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Renders figures (one chart each) to SVG, PDF or PNG files without showing
+ * a window. Each figure is described by a map in the same form as a spectrum
+ * entry of the window YAML files written by nwyaml.py (with "datasets", "lim",
+ * "cconfig" and "peaklists" entries), plus the output "file" and optional
+ * "width" and "height" in pixels. A dataset entry may have a "file" entry,
+ * used to open the dataset if it isn't already open.
+ * <p>
+ * Charts are configured, laid out and drawn (including the contouring of the
+ * spectra) on the FX thread, into charts of controllers whose stages are
+ * never shown. Opening the datasets and writing the files is done on a pool
+ * of background threads, so the figures overlap in those steps.
+ * <p>
+ * The JavaFX toolkit must be running, so rendering needs a display even
+ * though no window is shown. On a machine without one run NMRFx under a
+ * virtual display (for example {@code xvfb-run}), or with the Monocle
+ * headless platform ({@code -Dglass.platform=Monocle
+ * -Dmonocle.platform=Headless -Dprism.order=sw}, with the openjfx-monocle
+ * jar on the class path).
+ *
+ * @author brucejohnson
+ */
+public class FigureRenderer {
+
+    static final double DEFAULT_WIDTH = 800.0;
+    static final double DEFAULT_HEIGHT = 600.0;
+
+    final int nThreads;
+    final BlockingQueue<FXMLController> controllers;
+    final List<FXMLController> allControllers = new ArrayList<>();
+    boolean controllersCreated = false;
+
+    public FigureRenderer(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+        controllers = new ArrayBlockingQueue<>(this.nThreads);
+    }
+
+    public FigureRenderer() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    static <T> T callOnFxThread(Callable<T> callable) throws InterruptedException, ExecutionException {
+        FutureTask<T> future = new FutureTask<>(callable);
+        if (Platform.isFxApplicationThread()) {
+            future.run();
+        } else {
+            Platform.runLater(future);
+        }
+        return future.get();
+    }
+
+    synchronized void createControllers() throws InterruptedException, ExecutionException {
+        if (!controllersCreated) {
+            controllersCreated = true;
+            for (int i = 0; i < nThreads; i++) {
+                FXMLController controller = callOnFxThread(FXMLController::createOffscreen);
+                if (controller == null) {
+                    throw new IllegalStateException("Can't create controller for rendering");
+                }
+                allControllers.add(controller);
+                controllers.add(controller);
+            }
+        }
+    }
+
+    /**
+     * Release the offscreen controllers (and their stages) used for
+     * rendering, waiting for any renders using them to finish. The renderer
+     * can't be used afterwards.
+     *
+     * @throws InterruptedException if interrupted while waiting for renders
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        List<FXMLController> closing = new ArrayList<>();
+        for (int i = 0; i < allControllers.size(); i++) {
+            closing.add(controllers.take());
+        }
+        allControllers.clear();
+        if (!closing.isEmpty()) {
+            try {
+                callOnFxThread(() -> {
+                    for (FXMLController controller : closing) {
+                        controller.closeOffscreen();
+                    }
+                    return null;
+                });
+            } catch (ExecutionException e) {
+                System.out.println("Error closing renderer " + e.getMessage());
+            }
+        }
+    }
+
+    static String getFigureName(Map<String, Object> figure, int index) {
+        Object fileValue = figure.get("file");
+        return fileValue == null ? "figure " + (index + 1) : fileValue.toString();
+    }
+
+    /**
+     * Read a list of figure descriptions from a YAML file. The file may
+     * contain a list of figures or a map with a "figures" entry.
+     *
+     * @param fileName the YAML file
+     * @return the figure descriptions
+     * @throws IOException if the file can't be read
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Map<String, Object>> readFigures(String fileName) throws IOException {
+        try (InputStream input = Files.newInputStream(new File(fileName).toPath())) {
+            Object data = new Yaml().load(input);
+            if (data instanceof Map) {
+                data = ((Map<String, Object>) data).get("figures");
+            }
+            if (!(data instanceof List)) {
+                throw new IOException("No figures in " + fileName);
+            }
+            return (List<Map<String, Object>>) data;
+        }
+    }
+
+    /**
+     * Render the figures, in parallel. This must not be called on the FX
+     * thread as the charts are configured there.
+     *
+     * @param figures the figure descriptions
+     * @return for each figure that couldn't be rendered, its output file name
+     * and the error
+     * @throws InterruptedException if interrupted while waiting for the
+     * renders
+     */
+    public Map<String, String> render(List<Map<String, Object>> figures) throws InterruptedException {
+        if (Platform.isFxApplicationThread()) {
+            throw new IllegalStateException("Figures can't be rendered from the FX thread");
+        }
+        Map<String, String> errors = Collections.synchronizedMap(new LinkedHashMap<>());
+        try {
+            createControllers();
+        } catch (ExecutionException | IllegalStateException e) {
+            for (int i = 0; i < figures.size(); i++) {
+                errors.put(getFigureName(figures.get(i), i), e.getMessage());
+            }
+            return errors;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread thread = new Thread(r, "FigureRenderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            List<String> figureNames = new ArrayList<>();
+            for (int i = 0; i < figures.size(); i++) {
+                Map<String, Object> figure = figures.get(i);
+                String figureName = getFigureName(figure, i);
+                figureNames.add(figureName);
+                futures.add(executor.submit(() -> {
+                    try {
+                        renderFigure(figure);
+                    } catch (Exception e) {
+                        errors.put(figureName, e.getMessage() == null ? e.toString() : e.getMessage());
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    errors.put(figureNames.get(i), e.getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return errors;
+    }
+
+    /**
+     * Render the figures described in a YAML file on a background thread,
+     * for use from the command line. In batch mode the application windows
+     * are hidden while rendering and the application exits when done (with
+     * a non-zero status if any figure failed).
+     *
+     * @param fileName the YAML file of figure descriptions
+     * @param batch true to hide the windows and exit when done
+     */
+    public static void renderFile(String fileName, boolean batch) {
+        if (batch) {
+            Platform.setImplicitExit(false);
+            for (Stage stage : MainApp.getStages()) {
+                stage.hide();
+            }
+        }
+        Thread thread = new Thread(() -> {
+            Map<String, String> errors;
+            try {
+                List<Map<String, Object>> figures = readFigures(fileName);
+                long start = System.currentTimeMillis();
+                FigureRenderer renderer = new FigureRenderer();
+                try {
+                    errors = renderer.render(figures);
+                } finally {
+                    renderer.shutdown();
+                }
+                System.out.printf("rendered %d figures in %d ms\n", figures.size() - errors.size(),
+                        System.currentTimeMillis() - start);
+            } catch (IOException | InterruptedException e) {
+                errors = Collections.singletonMap(fileName, e.getMessage());
+            }
+            errors.forEach((figure, error) -> System.out.println("Error rendering " + figure + ": " + error));
+            if (batch) {
+                System.exit(errors.isEmpty() ? 0 : 1);
+            }
+        }, "FigureRenderer");
+        thread.setDaemon(!batch);
+        thread.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> getList(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        List<Map<String, Object>> result = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<Object>) value) {
+                if (item instanceof Map) {
+                    result.add((Map<String, Object>) item);
+                } else if (item != null) {
+                    Map<String, Object> itemMap = new LinkedHashMap<>();
+                    itemMap.put("name", item.toString());
+                    result.add(itemMap);
+                }
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> getMap(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : Collections.emptyMap();
+    }
+
+    static double getDouble(Map<String, Object> map, String key, double defaultValue) {
+        Object value = map.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    /**
+     * Look up, or open, the datasets of a figure. Opening a dataset adds it to
+     * the dataset list shown in the GUI, so this must be called on the FX
+     * thread.
+     */
+    static List<String> openDatasets(List<Map<String, Object>> datasets) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Map<String, Object> datasetMap : datasets) {
+            String name = String.valueOf(datasetMap.get("name"));
+            Object file = datasetMap.get("file");
+            Dataset dataset = Dataset.getDataset(name);
+            if ((dataset == null) && (file != null)) {
+                String path = file.toString();
+                dataset = new Dataset(path, path, true, false);
+            }
+            if (dataset == null) {
+                throw new IOException("No dataset " + name);
+            }
+            names.add(dataset.getName());
+        }
+        return names;
+    }
+
+    static Object getConfigValue(String key, Object value) {
+        if (key.contains("Color") && (value != null)) {
+            value = GUIScripter.getColor(value.toString());
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static void configureChart(PolyChart chart, Map<String, Object> figure, List<String> datasetNames,
+            double width, double height) {
+        chart.resizeRelocate(0.0, 0.0, width, height);
+        chart.removeAllDatasets();
+        chart.updateDatasets(datasetNames);
+        getMap(figure, "cconfig").forEach((key, value) -> chart.config(key, getConfigValue(key, value)));
+
+        List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
+        for (Map<String, Object> datasetMap : getList(figure, "datasets")) {
+            String name = String.valueOf(datasetMap.get("name"));
+            for (DatasetAttributes dataAttr : dataAttrs) {
+                if (dataAttr.getFileName().equals(name) || dataAttr.getDataset().getName().equals(name)) {
+                    getMap(datasetMap, "config").forEach((key, value) -> dataAttr.config(key, getConfigValue(key, value)));
+                    Object dims = datasetMap.get("dims");
+                    if (dims instanceof List) {
+                        dataAttr.setDims(((List<Number>) dims).stream().mapToInt(Number::intValue).toArray());
+                    }
+                }
+            }
+        }
+
+        String dimChars = "xyzabcdefghijk";
+        getMap(figure, "lim").forEach((axName, value) -> {
+            if (value instanceof List) {
+                List<Number> limits = (List<Number>) value;
+                int axNum = axName.length() == 1 ? dimChars.indexOf(axName) : -1;
+                if (axNum == -1) {
+                    axNum = chart.getAxisNum(axName);
+                }
+                double v1 = limits.get(0).doubleValue();
+                double v2 = limits.get(1).doubleValue();
+                chart.setAxis(axNum, Math.min(v1, v2), Math.max(v1, v2));
+            }
+        });
+
+        List<Map<String, Object>> peakLists = getList(figure, "peaklists");
+        List<String> peakListNames = new ArrayList<>();
+        for (Map<String, Object> peakListMap : peakLists) {
+            peakListNames.add(String.valueOf(peakListMap.get("name")));
+        }
+        chart.updatePeakLists(peakListNames);
+        for (Map<String, Object> peakListMap : peakLists) {
+            String name = String.valueOf(peakListMap.get("name"));
+            for (PeakListAttributes peakAttr : chart.getPeakListAttributes()) {
+                if (peakAttr.getPeakListName().equals(name)) {
+                    getMap(peakListMap, "config").forEach((key, value) -> peakAttr.config(key, getConfigValue(key, value)));
+                }
+            }
+        }
+    }
+
+    void renderFigure(Map<String, Object> figure) throws Exception {
+        Object fileValue = figure.get("file");
+        if (fileValue == null) {
+            throw new IllegalArgumentException("No output file");
+        }
+        String fileName = fileValue.toString();
+        double width = getDouble(figure, "width", DEFAULT_WIDTH);
+        double height = getDouble(figure, "height", DEFAULT_HEIGHT);
+        List<String> datasetNames;
+        try {
+            datasetNames = callOnFxThread(() -> openDatasets(getList(figure, "datasets")));
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+
+        String lowerName = fileName.toLowerCase();
+        if (!lowerName.endsWith(".svg") && !lowerName.endsWith(".pdf") && !lowerName.endsWith(".png")) {
+            throw new IllegalArgumentException("Unknown figure type " + fileName);
+        }
+
+        FXMLController controller = controllers.take();
+        try {
+            PolyChart chart = controller.getActiveChart();
+            if (lowerName.endsWith(".svg")) {
+                SVGGraphicsContext svgGC = new SVGGraphicsContext();
+                svgGC.create(true, width, height, fileName);
+                drawOnFxThread(chart, figure, datasetNames, width, height, () -> chart.renderOffscreen(svgGC));
+                svgGC.saveFile();
+            } else if (lowerName.endsWith(".pdf")) {
+                PDFGraphicsContext pdfGC = new PDFGraphicsContext();
+                pdfGC.create(true, width, height, fileName);
+                drawOnFxThread(chart, figure, datasetNames, width, height, () -> chart.renderOffscreen(pdfGC));
+                pdfGC.saveFile();
+            } else {
+                Canvas canvas = new Canvas(width, height);
+                drawOnFxThread(chart, figure, datasetNames, width, height, () -> renderPNG(chart, canvas, fileName));
+            }
+        } finally {
+            controllers.put(controller);
+        }
+    }
+
+    interface Drawing {
+
+        void draw() throws Exception;
+    }
+
+    /**
+     * Configure, lay out and draw a chart on the FX thread, waiting for it to
+     * finish.
+     */
+    static void drawOnFxThread(PolyChart chart, Map<String, Object> figure, List<String> datasetNames,
+            double width, double height, Drawing drawing) throws Exception {
+        try {
+            callOnFxThread(() -> {
+                configureChart(chart, figure, datasetNames, width, height);
+                drawing.draw();
+                return null;
+            });
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    // must be called on the FX thread, as snapshots can only be taken there
+    static void renderPNG(PolyChart chart, Canvas canvas, String fileName) throws GraphicsIOException {
+        GraphicsContextProxy gC = new GraphicsContextProxy(canvas.getGraphicsContext2D());
+        gC.setFill(Color.WHITE);
+        gC.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        chart.renderOffscreen(gC);
+        GUIUtils.snapNode(canvas, new File(fileName));
+    }
+}
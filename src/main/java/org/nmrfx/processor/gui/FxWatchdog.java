@@ -0,0 +1,308 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import javafx.application.Platform;
+
+/**
+ * Watches the FX application thread for stalls. A background thread posts a
+ * heartbeat to the FX thread and, while the heartbeat is not run, samples the
+ * stack of the FX thread. When the heartbeat finally runs after more than the
+ * threshold, the stall is logged with its duration, the stack at the time it
+ * was longest blocked, and the action it is attributed to. The action is the
+ * outermost NMRFx method on the stack (usually the event handler that started
+ * the work) and the location is the innermost one.
+ *
+ * Stalls are written to the console and to a rolling log in the .nmrfx
+ * directory of the user's home, and a per action summary is kept for the
+ * session.
+ *
+ * @author brucejohnson
+ */
+public class FxWatchdog {
+
+    private static final Logger LOGGER = Logger.getLogger(FxWatchdog.class.getName());
+    static final String PACKAGE_PREFIX = "org.nmrfx.";
+    static final int MAX_STACK_LINES = 40;
+
+    static FxWatchdog watchdog = null;
+
+    public static class StallSummary {
+
+        final String action;
+        int count = 0;
+        long totalTime = 0;
+        long maxTime = 0;
+        String maxLocation = "";
+
+        StallSummary(String action) {
+            this.action = action;
+        }
+
+        synchronized void add(long time, String location) {
+            count++;
+            totalTime += time;
+            if (time > maxTime) {
+                maxTime = time;
+                maxLocation = location;
+            }
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public synchronized int getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalTime() {
+            return totalTime;
+        }
+
+        public synchronized long getMaxTime() {
+            return maxTime;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%6d ms total %6d ms max %4d stalls  %s (at %s)", totalTime, maxTime, count, action, maxLocation);
+        }
+    }
+
+    final long threshold;
+    final long sampleInterval;
+    final Map<String, StallSummary> summaries = new ConcurrentHashMap<>();
+    volatile Thread fxThread = null;
+    volatile boolean running = false;
+    volatile long beatPosted = 0;
+    volatile boolean beatDone = true;
+    Thread thread = null;
+    FileHandler fileHandler = null;
+
+    /**
+     * Create a watchdog.
+     *
+     * @param threshold stalls longer than this, in milliseconds, are reported
+     */
+    public FxWatchdog(long threshold) {
+        this.threshold = threshold;
+        this.sampleInterval = Math.max(10, threshold / 5);
+    }
+
+    /**
+     * Start the shared watchdog if it isn't already running. The threshold can
+     * be set with the nmrfx.stallThreshold system property, and a value of 0
+     * disables the watchdog.
+     *
+     * @return the watchdog, or null if disabled
+     */
+    public static synchronized FxWatchdog startWatchdog() {
+        if (watchdog == null) {
+            long threshold = Long.getLong("nmrfx.stallThreshold", 500);
+            if (threshold <= 0) {
+                return null;
+            }
+            watchdog = new FxWatchdog(threshold);
+            watchdog.start();
+        }
+        return watchdog;
+    }
+
+    public static FxWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        openLog();
+        thread = new Thread(this::watch, "FxWatchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        if (fileHandler != null) {
+            LOGGER.removeHandler(fileHandler);
+            fileHandler.close();
+            fileHandler = null;
+        }
+    }
+
+    void openLog() {
+        File dir = new File(System.getProperty("user.home"), ".nmrfx");
+        if (!dir.exists() && !dir.mkdirs()) {
+            System.out.println("Can't create directory for stall log " + dir);
+            return;
+        }
+        try {
+            fileHandler = new FileHandler(new File(dir, "fxstalls%g.log").toString(), 1000000, 4, true);
+            fileHandler.setFormatter(new SimpleFormatter());
+            LOGGER.addHandler(fileHandler);
+            // the console gets a shorter report from report()
+            LOGGER.setUseParentHandlers(false);
+        } catch (IOException ioE) {
+            System.out.println("Can't open stall log " + ioE.getMessage());
+        }
+    }
+
+    void watch() {
+        while (running) {
+            try {
+                postBeat();
+                StackTraceElement[] stallStack = null;
+                long start = beatPosted;
+                while (running && !beatDone) {
+                    Thread.sleep(sampleInterval);
+                    Thread fx = fxThread;
+                    long elapsed = (System.nanoTime() - start) / 1000000;
+                    if (!beatDone && (fx != null) && (elapsed >= threshold)) {
+                        // keep the deepest sample, which best shows where the time goes
+                        StackTraceElement[] stack = fx.getStackTrace();
+                        if ((stallStack == null) || (stack.length >= stallStack.length)) {
+                            stallStack = stack;
+                        }
+                    }
+                }
+                long duration = (System.nanoTime() - start) / 1000000;
+                if ((duration >= threshold) && (stallStack != null) && (stallStack.length > 0)) {
+                    report(duration, stallStack);
+                }
+                Thread.sleep(sampleInterval);
+            } catch (InterruptedException iE) {
+                break;
+            }
+        }
+    }
+
+    void postBeat() {
+        beatDone = false;
+        beatPosted = System.nanoTime();
+        try {
+            Platform.runLater(() -> {
+                fxThread = Thread.currentThread();
+                beatDone = true;
+            });
+        } catch (IllegalStateException isE) {
+            // toolkit not running (yet, or any more)
+            beatDone = true;
+        }
+    }
+
+    static String getAction(StackTraceElement[] stack) {
+        for (int i = stack.length - 1; i >= 0; i--) {
+            if (stack[i].getClassName().startsWith(PACKAGE_PREFIX)) {
+                return frameName(stack[i]);
+            }
+        }
+        return frameName(stack[stack.length - 1]);
+    }
+
+    static String getLocation(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (element.getClassName().startsWith(PACKAGE_PREFIX)) {
+                return element.toString();
+            }
+        }
+        return stack[0].toString();
+    }
+
+    static String frameName(StackTraceElement element) {
+        String className = element.getClassName();
+        int dot = className.lastIndexOf('.');
+        return className.substring(dot + 1) + "." + element.getMethodName();
+    }
+
+    void report(long duration, StackTraceElement[] stack) {
+        String action = getAction(stack);
+        String location = getLocation(stack);
+        summaries.computeIfAbsent(action, StallSummary::new).add(duration, location);
+        System.out.println("FX thread stalled " + duration + " ms in " + action + " at " + location);
+        StringBuilder sBuilder = new StringBuilder();
+        sBuilder.append("FX thread stalled ").append(duration).append(" ms in ").append(action).append('\n');
+        int nLines = Math.min(stack.length, MAX_STACK_LINES);
+        for (int i = 0; i < nLines; i++) {
+            sBuilder.append("    at ").append(stack[i]).append('\n');
+        }
+        if (stack.length > nLines) {
+            sBuilder.append("    ... ").append(stack.length - nLines).append(" more\n");
+        }
+        LOGGER.log(Level.WARNING, sBuilder.toString());
+    }
+
+    /**
+     * Get the summaries of the stalls in this session, worst (by total stall
+     * time) first.
+     *
+     * @return the list of summaries
+     */
+    public List<StallSummary> getSummaries() {
+        List<StallSummary> result = new ArrayList<>(summaries.values());
+        result.sort(Comparator.comparingLong(StallSummary::getTotalTime).reversed());
+        return result;
+    }
+
+    public String getSummary(int nWorst) {
+        List<StallSummary> worst = getSummaries();
+        StringBuilder sBuilder = new StringBuilder();
+        sBuilder.append("FX thread stalls over ").append(threshold).append(" ms: ");
+        if (worst.isEmpty()) {
+            sBuilder.append("none\n");
+        } else {
+            sBuilder.append('\n');
+            for (StallSummary summary : worst.subList(0, Math.min(nWorst, worst.size()))) {
+                sBuilder.append(summary).append('\n');
+            }
+        }
+        return sBuilder.toString();
+    }
+
+    public void clear() {
+        summaries.clear();
+    }
+
+    /**
+     * Log and print the session summary. Called when the application exits.
+     */
+    public void logSummary() {
+        if (!summaries.isEmpty()) {
+            String summary = getSummary(10);
+            System.out.print(summary);
+            LOGGER.log(Level.INFO, summary);
+        }
+    }
+}
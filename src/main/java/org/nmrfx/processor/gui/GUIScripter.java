@@ -17,8 +17,10 @@ import org.nmrfx.processor.gui.annotations.AnnoPolyLine;
 import org.nmrfx.processor.gui.annotations.AnnoShape;
 import org.nmrfx.processor.gui.controls.ConsoleUtil;
 import org.nmrfx.processor.gui.controls.FractionCanvas;
-import org.nmrfx.processor.gui.controls.FractionPane;
 import org.nmrfx.processor.gui.spectra.DatasetAttributes;
+import org.nmrfx.processor.gui.spectra.DatasetBlockCache;
+import org.nmrfx.processor.gui.spectra.DatasetStatistics;
+import org.nmrfx.processor.gui.spectra.IntegralCache;
 import org.nmrfx.processor.gui.spectra.KeyBindings;
 import org.nmrfx.processor.gui.spectra.PeakListAttributes;
 import org.python.util.InteractiveInterpreter;
@@ -32,6 +34,7 @@ public class GUIScripter {
     final PolyChart useChart;
     static FXMLController controller = FXMLController.getActiveController();
     static Map<String, String> keyActions = new HashMap<>();
+    static FigureRenderer figureRenderer = null;
 
     public GUIScripter() {
         useChart = null;
@@ -189,43 +192,111 @@ public class GUIScripter {
     public void limit(String dimName, double v1, double v2) {
         ConsoleUtil.runOnFxThread(() -> {
             PolyChart chart = getChart();
-            int axNum = chart.getAxisNum(dimName);
-            if (v1 < v2) {
-                chart.setAxis(axNum, v1, v2);
-            } else {
-                chart.setAxis(axNum, v2, v1);
-            }
+            setLimit(chart, chart.getAxisNum(dimName), v1, v2);
         });
     }
 
     public void limit(int axNum, double v1, double v2) {
         ConsoleUtil.runOnFxThread(() -> {
-            PolyChart chart = getChart();
-            if (v1 < v2) {
-                chart.setAxis(axNum, v1, v2);
-            } else {
-                chart.setAxis(axNum, v2, v1);
-            }
+            setLimit(getChart(), axNum, v1, v2);
         });
     }
 
     public Map<String, List<Double>> limit() {
+        Map<String, List<Double>> result = new HashMap<>();
+        ConsoleUtil.runOnFxThread(() -> {
+            result.putAll(getLimits(getChart()));
+        });
+        return result;
+    }
+
+    static void setLimit(PolyChart chart, int axNum, double v1, double v2) {
+        if (v1 < v2) {
+            chart.setAxis(axNum, v1, v2);
+        } else {
+            chart.setAxis(axNum, v2, v1);
+        }
+    }
+
+    static Map<String, List<Double>> getLimits(PolyChart chart) {
         Map<String, List<Double>> result = new HashMap<>();
         String dimChars = "xyzabcdefghijk";
+        int nAxes = chart.axes.length;
+        for (int i = 0; i < nAxes; i++) {
+            double v1 = chart.getAxis(i).getLowerBound();
+            double v2 = chart.getAxis(i).getUpperBound();
+            String axName = dimChars.substring(i, i + 1);
+            List<Double> limits = new ArrayList<>();
+            limits.add(v1);
+            limits.add(v2);
+            result.put(axName, limits);
+        }
+        return result;
+    }
+
+    public Map<String, Object> metrics() throws InterruptedException, ExecutionException {
+        FutureTask<Map<String, Object>> future = new FutureTask(() -> {
+            return getChart().getRenderMetrics().getMetrics();
+        });
+        ConsoleUtil.runOnFxThread(future);
+        return future.get();
+    }
+
+    public Map<String, Object> lastFrameMetrics() throws InterruptedException, ExecutionException {
+        FutureTask<Map<String, Object>> future = new FutureTask(() -> {
+            return getChart().getRenderMetrics().getLastFrame();
+        });
+        ConsoleUtil.runOnFxThread(future);
+        return future.get();
+    }
+
+    public Map<String, Object> blockCacheStats() {
+        return DatasetBlockCache.getStatistics();
+    }
+
+    /**
+     * Drop the cached blocks, integrals and statistics of a dataset whose
+     * values were changed from a script (for example by writing vectors to
+     * it), and redraw the charts showing it.
+     *
+     * @param datasetName the dataset name, or null to drop the cached data of
+     * all datasets and redraw all charts
+     * @throws IllegalArgumentException if the dataset doesn't exist
+     */
+    public void dataChanged(String datasetName) throws IllegalArgumentException {
+        Dataset dataset = null;
+        if (datasetName != null) {
+            dataset = Dataset.getDataset(datasetName);
+            if (dataset == null) {
+                throw new IllegalArgumentException("Dataset \"" + datasetName + "\" doesn't exist");
+            }
+            DatasetBlockCache.invalidate(dataset);
+            IntegralCache.invalidate(dataset);
+            DatasetStatistics.invalidate(dataset);
+        } else {
+            DatasetBlockCache.clear();
+            IntegralCache.clear();
+            DatasetStatistics.clear();
+        }
+        Dataset changed = dataset;
         ConsoleUtil.runOnFxThread(() -> {
-            PolyChart chart = getChart();
-            int nAxes = chart.axes.length;
-            for (int i = 0; i < nAxes; i++) {
-                double v1 = chart.getAxis(i).getLowerBound();
-                double v2 = chart.getAxis(i).getUpperBound();
-                String axName = dimChars.substring(i, i + 1);
-                List<Double> limits = new ArrayList<>();
-                limits.add(v1);
-                limits.add(v2);
-                result.put(axName, limits);
+            for (PolyChart chart : PolyChart.CHARTS) {
+                if ((changed == null) || chart.getDatasetAttributes().stream().anyMatch(d -> d.getDataset() == changed)) {
+                    chart.refresh();
+                }
             }
         });
-        return result;
+    }
+
+    public String stalls() {
+        FxWatchdog watchdog = FxWatchdog.getWatchdog();
+        return watchdog == null ? "" : watchdog.getSummary(10);
+    }
+
+    public void metricsOverlay(boolean state) {
+        ConsoleUtil.runOnFxThread(() -> {
+            getChart().setShowMetricsOverlay(state);
+        });
     }
 
     public void draw() {
@@ -324,134 +395,155 @@ public class GUIScripter {
     public void config(List<String> datasetNames, Map<String, Object> map) {
         ConsoleUtil.runOnFxThread(() -> {
             PolyChart chart = getChart();
-            List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
-            map.entrySet().stream().forEach(entry -> {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-                if (key.contains("Color")) {
-                    value = getColor(value.toString());
-                }
-                for (DatasetAttributes dataAttr : dataAttrs) {
-                    String testName = dataAttr.getFileName();
-                    if ((datasetNames == null) || datasetNames.contains(testName)) {
-                        dataAttr.config(key, value);
-                    }
-                }
-            });
+            setConfig(chart, datasetNames, map);
             chart.refresh();
         });
 
     }
 
     public Map<String, Object> config(List<String> datasetNames) throws InterruptedException, ExecutionException {
+        FutureTask<Map<String, Object>> future = new FutureTask(() -> {
+            return getConfig(getChart(), datasetNames);
+        });
+        ConsoleUtil.runOnFxThread(future);
+        return future.get();
+    }
+
+    static void setConfig(PolyChart chart, List<String> datasetNames, Map<String, Object> map) {
+        List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
+        map.entrySet().stream().forEach(entry -> {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.contains("Color")) {
+                value = getColor(value.toString());
+            }
+            for (DatasetAttributes dataAttr : dataAttrs) {
+                String testName = dataAttr.getFileName();
+                if ((datasetNames == null) || datasetNames.contains(testName)) {
+                    dataAttr.config(key, value);
+                }
+            }
+        });
+    }
+
+    static Map<String, Object> getConfig(PolyChart chart, List<String> datasetNames) {
         final String datasetName;
         if ((datasetNames != null) && !datasetNames.isEmpty()) {
             datasetName = datasetNames.get(0);
         } else {
             datasetName = null;
         }
-        FutureTask<Map<String, Object>> future = new FutureTask(() -> {
-            PolyChart chart = getChart();
-            List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
-            for (DatasetAttributes dataAttr : dataAttrs) {
-                if ((datasetName == null) || dataAttr.getFileName().equals(datasetName)) {
-                    return dataAttr.config();
-                }
+        List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
+        for (DatasetAttributes dataAttr : dataAttrs) {
+            if ((datasetName == null) || dataAttr.getFileName().equals(datasetName)) {
+                return dataAttr.config();
             }
-            return new HashMap<>();
+        }
+        return new HashMap<>();
+    }
 
+    public int[] getDims(String datasetName) throws InterruptedException, ExecutionException {
+        FutureTask<int[]> future = new FutureTask(() -> {
+            return getDims(getChart(), datasetName);
         });
         ConsoleUtil.runOnFxThread(future);
         return future.get();
     }
 
-    public int[] getDims(String datasetName) throws InterruptedException, ExecutionException {
-        FutureTask<int[]> future = new FutureTask(() -> {
-            PolyChart chart = getChart();
-            List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
-            for (DatasetAttributes dataAttr : dataAttrs) {
-                if ((datasetName == null) || dataAttr.getFileName().equals(datasetName)) {
-                    return dataAttr.getDims();
-                }
+    public void setDims(String datasetName, int[] dims) throws InterruptedException, ExecutionException {
+        ConsoleUtil.runOnFxThread(() -> {
+            setDims(getChart(), datasetName, dims);
+        });
+    }
+
+    static int[] getDims(PolyChart chart, String datasetName) {
+        List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
+        for (DatasetAttributes dataAttr : dataAttrs) {
+            if ((datasetName == null) || dataAttr.getFileName().equals(datasetName)) {
+                return dataAttr.getDims();
+            }
+        }
+        return new int[0];
+    }
+
+    static void setDims(PolyChart chart, String datasetName, int[] dims) {
+        List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
+        for (DatasetAttributes dataAttr : dataAttrs) {
+            if ((datasetName == null) || dataAttr.getFileName().equals(datasetName)) {
+                dataAttr.setDims(dims);
+                break;
             }
-            return new HashMap<>();
+        }
+    }
 
+    public Map<String, Object> pconfig(List<String> peakListNames) throws InterruptedException, ExecutionException {
+        FutureTask<Map<String, Object>> future = new FutureTask(() -> {
+            return getPConfig(getChart(), peakListNames);
         });
         ConsoleUtil.runOnFxThread(future);
         return future.get();
+
     }
 
-    public void setDims(String datasetName, int[] dims) throws InterruptedException, ExecutionException {
+    public void pconfig(List<String> peakListNames, Map<String, Object> map) {
         ConsoleUtil.runOnFxThread(() -> {
             PolyChart chart = getChart();
-            List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
-            for (DatasetAttributes dataAttr : dataAttrs) {
-                if ((datasetName == null) || dataAttr.getFileName().equals(datasetName)) {
-                    dataAttr.setDims(dims);
-                    break;
-                }
-            }
+            setPConfig(chart, peakListNames, map);
+            chart.refresh();
         });
+
     }
 
-    public Map<String, Object> pconfig(List<String> peakListNames) throws InterruptedException, ExecutionException {
+    static Map<String, Object> getPConfig(PolyChart chart, List<String> peakListNames) {
         final String peakListName;
         if ((peakListNames != null) && !peakListNames.isEmpty()) {
             peakListName = peakListNames.get(0);
         } else {
             peakListName = null;
         }
-        FutureTask<Map<String, Object>> future = new FutureTask(() -> {
-            PolyChart chart = getChart();
-            List<PeakListAttributes> peakAttrs = chart.getPeakListAttributes();
+        List<PeakListAttributes> peakAttrs = chart.getPeakListAttributes();
+        for (PeakListAttributes peakAttr : peakAttrs) {
+            if ((peakListName == null) || peakAttr.getPeakListName().equals(peakListName)) {
+                return peakAttr.config();
+            }
+        }
+        return new HashMap<>();
+    }
+
+    static void setPConfig(PolyChart chart, List<String> peakListNames, Map<String, Object> map) {
+        List<PeakListAttributes> peakAttrs = chart.getPeakListAttributes();
+        map.entrySet().stream().forEach(entry -> {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.contains("Color")) {
+                value = getColor(value.toString());
+            }
             for (PeakListAttributes peakAttr : peakAttrs) {
-                if ((peakListName == null) || peakAttr.getPeakListName().equals(peakListName)) {
-                    return peakAttr.config();
+                String testName = peakAttr.getPeakListName();
+                if ((peakListNames == null) || peakListNames.contains(testName)) {
+                    peakAttr.config(key, value);
                 }
             }
-            return new HashMap<>();
-
         });
-        ConsoleUtil.runOnFxThread(future);
-        return future.get();
-
     }
 
-    public void pconfig(List<String> peakListNames, Map<String, Object> map) {
+    public void cconfig(Map<String, Object> map) {
         ConsoleUtil.runOnFxThread(() -> {
             PolyChart chart = getChart();
-            List<PeakListAttributes> peakAttrs = chart.getPeakListAttributes();
-            map.entrySet().stream().forEach(entry -> {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-                if (key.contains("Color")) {
-                    value = getColor(value.toString());
-                }
-                for (PeakListAttributes peakAttr : peakAttrs) {
-                    String testName = peakAttr.getPeakListName();
-                    if ((peakListNames == null) || peakListNames.contains(testName)) {
-                        peakAttr.config(key, value);
-                    }
-                }
-            });
+            setCConfig(chart, map);
             chart.refresh();
         });
-
     }
 
-    public void cconfig(Map<String, Object> map) {
-        ConsoleUtil.runOnFxThread(() -> {
-            PolyChart chart = getChart();
-            map.entrySet().stream().forEach(entry -> {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-                if (key.contains("Color") && (value != null)) {
-                    value = getColor(value.toString());
-                }
-                chart.config(key, value);
+    static void setCConfig(PolyChart chart, Map<String, Object> map) {
+        map.entrySet().stream().forEach(entry -> {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.contains("Color") && (value != null)) {
+                value = getColor(value.toString());
+            }
+            chart.config(key, value);
 
-            });
-            chart.refresh();
         });
     }
 
@@ -465,17 +557,21 @@ public class GUIScripter {
         return future.get();
     }
 
+    static void setSConfig(FXMLController controller, Map<String, Object> map) {
+        map.entrySet().stream().forEach(entry -> {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.contains("Color") && (value != null)) {
+                value = getColor(value.toString());
+            }
+            controller.config(key, value);
+
+        });
+    }
+
     public void sconfig(Map<String, Object> map) {
         ConsoleUtil.runOnFxThread(() -> {
-            map.entrySet().stream().forEach(entry -> {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-                if (key.contains("Color") && (value != null)) {
-                    value = getColor(value.toString());
-                }
-                getActiveController().config(key, value);
-
-            });
+            setSConfig(getActiveController(), map);
             getActiveController().draw();
         });
     }
@@ -489,15 +585,19 @@ public class GUIScripter {
         return future.get();
     }
 
+    static List<Integer> getGrid(FXMLController controller) {
+        int nRows = controller.arrangeGetRows();
+        int nColumns = controller.arrangeGetColumns();
+        List<Integer> result = new ArrayList<>();
+        result.add(nRows);
+        result.add(nColumns);
+        return result;
+    }
+
     public List<Integer> grid() throws InterruptedException, ExecutionException {
         FutureTask<List<Integer>> future = new FutureTask(() -> {
             PolyChart chart = getChart();
-            int nRows = chart.getController().arrangeGetRows();
-            int nColumns = chart.getController().arrangeGetColumns();
-            List<Integer> result = new ArrayList<>();
-            result.add(nRows);
-            result.add(nColumns);
-            return result;
+            return getGrid(chart.getController());
 
         });
         ConsoleUtil.runOnFxThread(future);
@@ -518,33 +618,42 @@ public class GUIScripter {
         });
     }
 
+    /**
+     * Arrange a window as a grid of charts, adding or removing charts as
+     * needed, and make the first chart active.
+     *
+     * @return the first chart
+     */
+    static PolyChart setGrid(FXMLController controller, int rows, int columns) {
+        controller.setNCharts(rows * columns);
+        controller.arrange(rows);
+        PolyChart chartActive = controller.charts.get(0);
+        controller.setActiveChart(chartActive);
+        return chartActive;
+    }
+
+    static PolyChart setGrid(FXMLController controller, int nCharts, String orientName) {
+        FractionCanvas.ORIENTATION orient = FractionCanvas.getOrientation(orientName);
+        controller.setNCharts(nCharts);
+        controller.arrange(orient);
+        PolyChart chartActive = controller.charts.get(0);
+        controller.setActiveChart(chartActive);
+        return chartActive;
+    }
+
     public void grid(int rows, int columns) {
-        int nCharts = rows * columns;
-        FractionPane.ORIENTATION orient = FractionPane.getOrientation("grid");
         ConsoleUtil.runOnFxThread(() -> {
             FXMLController controller = getActiveController();
-            PolyChart chart = controller.getActiveChart();
-            List<Dataset> datasets = new ArrayList<>();
-            controller.setNCharts(nCharts);
-            controller.arrange(rows);
-
-            PolyChart chartActive = controller.charts.get(0);
-            controller.setActiveChart(chartActive);
+            setGrid(controller, rows, columns);
             controller.setChartDisable(false);
             controller.draw();
         });
     }
 
     public void grid(int nCharts, String orientName) {
-        FractionCanvas.ORIENTATION orient = FractionCanvas.getOrientation(orientName);
         ConsoleUtil.runOnFxThread(() -> {
             FXMLController controller = getActiveController();
-            PolyChart chart = controller.getActiveChart();
-            List<Dataset> datasets = new ArrayList<>();
-            controller.setNCharts(nCharts);
-            controller.arrange(orient);
-            PolyChart chartActive = controller.charts.get(0);
-            controller.setActiveChart(chartActive);
+            setGrid(controller, nCharts, orientName);
             controller.setChartDisable(false);
             controller.draw();
         });
@@ -655,20 +764,34 @@ public class GUIScripter {
         });
     }
 
+    static List<Double> getGeometry(Stage stage) {
+        List<Double> result = new ArrayList<>();
+        result.add(stage.getX());
+        result.add(stage.getY());
+        result.add(stage.getWidth());
+        result.add(stage.getHeight());
+        return result;
+    }
+
+    static void setGeometry(Stage stage, Double x, Double y, Double width, Double height) {
+        if (x != null) {
+            stage.setX(x);
+        }
+        if (y != null) {
+            stage.setY(y);
+        }
+        if (width != null) {
+            stage.setWidth(width);
+        }
+        if (height != null) {
+            stage.setHeight(height);
+        }
+    }
+
     public List<Double> geometry() throws InterruptedException, ExecutionException {
         FutureTask<List<Double>> future = new FutureTask(() -> {
             PolyChart chart = getChart();
-            Stage stage = chart.getController().stage;
-            double x = stage.getX();
-            double y = stage.getY();
-            double width = stage.getWidth();
-            double height = stage.getHeight();
-            List<Double> result = new ArrayList<>();
-            result.add(x);
-            result.add(y);
-            result.add(width);
-            result.add(height);
-            return result;
+            return getGeometry(chart.getController().stage);
         });
         ConsoleUtil.runOnFxThread(future);
         return future.get();
@@ -677,19 +800,7 @@ public class GUIScripter {
     public void geometry(Double x, Double y, Double width, Double height) throws InterruptedException, ExecutionException {
         ConsoleUtil.runOnFxThread(() -> {
             PolyChart chart = getChart();
-            Stage stage = chart.getController().stage;
-            if (x != null) {
-                stage.setX(x);
-            }
-            if (y != null) {
-                stage.setY(y);
-            }
-            if (width != null) {
-                stage.setWidth(width);
-            }
-            if (height != null) {
-                stage.setHeight(height);
-            }
+            setGeometry(chart.getController().stage, x, y, width, height);
         });
     }
 
@@ -704,6 +815,44 @@ public class GUIScripter {
         });
     }
 
+    /**
+     * Start a batch of operations that are all applied in a single pass on the
+     * FX thread, with one redraw of each chart they change, when the batch is
+     * committed.
+     *
+     * @return the new batch
+     */
+    public ScriptBatch batch() {
+        return new ScriptBatch(this);
+    }
+
+    /**
+     * Render figures to files without displaying them. See FigureRenderer for
+     * the form of the figure descriptions.
+     *
+     * @param figures the figure descriptions
+     * @param nThreads the number of figures processed at the same time (the
+     * charts themselves are drawn one at a time on the FX thread)
+     * @return the errors, keyed by output file name, of figures that couldn't
+     * be rendered
+     * @throws InterruptedException if interrupted while rendering
+     */
+    public Map<String, String> render(List<Map<String, Object>> figures, int nThreads) throws InterruptedException {
+        FigureRenderer oldRenderer = null;
+        FigureRenderer renderer;
+        synchronized (GUIScripter.class) {
+            if ((figureRenderer == null) || (figureRenderer.nThreads != nThreads)) {
+                oldRenderer = figureRenderer;
+                figureRenderer = new FigureRenderer(nThreads);
+            }
+            renderer = figureRenderer;
+        }
+        if (oldRenderer != null) {
+            oldRenderer.shutdown();
+        }
+        return renderer.render(figures);
+    }
+
     public static String toRGBCode(Color color) {
         return String.format("#%02X%02X%02X%02X",
                 (int) (color.getRed() * 255),
@@ -29,7 +29,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
-import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javafx.application.Application;
@@ -53,7 +52,6 @@ import javafx.stage.FileChooser;
 import org.nmrfx.peaks.io.PeakReader;
 import org.nmrfx.processor.gui.controls.FractionCanvas;
 import org.nmrfx.processor.gui.project.GUIProject;
-import org.nmrfx.server.Server;
 import static javafx.application.Application.launch;
 import javafx.scene.text.Font;
 import org.nmrfx.chemistry.io.MoleculeIOException;
@@ -71,14 +69,15 @@ public class MainApp extends Application {
     public static HostServices hostServices;
     private static String version = null;
     static String appName = "NMRFx Processor";
-    public static InteractiveInterpreter interpreter = new InteractiveInterpreter();
+    // synchronized as processing previews use the interpreter from background threads
+    public static InteractiveInterpreter interpreter = new SynchronizedInterpreter();
     MenuToolkit menuTk;
     private static MenuBar mainMenuBar = null;
     Boolean isMac = null;
     protected static MainApp mainApp = null;
     static boolean isAnalyst = false;
-    Consumer<String> socketFunction = null;
     static NMRFxServer server = null;
+    static CommandServer commandServer = null;
     static Font defaultFont;
 
     public static void closeAll() {
@@ -152,6 +151,7 @@ public class MainApp extends Application {
     @Override
     public void start(Stage stage) throws Exception {
         mainApp = this;
+        FxWatchdog.startWatchdog();
         FXMLController controller = FXMLController.create(stage);
         Platform.setImplicitExit(true);
         hostServices = getHostServices();
@@ -187,6 +187,7 @@ public class MainApp extends Application {
 
     public void quit() {
         waitForCommit();
+        stopWatchdog();
         Platform.exit();
         System.exit(0);
     }
@@ -194,6 +195,15 @@ public class MainApp extends Application {
     @Override
     public void stop() {
         waitForCommit();
+        stopWatchdog();
+    }
+
+    void stopWatchdog() {
+        FxWatchdog watchdog = FxWatchdog.getWatchdog();
+        if (watchdog != null) {
+            watchdog.logSummary();
+            watchdog.stop();
+        }
     }
 
     public void waitForCommit() {
@@ -662,8 +672,21 @@ public class MainApp extends Application {
     }
 
     public void startSocketListener(int port) {
-        socketFunction = s -> invokeListenerFunction(s);
-        Server.startServer(port, socketFunction);
+        if ((commandServer != null) && commandServer.isRunning()) {
+            commandServer.stop();
+        }
+        commandServer = new CommandServer(port);
+        commandServer.setLegacyHandler(s -> invokeListenerFunction(s));
+        try {
+            commandServer.start();
+        } catch (IOException ioE) {
+            ExceptionDialog dialog = new ExceptionDialog(ioE);
+            dialog.showAndWait();
+        }
+    }
+
+    public static CommandServer getCommandServer() {
+        return commandServer;
     }
 
     void invokeListenerFunction(String s) {
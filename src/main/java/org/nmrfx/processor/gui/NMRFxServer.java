@@ -6,11 +6,12 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ResourceBundle;
-import java.util.function.Consumer;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -21,7 +22,6 @@ import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import org.fxmisc.richtext.InlineCssTextArea;
-import org.nmrfx.server.Server;
 
 /**
  *
@@ -30,7 +30,7 @@ import org.nmrfx.server.Server;
 public class NMRFxServer implements Initializable {
 
     MainApp mainApp;
-    Consumer<String> socketFunction = null;
+    CommandServer commandServer = null;
 
     Stage serverStage = new Stage();
     @FXML
@@ -81,6 +81,9 @@ public class NMRFxServer implements Initializable {
     }
     
     void close() {
+        if (commandServer != null) {
+            commandServer.stop();
+        }
         serverStage.hide();
     }
 
@@ -91,8 +94,17 @@ public class NMRFxServer implements Initializable {
     }
 
     public void startSocketListener(int port) {
-        socketFunction = s -> invokeListenerFunction(s);
-        Server.startServer(port, socketFunction);
+        if ((commandServer != null) && commandServer.isRunning()) {
+            commandServer.stop();
+        }
+        commandServer = new CommandServer(port);
+        commandServer.setLegacyHandler(s -> invokeListenerFunction(s));
+        try {
+            commandServer.start();
+        } catch (IOException ioE) {
+            ioE.printStackTrace();
+            System.out.println(ioE.getMessage());
+        }
     }
 
     void invokeListenerFunction(String s) {
@@ -100,6 +112,19 @@ public class NMRFxServer implements Initializable {
         GUIScripter.showPeak(s.split(" ")[2]);
     }
     
+    /**
+     * Get a port on the loopback interface that is free at the time of the
+     * call.
+     *
+     * @return the port number
+     * @throws IOException if no port could be bound
+     */
+    static int getRandomPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
     public static int makePortFile(int inputPort, boolean useRandom) {
         String tempDir = System.getProperty("java.io.tmpdir");
         String userName = System.getProperty("user.name");
@@ -117,7 +142,7 @@ public class NMRFxServer implements Initializable {
             f.deleteOnExit();
             FileWriter writer = new FileWriter(f);
             if (useRandom) {
-                port = Server.getRandomPort();
+                port = getRandomPort();
             }
             writer.write(String.valueOf(port));
             writer.close();
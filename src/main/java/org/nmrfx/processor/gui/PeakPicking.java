@@ -7,9 +7,15 @@ package org.nmrfx.processor.gui;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import org.controlsfx.dialog.ExceptionDialog;
 import org.nmrfx.datasets.DatasetBase;
 import org.nmrfx.processor.datasets.Dataset;
@@ -29,18 +35,92 @@ import org.nmrfx.processor.gui.spectra.PeakListAttributes;
 public class PeakPicking {
 
     static Consumer singlePickAction = null;
+    static int planesPerChunk = 8;
+    static int rowsPerChunk = 32;
+    static int pointsPerChunk = 4096;
+    static final AtomicInteger PICK_LIST_COUNT = new AtomicInteger(0);
 
     public static void registerSinglePickAction(Consumer func) {
         singlePickAction = func;
     }
 
-    public static void peakPickActive(FXMLController fxmlController, boolean refineLS) {
+    /**
+     * Pick peaks in all datasets of the active chart. The picking is done in a
+     * background job, shown in the status bar, that can be cancelled. Each
+     * dataset is picked concurrently with the others, in chunks of points (1D),
+     * rows (2D) or planes (nD), into a private list whose peaks are added to
+     * the peak list of the dataset, and shown in the chart, on the FX thread
+     * as each chunk finishes.
+     *
+     * @param fxmlController the controller whose active chart is used
+     * @param refineLS if true, refine picked peaks with lineshape fitting
+     * @return the job doing the picking
+     */
+    public static Task<List<PeakList>> peakPickActive(FXMLController fxmlController, boolean refineLS) {
         PolyChart chart = fxmlController.getActiveChart();
         ObservableList<DatasetAttributes> dataList = chart.getDatasetAttributes();
+        boolean useCrossHairs = chart.getCrossHairs().hasCrosshairRegion();
+        List<PickJob> pickJobs = new ArrayList<>();
         dataList.stream().forEach((DatasetAttributes dataAttr) -> {
-            peakPickActive(chart, dataAttr, chart.getCrossHairs().hasCrosshairRegion(), refineLS, false, null);
+            pickJobs.add(new PickJob(chart, dataAttr, useCrossHairs, refineLS, false, null, true));
         });
-        chart.refresh();
+        PeakPickTask task = new PeakPickTask(chart, pickJobs);
+        // the picker only checks for cancellation between chunks
+        boolean cancellable = pickJobs.stream().anyMatch(job -> job.chunks.size() > 1);
+        task.setOnSucceeded(e -> chart.refresh());
+        task.setOnCancelled(e -> chart.refresh());
+        task.setOnFailed(e -> {
+            chart.refresh();
+            ExceptionDialog dialog = new ExceptionDialog(task.getException());
+            dialog.showAndWait();
+        });
+        fxmlController.getStatusBar().showJob(task, cancellable);
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Set the number of planes of an nD dataset that are picked at a time by
+     * background peak picking. Values less than 1 pick all planes at once.
+     *
+     * @param nPlanes the number of planes per chunk
+     */
+    public static void setPlanesPerChunk(int nPlanes) {
+        planesPerChunk = nPlanes;
+    }
+
+    public static int getPlanesPerChunk() {
+        return planesPerChunk;
+    }
+
+    /**
+     * Set the number of rows of a 2D dataset that are picked at a time by
+     * background peak picking. Values less than 1 pick all rows at once.
+     *
+     * @param nRows the number of rows per chunk
+     */
+    public static void setRowsPerChunk(int nRows) {
+        rowsPerChunk = nRows;
+    }
+
+    public static int getRowsPerChunk() {
+        return rowsPerChunk;
+    }
+
+    /**
+     * Set the number of points of a 1D dataset that are picked at a time by
+     * background peak picking. Values less than 1 pick all points at once.
+     *
+     * @param nPoints the number of points per chunk
+     */
+    public static void setPointsPerChunk(int nPoints) {
+        pointsPerChunk = nPoints;
+    }
+
+    public static int getPointsPerChunk() {
+        return pointsPerChunk;
     }
 
     private static String getListName(PolyChart chart, DatasetAttributes dataAttr) {
@@ -58,14 +138,38 @@ public class PeakPicking {
         return listName;
     }
 
-    public static PeakList peakPickActive(PolyChart chart, DatasetAttributes dataAttr, boolean useCrossHairs, boolean refineLS, boolean saveFile, String listName) {
-        DatasetBase datasetBase = dataAttr.getDataset();
-        Dataset dataset = (Dataset) datasetBase;
-        int nDim = dataset.getNDim();
+    static int[] getPlaneRange(PolyChart chart, DatasetAttributes dataAttr, int iDim) {
+        int p1 = chart.axModes[iDim].getIndex(dataAttr, iDim, chart.axes[iDim].getLowerBound());
+        int p2 = chart.axModes[iDim].getIndex(dataAttr, iDim, chart.axes[iDim].getUpperBound());
+        return new int[]{p1, p2};
+    }
 
-        if (listName == null) {
-            listName = getListName(chart, dataAttr);
+    static int[] getLimitRange(PolyChart chart, DatasetAttributes dataAttr, boolean useCrossHairs, int iDim) {
+        double v1;
+        double v2;
+        if (useCrossHairs) {
+            int orientation = iDim == 0 ? PolyChart.VERTICAL : PolyChart.HORIZONTAL;
+            v1 = chart.crossHairPositions[0][orientation];
+            v2 = chart.crossHairPositions[1][orientation];
+        } else {
+            v1 = chart.axes[iDim].getLowerBound();
+            v2 = chart.axes[iDim].getUpperBound();
         }
+        int p1 = chart.axModes[iDim].getIndex(dataAttr, iDim, v1);
+        int p2 = chart.axModes[iDim].getIndex(dataAttr, iDim, v2);
+        return new int[]{p1, p2};
+    }
+
+    /**
+     * Get the parameters for picking a region of a dataset. The region is the
+     * visible (or crosshair) region of the chart in the first two dimensions,
+     * unless a range of points is given for them, and the given range of
+     * planes in the others.
+     */
+    static PeakPickParameters getPickParameters(PolyChart chart, DatasetAttributes dataAttr, boolean useCrossHairs,
+            String listName, int[][] planeRanges) {
+        Dataset dataset = (Dataset) dataAttr.getDataset();
+        int nDim = dataset.getNDim();
         double level = dataAttr.getLvl();
         if (nDim == 1) {
             level = chart.crossHairPositions[0][PolyChart.HORIZONTAL];
@@ -75,7 +179,7 @@ public class PeakPicking {
         peakPickPar.calcRange();
         for (int iDim = 0; iDim < nDim; iDim++) {
             int jDim = dataAttr.getDim(iDim);
-            if (iDim < 2) {
+            if ((iDim < 2) && (planeRanges[iDim] == null)) {
                 if (useCrossHairs) {
                     int orientation = iDim == 0 ? PolyChart.VERTICAL : PolyChart.HORIZONTAL;
                     peakPickPar.limit(jDim,
@@ -85,14 +189,65 @@ public class PeakPicking {
                     peakPickPar.limit(jDim, chart.axes[iDim].getLowerBound(), chart.axes[iDim].getUpperBound());
                 }
             } else {
-                int p1 = chart.axModes[iDim].getIndex(dataAttr, iDim, chart.axes[iDim].getLowerBound());
-                int p2 = chart.axModes[iDim].getIndex(dataAttr, iDim, chart.axes[iDim].getUpperBound());
-                peakPickPar.limit(jDim, p1, p2);
+                peakPickPar.limit(jDim, planeRanges[iDim][0], planeRanges[iDim][1]);
             }
         }
-        PeakPicker picker = new PeakPicker(peakPickPar);
+        return peakPickPar;
+    }
+
+    static String getListFileName(Dataset dataset) {
         String canonFileName = dataset.getCanonicalFile();
-        String listFileName = canonFileName.substring(0, canonFileName.lastIndexOf(".")) + ".xpk2";
+        return canonFileName.substring(0, canonFileName.lastIndexOf(".")) + ".xpk2";
+    }
+
+    /**
+     * Get the peak list that picking into the named list will add to, creating
+     * it (with the dimensions of the dataset) if it doesn't exist. This must be
+     * called on the FX thread, so that picking in a background thread adds
+     * peaks to an existing list rather than registering a new list in the
+     * project.
+     *
+     * @param dataset the dataset to be picked
+     * @param listName the name of the peak list
+     * @return the peak list
+     */
+    static PeakList getPickList(Dataset dataset, String listName) {
+        PeakList peakList = PeakList.get(listName);
+        if (peakList == null) {
+            int nDim = dataset.getNDim();
+            peakList = new PeakList(listName, nDim);
+            for (int iDim = 0; iDim < nDim; iDim++) {
+                peakList.getSpectralDim(iDim).setSw(dataset.getSw(iDim));
+                peakList.getSpectralDim(iDim).setSf(dataset.getSf(iDim));
+                peakList.getSpectralDim(iDim).setDimName(dataset.getLabel(iDim));
+            }
+            peakList.setDatasetName(dataset.getName());
+        }
+        return peakList;
+    }
+
+    static void writePeakList(PeakList peakList, String listFileName) throws IOException, InvalidPeakException {
+        try (final FileWriter writer = new FileWriter(listFileName)) {
+            PeakWriter peakWriter = new PeakWriter();
+            peakWriter.writePeaksXPK2(writer, peakList);
+        }
+    }
+
+    public static PeakList peakPickActive(PolyChart chart, DatasetAttributes dataAttr, boolean useCrossHairs, boolean refineLS, boolean saveFile, String listName) {
+        DatasetBase datasetBase = dataAttr.getDataset();
+        Dataset dataset = (Dataset) datasetBase;
+        int nDim = dataset.getNDim();
+
+        if (listName == null) {
+            listName = getListName(chart, dataAttr);
+        }
+        int[][] planeRanges = new int[nDim][];
+        for (int iDim = 2; iDim < nDim; iDim++) {
+            planeRanges[iDim] = getPlaneRange(chart, dataAttr, iDim);
+        }
+        PeakPickParameters peakPickPar = getPickParameters(chart, dataAttr, useCrossHairs, listName, planeRanges);
+        PeakPicker picker = new PeakPicker(peakPickPar);
+        String listFileName = getListFileName(dataset);
         PeakList peakList = null;
         try {
             if (refineLS) {
@@ -103,10 +258,7 @@ public class PeakPicking {
             if (peakList != null) {
                 chart.setupPeakListAttributes(peakList);
                 if (saveFile) {
-                    try (final FileWriter writer = new FileWriter(listFileName)) {
-                        PeakWriter peakWriter = new PeakWriter();
-                        peakWriter.writePeaksXPK2(writer, peakList);
-                    }
+                    writePeakList(peakList, listFileName);
                 }
             }
         } catch (IOException | InvalidPeakException ioE) {
@@ -117,6 +269,188 @@ public class PeakPicking {
         return peakList;
     }
 
+    /**
+     * The peak picking to be done for one dataset of a chart. The pick
+     * parameters are set up from the chart (on the FX thread) when the job is
+     * created, along with the peak list the peaks are added to, so the job can
+     * then be run on any thread. The region is split into chunks of points
+     * (1D), rows (2D) or planes (nD) so the picking can be cancelled between
+     * them. With a private list each chunk is picked into a list of its own,
+     * whose peaks are then added to the peak list on the FX thread, so the
+     * list shown in the GUI is never changed by the picking thread.
+     */
+    static class PickJob {
+
+        final PolyChart chart;
+        final Dataset dataset;
+        final String listName;
+        final String pickListName;
+        final boolean refineLS;
+        final boolean saveFile;
+        final String listFileName;
+        final List<PeakPickParameters> chunks = new ArrayList<>();
+        PeakList peakList = null;
+
+        PickJob(PolyChart chart, DatasetAttributes dataAttr, boolean useCrossHairs, boolean refineLS, boolean saveFile, String listName) {
+            this(chart, dataAttr, useCrossHairs, refineLS, saveFile, listName, false);
+        }
+
+        PickJob(PolyChart chart, DatasetAttributes dataAttr, boolean useCrossHairs, boolean refineLS, boolean saveFile,
+                String listName, boolean privateList) {
+            this.chart = chart;
+            this.refineLS = refineLS;
+            this.saveFile = saveFile;
+            dataset = (Dataset) dataAttr.getDataset();
+            int nDim = dataset.getNDim();
+            this.listName = listName == null ? getListName(chart, dataAttr) : listName;
+            pickListName = privateList ? "picking" + PICK_LIST_COUNT.incrementAndGet() : this.listName;
+            peakList = getPickList(dataset, this.listName);
+            listFileName = getListFileName(dataset);
+            int[][] ranges = new int[nDim][];
+            for (int iDim = 2; iDim < nDim; iDim++) {
+                ranges[iDim] = getPlaneRange(chart, dataAttr, iDim);
+            }
+            int chunkDim = nDim - 1;
+            int chunkSize = nDim > 2 ? planesPerChunk : nDim == 2 ? rowsPerChunk : pointsPerChunk;
+            if (chunkSize > 0) {
+                int[] range = nDim > 2 ? ranges[chunkDim] : getLimitRange(chart, dataAttr, useCrossHairs, chunkDim);
+                int first = Math.min(range[0], range[1]);
+                int last = Math.max(range[0], range[1]);
+                for (int start = first; start <= last; start += chunkSize) {
+                    ranges[chunkDim] = new int[]{start, Math.min(last, start + chunkSize - 1)};
+                    chunks.add(getPickParameters(chart, dataAttr, useCrossHairs, pickListName, ranges));
+                }
+            } else {
+                chunks.add(getPickParameters(chart, dataAttr, useCrossHairs, pickListName, ranges));
+            }
+        }
+
+        /**
+         * Pick all chunks of this job in the calling thread, into the list
+         * of the job (which must not be shown in the GUI).
+         *
+         * @return the peak list
+         * @throws IOException if the dataset can't be read
+         * @throws InvalidPeakException if a picked peak is invalid
+         */
+        PeakList pickAll() throws IOException, InvalidPeakException {
+            for (PeakPickParameters peakPickPar : chunks) {
+                PeakList chunkList = pick(peakPickPar);
+                if (chunkList != null) {
+                    peakList = chunkList;
+                }
+            }
+            return peakList;
+        }
+
+        PeakList pick(PeakPickParameters peakPickPar) throws IOException, InvalidPeakException {
+            PeakPicker picker = new PeakPicker(peakPickPar);
+            if (refineLS) {
+                return picker.refinePickWithLSCat();
+            } else {
+                return picker.peakPick();
+            }
+        }
+
+        /**
+         * Create the (empty) private list for the next chunk. Must be called
+         * on the FX thread.
+         */
+        void startChunk() {
+            getPickList(dataset, pickListName);
+        }
+
+        /**
+         * Add the peaks picked in a chunk to the peak list, remove the private
+         * list and show the peak list in the chart. Must be called on the FX
+         * thread.
+         *
+         * @param chunkList the private list the chunk was picked into
+         */
+        void publishChunk(PeakList chunkList) {
+            if ((chunkList != null) && (chunkList.size() > 0)) {
+                chunkList.copy(listName, false, true, true);
+            }
+            PeakList.remove(pickListName);
+            chart.setupPeakListAttributes(peakList);
+            chart.peakStatus.set(true);
+            chart.drawPeakLists(true);
+        }
+    }
+
+    /**
+     * Runs a set of pick jobs (with private lists), one per dataset, in
+     * parallel. Progress is measured in chunks picked, and cancellation is
+     * checked before and after each chunk. After each chunk its peaks are
+     * added to the peak list, and the list shown in the chart, on the FX
+     * thread. The job waits for this before going on.
+     */
+    static class PeakPickTask extends Task<List<PeakList>> {
+
+        final PolyChart chart;
+        final List<PickJob> pickJobs;
+
+        PeakPickTask(PolyChart chart, List<PickJob> pickJobs) {
+            this.chart = chart;
+            this.pickJobs = pickJobs;
+        }
+
+        @Override
+        protected List<PeakList> call() throws Exception {
+            int nChunks = pickJobs.stream().mapToInt(job -> job.chunks.size()).sum();
+            AtomicInteger nDone = new AtomicInteger(0);
+            updateMessage("Picking");
+            updateProgress(0, nChunks);
+            List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+            pickJobs.parallelStream().forEach(job -> {
+                try {
+                    for (PeakPickParameters peakPickPar : job.chunks) {
+                        if (isCancelled()) {
+                            break;
+                        }
+                        runOnFxThread(job::startChunk);
+                        PeakList chunkList = job.pick(peakPickPar);
+                        if (isCancelled()) {
+                            break;
+                        }
+                        runOnFxThread(() -> job.publishChunk(chunkList));
+                        updateProgress(nDone.incrementAndGet(), nChunks);
+                    }
+                    if (!isCancelled() && job.saveFile && (job.peakList != null)) {
+                        writePeakList(job.peakList, job.listFileName);
+                    }
+                } catch (IOException | InvalidPeakException | InterruptedException ex) {
+                    errors.add(ex);
+                } finally {
+                    Platform.runLater(() -> PeakList.remove(job.pickListName));
+                }
+            });
+            if (!errors.isEmpty()) {
+                throw errors.get(0);
+            }
+            updateMessage("");
+            List<PeakList> peakLists = new ArrayList<>();
+            for (PickJob job : pickJobs) {
+                if (job.peakList != null) {
+                    peakLists.add(job.peakList);
+                }
+            }
+            return peakLists;
+        }
+
+        void runOnFxThread(Runnable runnable) throws InterruptedException {
+            CountDownLatch latch = new CountDownLatch(1);
+            Platform.runLater(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    latch.countDown();
+                }
+            });
+            latch.await();
+        }
+    }
+
     public static PeakList pickAtPosition(PolyChart chart, DatasetAttributes dataAttr, double x, double y, boolean fixed, boolean saveFile) {
         DatasetBase datasetBase = dataAttr.getDataset();
         Dataset dataset = (Dataset) datasetBase;
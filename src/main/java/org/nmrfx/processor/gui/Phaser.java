@@ -22,21 +22,30 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.geometry.Orientation;
+import javafx.scene.control.Alert;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.MenuButton;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.Separator;
 import javafx.scene.control.Slider;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import org.controlsfx.dialog.ExceptionDialog;
 import org.nmrfx.datasets.DatasetBase;
 import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.vendor.NMRData;
+import org.nmrfx.processor.gui.spectra.DatasetBlockCache;
+import org.nmrfx.processor.gui.spectra.DatasetStatistics;
+import org.nmrfx.processor.gui.spectra.IntegralCache;
 import org.nmrfx.processor.operations.AutoPhase;
 import org.nmrfx.processor.operations.IDBaseline2;
 
@@ -56,6 +65,7 @@ public class Phaser {
     List<MenuItem> processorMenuItems = new ArrayList<>();
     List<MenuItem> datasetMenuItems = new ArrayList<>();
     MenuButton phaseMenuButton = null;
+    CheckMenuItem showTracesItem = null;
 
     public Phaser(FXMLController controller, VBox vbox) {
         this.controller = controller;
@@ -122,6 +132,15 @@ public class Phaser {
         MenuItem autoPhaseMaxItem = new MenuItem("AutoPhase MaxMode");
         autoPhaseMaxItem.setOnAction(e -> autoPhaseMax());
 
+        MenuItem batchPhaseFlat0Item = new MenuItem("Batch AutoPhase 0...");
+        batchPhaseFlat0Item.setOnAction(e -> batchAutoPhase(BatchAutoPhase.Mode.FLAT0));
+
+        MenuItem batchPhaseFlat01Item = new MenuItem("Batch AutoPhase 0+1...");
+        batchPhaseFlat01Item.setOnAction(e -> batchAutoPhase(BatchAutoPhase.Mode.FLAT01));
+
+        MenuItem batchPhaseMaxItem = new MenuItem("Batch AutoPhase MaxMode...");
+        batchPhaseMaxItem.setOnAction(e -> batchAutoPhase(BatchAutoPhase.Mode.MAX));
+
         MenuItem applyPhaseItem = new MenuItem("Apply Phase");
         applyPhaseItem.setOnAction(e -> applyPhase());
 
@@ -134,12 +153,16 @@ public class Phaser {
         MenuItem resetPhaseItem = new MenuItem("Reset Phases");
         resetPhaseItem.setOnAction(e -> resetPhases());
 
+        showTracesItem = new CheckMenuItem("Show Traces");
+        showTracesItem.setOnAction(e -> showTraces(showTracesItem.isSelected()));
+
         Collections.addAll(processorMenuItems, setPhaseItem, getPhaseItem, setPivotItem,
                 setPhase0_0Item, setPhase180_0Item, setPhase90_180Item,
-                autoPhaseFlat0Item, autoPhaseFlat01Item, autoPhaseMaxItem);
+                autoPhaseFlat0Item, autoPhaseFlat01Item, autoPhaseMaxItem,
+                batchPhaseFlat0Item, batchPhaseFlat01Item, batchPhaseMaxItem, showTracesItem);
 
         Collections.addAll(datasetMenuItems, setPivotItem, applyPhaseItem,
-                autoPhase0Item, autoPhase1Item, resetPhaseItem);
+                autoPhase0Item, autoPhase1Item, resetPhaseItem, showTracesItem);
 
         phaseMenuButton.getItems().addAll(datasetMenuItems);
 
@@ -438,6 +461,23 @@ public class Phaser {
         chart.setPh1(0.0);
     }
 
+    /**
+     * Show, or hide, a stack of representative traces of the active 2D (or nD)
+     * chart along the dimension being phased, updated as the phase sliders are
+     * moved.
+     *
+     * @param state true to show the traces
+     */
+    public void showTraces(boolean state) {
+        PolyChart chart = controller.getActiveChart();
+        if (chart != null) {
+            chart.setShowPhaseTraces(state);
+        }
+        if (showTracesItem != null) {
+            showTracesItem.setSelected(state);
+        }
+    }
+
     private void setPhasePivot() {
         controller.getActiveChart().setPhasePivot();
         controller.getActiveChart().drawSlices();
@@ -455,6 +495,74 @@ public class Phaser {
         controller.getActiveChart().autoPhaseMax();
     }
 
+    /**
+     * Phase the FIDs from a set of rows chosen by the user, in the dimension
+     * selected for stepping through rows, and put the consensus phases into
+     * the PHASE operation.
+     *
+     * @param mode how each row is phased
+     */
+    void batchAutoPhase(BatchAutoPhase.Mode mode) {
+        ChartProcessor chartProcessor = controller.chartProcessor;
+        if ((chartProcessor == null) || (chartProcessor.getNMRData() == null)) {
+            return;
+        }
+        NMRData nmrData = chartProcessor.getNMRData();
+        int[] currentRows = controller.getRows();
+        if ((nmrData.getNDim() < 2) || (currentRows.length == 0)) {
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Batch phasing needs data with more than one row");
+            alert.showAndWait();
+            return;
+        }
+        int rowIndex = Math.max(0, Math.min(currentRows.length - 1, controller.getRowChoice() - 2));
+        int size = nmrData.getSize(rowIndex + 1);
+        TextInputDialog dialog = new TextInputDialog(BatchAutoPhase.getDefaultSpec(size, 16));
+        dialog.setHeaderText("Enter rows of dimension " + (rowIndex + 2) + " to phase (like: 1-64:4 or 1,5,9)");
+        Optional<String> spec = dialog.showAndWait();
+        if (!spec.isPresent()) {
+            return;
+        }
+        List<int[]> rows = new ArrayList<>();
+        try {
+            for (int row : BatchAutoPhase.parseRows(spec.get(), size)) {
+                int[] rowSet = currentRows.clone();
+                rowSet[rowIndex] = row;
+                rows.add(rowSet);
+            }
+        } catch (IllegalArgumentException iaE) {
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Invalid rows: " + iaE.getMessage());
+            alert.showAndWait();
+            return;
+        }
+        BatchAutoPhase.PhaseTask task = BatchAutoPhase.phaseRows(controller, mode, rows);
+        task.setOnSucceeded(e -> showBatchPhases(task.getValue()));
+        task.setOnFailed(e -> {
+            ExceptionDialog d = new ExceptionDialog(task.getException());
+            d.showAndWait();
+        });
+    }
+
+    void showBatchPhases(BatchAutoPhase.Result result) {
+        String report = result.getReport();
+        System.out.print(report);
+        PolyChart chart = controller.getActiveChart();
+        setPH1Slider(result.getPh1());
+        setPH0Slider(result.getPh0());
+        setPhaseLabels(result.getPh0(), result.getPh1());
+        setPhaseOp();
+        chart.setPh0(0.0);
+        chart.setPh1(0.0);
+        chart.layoutPlotChildren();
+
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setHeaderText(String.format("Phases set to ph0=%.1f ph1=%.1f", result.getPh0(), result.getPh1()));
+        TextArea textArea = new TextArea(report);
+        textArea.setEditable(false);
+        textArea.setStyle("-fx-font-family: monospace");
+        alert.getDialogPane().setContent(textArea);
+        alert.show();
+    }
+
     private void applyPhase() {
         PolyChart chart = controller.getActiveChart();
         DatasetBase datasetBase = chart.getDataset();
@@ -464,6 +572,9 @@ public class Phaser {
             double ph0 = chart.getPh0();
             double ph1 = chart.getPh1();
             dataset.phaseDim(iDim, ph0, ph1);
+            DatasetBlockCache.invalidate(dataset);
+            IntegralCache.invalidate(dataset);
+            DatasetStatistics.invalidate(dataset);
             chart.setPh0(0.0);
             chart.setPh1(0.0);
             chart.refresh();
@@ -500,6 +611,9 @@ public class Phaser {
         double ph1Limit = 90.0;
         try {
             double[] phases = dataset.autoPhase(iDim, firstOrder, winSize, ratio, ph1Limit, threshMode);
+            DatasetBlockCache.invalidate(dataset);
+            IntegralCache.invalidate(dataset);
+            DatasetStatistics.invalidate(dataset);
             chart.setPh0(0.0);
             chart.setPh1(0.0);
             chart.refresh();
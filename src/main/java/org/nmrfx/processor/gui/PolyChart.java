@@ -24,13 +24,18 @@ import org.nmrfx.processor.datasets.Dataset;
 import org.nmrfx.processor.math.Vec;
 import org.nmrfx.processor.gui.spectra.DatasetAttributes;
 import org.nmrfx.processor.gui.spectra.DatasetAttributes.AXMODE;
+import org.nmrfx.processor.gui.spectra.DatasetStatistics;
 import org.nmrfx.processor.gui.spectra.DrawPeaks;
 import org.nmrfx.processor.gui.spectra.PeakListAttributes;
+import org.nmrfx.processor.gui.spectra.PeakOverlayTracker;
+import org.nmrfx.processor.gui.spectra.PeakOverlayTracker.PeakFootprint;
 import org.nmrfx.processor.gui.spectra.SliceAttributes;
+import org.nmrfx.processor.gui.spectra.PhaseTraces;
 import org.nmrfx.processor.gui.spectra.SpectrumWriter;
 import org.nmrfx.processor.gui.controls.ConsoleUtil;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import javafx.collections.ObservableList;
 import javafx.scene.shape.Path;
 import javafx.scene.shape.Line;
@@ -77,6 +82,7 @@ import javafx.scene.shape.Rectangle;
 import javafx.scene.shape.StrokeLineCap;
 import javafx.scene.text.Font;
 import javafx.scene.text.TextAlignment;
+import javafx.stage.Window;
 import org.controlsfx.dialog.ExceptionDialog;
 import org.nmrfx.datasets.DatasetBase;
 import org.nmrfx.datasets.Nuclei;
@@ -111,6 +117,7 @@ import org.nmrfx.processor.gui.spectra.MouseBindings.MOUSE_ACTION;
 import org.nmrfx.processor.gui.spectra.MultipletSelection;
 import org.nmrfx.processor.gui.spectra.PeakMenu;
 import org.nmrfx.processor.gui.spectra.RegionMenu;
+import org.nmrfx.processor.gui.spectra.RenderMetrics;
 import org.nmrfx.processor.gui.undo.ChartUndoScale;
 import org.nmrfx.processor.gui.utils.PeakListUpdater;
 import org.nmrfx.project.ProjectBase;
@@ -198,6 +205,9 @@ public class PolyChart implements PeakListener {
     String fontFamily = "Liberation Sans";
     Font peakFont = new Font(fontFamily, 12);
     boolean disabled = false;
+    // set when a draw is requested while the chart is disabled
+    boolean drawDeferred = false;
+    boolean offscreen = false;
     public ChartProperties chartProps = new ChartProperties(this);
     FXMLController sliceController = null;
 
@@ -220,11 +230,19 @@ public class PolyChart implements PeakListener {
     int datasetPhaseDim = 0;
     int phaseAxis = 0;
     double phaseFraction = 0.0;
+    // one per chart, so a request of one chart doesn't cancel another's
+    final PreviewExecutor traceExecutor = new PreviewExecutor("PhaseTraces");
+    PhaseTraces phaseTraces = null;
+    double[] requestedTraceLimits = null;
+    boolean showPhaseTraces = false;
+    double[][] traceXY = new double[2][];
     double[] pivotPosition = new double[15];
     boolean useImmediateMode = true;
+    boolean showMetricsOverlay = false;
     private final List<ConnectPeakAttributes> peakPaths = new ArrayList<>();
     Consumer<DatasetRegion> newRegionConsumer = null;
     static boolean listenToPeaks = true;
+    static final int MAX_DIRTY_PEAK_REGIONS = 500;
 
     @Override
     public void peakListChanged(final PeakEvent peakEvent) {
@@ -273,6 +291,7 @@ public class PolyChart implements PeakListener {
                 PeakList peakList = (PeakList) source;
                 for (PeakListAttributes peakListAttr : peakListAttributesList) {
                     if (peakListAttr.getPeakList() == peakList) {
+                        peakListAttr.invalidatePeakIndex();
                         activeAttr = peakListAttr;
                         draw = true;
                     }
@@ -280,8 +299,7 @@ public class PolyChart implements PeakListener {
             }
         }
         if (activeAttr != null) {
-            drawPeakLists(false);
-            drawSelectedPeaks(activeAttr);
+            refreshPeakLists();
         }
     }
 
@@ -329,10 +347,18 @@ public class PolyChart implements PeakListener {
         width = canvas.getWidth();
         height = canvas.getHeight();
         drawPeaks = new DrawPeaks(this, peakCanvas);
+        peakStatus.addListener(e -> invalidatePeakOverlays());
+        if (peakCanvas != null) {
+            peakCanvas.widthProperty().addListener(e -> invalidatePeakOverlays());
+            peakCanvas.heightProperty().addListener(e -> invalidatePeakOverlays());
+        }
 
     }
 
     public void resizeRelocate(double x, double y, double width, double height) {
+        if ((x != xPos) || (y != yPos) || (width != this.width) || (height != this.height)) {
+            invalidatePeakOverlays();
+        }
         xPos = x;
         yPos = y;
         this.width = width;
@@ -464,6 +490,7 @@ public class PolyChart implements PeakListener {
             }
         }
         drawSpectrum.clearThreads();
+        traceExecutor.shutdown();
     }
 
     public void focus() {
@@ -672,11 +699,10 @@ public class PolyChart implements PeakListener {
                 }
             }
         } else {
-            drawPeakLists(false);
             for (PeakListAttributes peakAttr : peakListAttributesList) {
                 List<Peak> peaks = peakAttr.selectPeaksInRegion(limits);
-                drawSelectedPeaks(peakAttr);
             }
+            refreshPeakLists();
             if (controller == FXMLController.activeController.get()) {
                 List<Peak> allSelPeaks = new ArrayList<>();
                 for (PolyChart chart : controller.charts) {
@@ -1077,11 +1103,31 @@ public class PolyChart implements PeakListener {
                 axes[axis].setUpperBound(posU);
             }
             layoutPlotChildren();
+            prefetchPlanes(axis, amount);
             ChartUndoLimits redo = new ChartUndoLimits(controller.getActiveChart());
             controller.undoManager.add("plane", undo, redo);
         }
     }
 
+    /**
+     * Read the planes beyond the displayed one, in the direction the plane is
+     * being moved, into the block cache in the background.
+     *
+     * @param axis the axis along which the plane is moving
+     * @param direction the direction of travel, positive or negative
+     */
+    public void prefetchPlanes(int axis, int direction) {
+        if ((axis < 2) || (direction == 0)) {
+            return;
+        }
+        updateDatasetAttributeBounds();
+        for (DatasetAttributes dataAttr : datasetAttributesList) {
+            if (dataAttr.nDim > axis) {
+                dataAttr.prefetchPlanes(axis, direction);
+            }
+        }
+    }
+
     public void full() {
         ConsoleUtil.runOnFxThread(() -> {
             if (!datasetAttributesList.isEmpty()) {
@@ -1310,12 +1356,21 @@ public class PolyChart implements PeakListener {
             DatasetBase datasetBase = dataAttr.getDataset();
             if (datasetBase instanceof Dataset) {
                 Dataset dataset = (Dataset) datasetBase;
-                Double sdev = dataset.guessNoiseLevel();
+                Optional<DatasetStatistics> statsOpt = DatasetStatistics.get(dataset);
+                Double sdev;
                 double[] percentile = null;
-                try {
-                    percentile = getPercentile(dataAttr, 90.0);
-                } catch (IOException ex) {
-                    percentile = null;
+                if (statsOpt.isPresent()) {
+                    DatasetStatistics stats = statsOpt.get();
+                    int[][] planeRanges = getStatisticsPlaneRanges(dataAttr);
+                    sdev = stats.getNoiseLevel(planeRanges);
+                    percentile = new double[]{stats.getPercentile(90.0, planeRanges)};
+                } else {
+                    sdev = dataset.guessNoiseLevel();
+                    try {
+                        percentile = getPercentile(dataAttr, 90.0);
+                    } catch (IOException ex) {
+                        percentile = null;
+                    }
                 }
 
                 if (sdev != null) {
@@ -1332,6 +1387,34 @@ public class PolyChart implements PeakListener {
         }
     }
 
+    /**
+     * Get the ranges of planes (in dataset points) currently displayed, for
+     * use with DatasetStatistics. If the first two display dimensions aren't
+     * the first two dataset dimensions the statistics planes don't match the
+     * displayed planes, so null (all planes) is returned.
+     *
+     * @param dataAttr the dataset attributes
+     * @return the plane ranges, indexed by dataset dimension, or null
+     */
+    int[][] getStatisticsPlaneRanges(DatasetAttributes dataAttr) {
+        DatasetBase dataset = dataAttr.getDataset();
+        int nDim = dataset.getNDim();
+        if ((dataAttr.dim[0] > 1) || (dataAttr.dim[1] > 1)) {
+            return null;
+        }
+        int[][] planeRanges = new int[nDim][2];
+        for (int iDim = 0; iDim < nDim; iDim++) {
+            int dDim = dataAttr.dim[iDim];
+            if ((iDim < 2) || (iDim >= axes.length)) {
+                planeRanges[dDim][0] = 0;
+                planeRanges[dDim][1] = dataset.getSize(dDim) - 1;
+            } else {
+                planeRanges[dDim] = getPlotLimits(dataAttr, iDim);
+            }
+        }
+        return planeRanges;
+    }
+
     protected void setYAxisByLevel() {
         if (!datasetAttributesList.isEmpty()) {
             DatasetAttributes dataAttr = datasetAttributesList.get(0);
@@ -2109,8 +2192,12 @@ public class PolyChart implements PeakListener {
 
     protected void layoutPlotChildren() {
         if (disabled) {
+            drawDeferred = true;
             return;
         }
+        RenderMetrics metrics = drawSpectrum.getMetrics();
+        metrics.beginFrame();
+        long fxStart = System.nanoTime();
         if (!useImmediateMode) {
             long lastPlotTime = drawSpectrum.getLastPlotTime();
             if ((lastPlotTime != 0) && (lastPlotTime < 1000)) {
@@ -2148,24 +2235,7 @@ public class PolyChart implements PeakListener {
                 }
             }
 
-            xAxis.setTickFontSize(chartProps.getTicFontSize());
-            xAxis.setLabelFontSize(chartProps.getLabelFontSize());
-
-            yAxis.setTickFontSize(chartProps.getTicFontSize());
-            yAxis.setLabelFontSize(chartProps.getLabelFontSize());
-            double[] borders = getUseBorders();
-            leftBorder = borders[0];
-            rightBorder = borders[1];
-            bottomBorder = borders[2];
-            topBorder = borders[3];
-
-            xAxis.setWidth(width - leftBorder - rightBorder);
-            xAxis.setHeight(bottomBorder);
-            xAxis.setOrigin(xPos + leftBorder, yPos + height - bottomBorder);
-
-            yAxis.setHeight(height - bottomBorder - topBorder);
-            yAxis.setWidth(leftBorder);
-            yAxis.setOrigin(xPos + leftBorder, yPos + height - bottomBorder);
+            layoutAxes();
 
             gC.setStroke(axesColorLocal);
             xAxis.setColor(axesColorLocal);
@@ -2190,6 +2260,7 @@ public class PolyChart implements PeakListener {
             peakCanvas.setHeight(canvas.getHeight());
             GraphicsContext peakGC = peakCanvas.getGraphicsContext2D();
             peakGC.clearRect(xPos, yPos, width, height);
+            invalidatePeakOverlays();
             gC.beginPath();
 //
 //        if (annoCanvas != null) {
@@ -2217,9 +2288,97 @@ public class PolyChart implements PeakListener {
 
         } catch (GraphicsIOException ioE) {
 
+        } finally {
+            metrics.addFxTime(System.nanoTime() - fxStart);
         }
     }
 
+    /**
+     * Get the rendering statistics of this chart.
+     *
+     * @return the metrics
+     */
+    public RenderMetrics getRenderMetrics() {
+        return drawSpectrum.getMetrics();
+    }
+
+    public boolean getShowMetricsOverlay() {
+        return showMetricsOverlay;
+    }
+
+    /**
+     * Set whether a summary of the last complete frame's rendering statistics
+     * is drawn in the corner of the chart.
+     *
+     * @param state true to show the summary
+     */
+    public void setShowMetricsOverlay(boolean state) {
+        showMetricsOverlay = state;
+        refresh();
+    }
+
+    void drawMetricsOverlay(GraphicsContextInterface gC) throws GraphicsIOException {
+        List<String> lines = getRenderMetrics().getOverlayLines();
+        double fontSize = 10.0;
+        double lineHeight = fontSize + 2.0;
+        double boxWidth = 200.0;
+        double boxHeight = lines.size() * lineHeight + 4.0;
+        double x = xPos + width - rightBorder - boxWidth - 4.0;
+        double y = yPos + topBorder + 4.0;
+        gC.save();
+        try {
+            gC.setFill(Color.color(1.0, 1.0, 1.0, 0.8));
+            gC.fillRect(x, y, boxWidth, boxHeight);
+            gC.setFill(Color.BLACK);
+            gC.setFont(Font.font("Monospaced", fontSize));
+            gC.setTextAlign(TextAlignment.LEFT);
+            gC.setTextBaseline(VPos.TOP);
+            double textY = y + 2.0;
+            for (String line : lines) {
+                gC.fillText(line, x + 4.0, textY);
+                textY += lineHeight;
+            }
+        } finally {
+            gC.restore();
+        }
+    }
+
+    void layoutAxes() {
+        xAxis.setTickFontSize(chartProps.getTicFontSize());
+        xAxis.setLabelFontSize(chartProps.getLabelFontSize());
+
+        yAxis.setTickFontSize(chartProps.getTicFontSize());
+        yAxis.setLabelFontSize(chartProps.getLabelFontSize());
+        double[] borders = getUseBorders();
+        leftBorder = borders[0];
+        rightBorder = borders[1];
+        bottomBorder = borders[2];
+        topBorder = borders[3];
+
+        xAxis.setWidth(width - leftBorder - rightBorder);
+        xAxis.setHeight(bottomBorder);
+        xAxis.setOrigin(xPos + leftBorder, yPos + height - bottomBorder);
+
+        yAxis.setHeight(height - bottomBorder - topBorder);
+        yAxis.setWidth(leftBorder);
+        yAxis.setOrigin(xPos + leftBorder, yPos + height - bottomBorder);
+    }
+
+    /**
+     * Draw the whole chart into a graphics context, with the spectra drawn
+     * synchronously and without a time limit. Used by FigureRenderer, on the
+     * FX thread, for charts of controllers that are never shown.
+     *
+     * @param gC the graphics context to draw into
+     * @throws GraphicsIOException if an error occurs while writing the output
+     */
+    void renderOffscreen(GraphicsContextInterface gC) throws GraphicsIOException {
+        offscreen = true;
+        drawSpectrum.setTimeLimited(false);
+        layoutAxes();
+        exportVectorGraphics(gC);
+    }
+
     protected void exportVectorGraphics(String fileName, String fileType) throws IOException {
         SVGGraphicsContext svgGC = new SVGGraphicsContext();
         try {
@@ -2333,6 +2492,7 @@ public class PolyChart implements PeakListener {
                                 do {
                                     bcPath.getElements().clear();
                                     ok = drawSpectrum.draw1DSpectrum(datasetAttributes, firstLvl, firstOffset, HORIZONTAL, axModes[0], getPh0(), getPh1(), bcPath);
+                                    drawSpectrum.getMetrics().addVector();
                                     double[][] xy = drawSpectrum.getXY();
                                     int nPoints = drawSpectrum.getNPoints();
                                     int rowIndex = drawSpectrum.getRowIndex();
@@ -2392,7 +2552,7 @@ public class PolyChart implements PeakListener {
                     textX += GUIUtils.getTextWidth(title, gC.getFont()) + 10;
                 }
             }
-            if (gC instanceof GraphicsContextProxy) {
+            if ((gC instanceof GraphicsContextProxy) && !offscreen) {
                 if (useImmediateMode) {
                     finished = drawSpectrum.drawSpectrumImmediate(gC, draw2DList, axModes);
                     useImmediateMode = finished;
@@ -2853,10 +3013,7 @@ public class PolyChart implements PeakListener {
         }
         dragStart[0] = dragPos[0];
         dragStart[1] = dragPos[1];
-        drawPeakLists(false);
-        for (PeakListAttributes peakListAttr : peakListAttributesList) {
-            drawSelectedPeaks(peakListAttr);
-        }
+        refreshPeakLists();
     }
 
     int[] getFitRows(PeakListAttributes peakListAttr) {
@@ -3060,6 +3217,7 @@ public class PolyChart implements PeakListener {
             try {
                 if (peakGC instanceof GraphicsContextProxy) {
                     peakGC.clearRect(xPos, yPos, width, height);
+                    invalidatePeakOverlays();
                 }
                 if (peakFont.getSize() != PreferencesController.getPeakFontSize()) {
                     peakFont = new Font(fontFamily, PreferencesController.getPeakFontSize());
@@ -3079,6 +3237,9 @@ public class PolyChart implements PeakListener {
                         if (clear) {
                             peakListAttr.clearPeaksInRegion();
                         }
+                        if (peakGC instanceof GraphicsContextProxy) {
+                            peakListAttr.getOverlayTracker().startFullDraw();
+                        }
                         if (peakListAttr.getDrawPeaks()) {
                             drawPeakList(peakListAttr, peakGC);
                         }
@@ -3089,6 +3250,9 @@ public class PolyChart implements PeakListener {
                     drawPeakPaths();
                 }
                 drawAnnotations(peakGC);
+                if (showMetricsOverlay && (peakGC instanceof GraphicsContextProxy)) {
+                    drawMetricsOverlay(peakGC);
+                }
 
 //                peakGC.restore();
             } catch (Exception ioE) {
@@ -3097,6 +3261,133 @@ public class PolyChart implements PeakListener {
         }
     }
 
+    /**
+     * Redraw the peak lists and selected peaks after peaks have been edited or
+     * selected. Only the screen regions of peaks whose footprint or selection
+     * state changed since they were last drawn are repainted. A full redraw
+     * is done if that isn't possible or the changes cover much of the chart.
+     */
+    public void refreshPeakLists() {
+        if (!drawPeakListsIncremental()) {
+            drawPeakLists(false);
+            for (PeakListAttributes peakListAttr : peakListAttributesList) {
+                drawSelectedPeaks(peakListAttr);
+            }
+        }
+    }
+
+    boolean drawPeakListsIncremental() {
+        if ((peakCanvas == null) || !peakStatus.get() || !peakPaths.isEmpty()) {
+            return false;
+        }
+        if (peakFont.getSize() != PreferencesController.getPeakFontSize()) {
+            return false;
+        }
+        double plotX = xPos + leftBorder;
+        double plotY = yPos + topBorder;
+        double plotWidth = xAxis.getWidth();
+        double plotHeight = yAxis.getHeight();
+        List<Bounds> dirty = new ArrayList<>();
+        Map<PeakListAttributes, Map<Peak, PeakFootprint>> footprints = new HashMap<>();
+        for (PeakListAttributes peakListAttr : peakListAttributesList) {
+            if (peakListAttr.getPeakList().peaks() == null) {
+                return false;
+            }
+            PeakOverlayTracker tracker = peakListAttr.getOverlayTracker();
+            int[] dim = peakListAttr.getPeakDim();
+            if (!tracker.isValid() || !canDrawIncrementally(peakListAttr, dim)) {
+                return false;
+            }
+            Map<Peak, PeakFootprint> current = new HashMap<>();
+            if (peakListAttr.getDrawPeaks()) {
+                for (Peak peak : peakListAttr.getPeaksInRegion()) {
+                    if (peak.getStatus() >= 0) {
+                        current.put(peak, drawPeaks.get2DPeakFootprint(peakListAttr, peak, dim, peakFont));
+                    }
+                }
+            }
+            footprints.put(peakListAttr, current);
+        }
+        double dirtyArea = 0.0;
+        for (PeakListAttributes peakListAttr : peakListAttributesList) {
+            Set<Peak> selected = peakListAttr.getDrawPeaks() ? peakListAttr.getSelectedPeaks() : Collections.emptySet();
+            List<Bounds> listDirty = peakListAttr.getOverlayTracker().update(footprints.get(peakListAttr), selected);
+            for (Bounds bounds : listDirty) {
+                dirtyArea += bounds.getWidth() * bounds.getHeight();
+            }
+            dirty.addAll(listDirty);
+        }
+        if (dirty.isEmpty()) {
+            return true;
+        }
+        if ((dirty.size() > MAX_DIRTY_PEAK_REGIONS) || (dirtyArea > plotWidth * plotHeight / 2.0)) {
+            return false;
+        }
+        GraphicsContextInterface gC = new GraphicsContextProxy(peakCanvas.getGraphicsContext2D());
+        gC.save();
+        try {
+            gC.beginPath();
+            gC.rect(plotX, plotY, plotWidth, plotHeight);
+            gC.clip();
+            gC.beginPath();
+            for (Bounds bounds : dirty) {
+                gC.rect(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
+            }
+            gC.clip();
+            gC.beginPath();
+            for (Bounds bounds : dirty) {
+                double x1 = Math.max(plotX, bounds.getMinX());
+                double y1 = Math.max(plotY, bounds.getMinY());
+                double x2 = Math.min(plotX + plotWidth, bounds.getMaxX());
+                double y2 = Math.min(plotY + plotHeight, bounds.getMaxY());
+                if ((x2 > x1) && (y2 > y1)) {
+                    gC.clearRect(x1, y1, x2 - x1, y2 - y1);
+                }
+            }
+            gC.setFont(peakFont);
+            for (PeakListAttributes peakListAttr : peakListAttributesList) {
+                if (!peakListAttr.getDrawPeaks()) {
+                    continue;
+                }
+                DatasetAttributes dataAttr = peakListAttr.getDatasetAttributes();
+                int[] dim = peakListAttr.getPeakDim();
+                double[] offsets = new double[dim.length];
+                int[][] limits = new int[dim.length][2];
+                for (int iDim = 2; iDim < dim.length; iDim++) {
+                    limits[iDim] = getPlotLimits(dataAttr, iDim);
+                }
+                for (Map.Entry<Peak, PeakFootprint> entry : footprints.get(peakListAttr).entrySet()) {
+                    Bounds peakBounds = entry.getValue().getBounds();
+                    if (dirty.stream().anyMatch(peakBounds::intersects)) {
+                        Peak peak = entry.getKey();
+                        setPeakOffsets(dataAttr, peak, dim, limits, offsets);
+                        drawPeaks.drawPeak(peakListAttr, gC, peak, dim, offsets, false);
+                    }
+                }
+                drawSelectedPeaks(peakListAttr, gC);
+            }
+            drawAnnotations(gC);
+            if (showMetricsOverlay) {
+                drawMetricsOverlay(gC);
+            }
+        } catch (GraphicsIOException gioE) {
+        } finally {
+            gC.restore();
+        }
+        return true;
+    }
+
+    /**
+     * Forget what was drawn for each peak list, so the next peak refresh is a
+     * full redraw. Called whenever the peak canvas is cleared or resized, or
+     * the chart is moved or peak display is turned on or off.
+     */
+    void invalidatePeakOverlays() {
+        for (PeakListAttributes peakListAttr : peakListAttributesList) {
+            peakListAttr.getOverlayTracker().invalidate();
+        }
+    }
+
     void drawSelectedPeaks(GraphicsContextInterface peakGC) {
         for (PeakListAttributes peakListAttr : peakListAttributesList) {
             if (peakListAttr.getDrawPeaks()) {
@@ -3141,18 +3432,18 @@ public class PolyChart implements PeakListener {
                         }
                     }
                     if (hadPeaks) {
-                        chart.drawPeakLists(false);
+                        chart.refreshPeakLists();
                     }
                 }
             }
         }
 
         List<Peak> selPeaks = new ArrayList<>();
-        drawPeakLists(false);
         boolean hitPeak = false;
         if (peakStatus.get()) {
             for (PeakListAttributes peakListAttr : peakListAttributesList) {
                 if (peakListAttr.getDrawPeaks()) {
+                    peakListAttr.getPeaksInRegion();
                     peakListAttr.selectPeak(drawPeaks, pickX, pickY, append);
                     Set<Peak> peaks = peakListAttr.getSelectedPeaks();
                     if (!peaks.isEmpty()) {
@@ -3162,10 +3453,10 @@ public class PolyChart implements PeakListener {
                     if (!selectedMultiplets.isEmpty()) {
                         hitPeak = true;
                     }
-                    drawSelectedPeaks(peakListAttr);
                 }
             }
         }
+        refreshPeakLists();
         if (controller == FXMLController.activeController.get()) {
             List<Peak> allSelPeaks = new ArrayList<>();
             for (PolyChart chart : controller.charts) {
@@ -3254,6 +3545,30 @@ public class PolyChart implements PeakListener {
         return dim;
     }
 
+    void setPeakOffsets(DatasetAttributes dataAttr, Peak peak, int[] dim, int[][] limits, double[] offsets) {
+        for (int iDim = 2; iDim < dim.length; iDim++) {
+            offsets[iDim] = 0.0;
+            if (limits[iDim][0] == limits[iDim][1]) {
+                if (dim[iDim] >= 0) {
+                    double ppm = peak.getPeakDim(dim[iDim]).getChemShiftValue();
+                    double pt = dataAttr.getDataset().ppmToDPoint(dataAttr.dim[iDim], ppm);
+                    double deltaPt = Math.abs(limits[iDim][0] - pt);
+                    offsets[iDim] = deltaPt;
+                }
+            }
+        }
+    }
+
+    /**
+     * Only 2D peak displays without link lines are drawn incrementally. 1D
+     * labels are laid out to avoid each other and link lines span the whole
+     * chart, so changing one peak can change the rendering of any other.
+     */
+    boolean canDrawIncrementally(PeakListAttributes peakListAttr, int[] dim) {
+        return (peakListAttr.getPeakList().getNDim() > 1) && !peakListAttr.getDrawLinks()
+                && (dim.length > 1) && (dim[0] >= 0) && (dim[1] >= 0);
+    }
+
     void drawPeakList(PeakListAttributes peakListAttr, GraphicsContextInterface gC) {
         if (peakListAttr.getDrawPeaks()) {
             gC.save();
@@ -3272,20 +3587,20 @@ public class PolyChart implements PeakListener {
                 }
                 drawPeaks.clear1DBounds();
 
+                PeakOverlayTracker tracker = null;
+                if ((gC instanceof GraphicsContextProxy) && canDrawIncrementally(peakListAttr, dim)) {
+                    tracker = peakListAttr.getOverlayTracker();
+                }
+                final PeakOverlayTracker useTracker = tracker;
+
+                drawSpectrum.getMetrics().addPeaksDrawn(peaks.stream().filter(peak -> peak.getStatus() >= 0).count());
                 peaks.stream().filter(peak -> peak.getStatus() >= 0).forEach((peak) -> {
                     try {
-                        for (int iDim = 2; iDim < dim.length; iDim++) {
-                            offsets[iDim] = 0.0;
-                            if (limits[iDim][0] == limits[iDim][1]) {
-                                if (dim[iDim] >= 0) {
-                                    double ppm = peak.getPeakDim(dim[iDim]).getChemShiftValue();
-                                    double pt = dataAttr.getDataset().ppmToDPoint(dataAttr.dim[iDim], ppm);
-                                    double deltaPt = Math.abs(limits[iDim][0] - pt);
-                                    offsets[iDim] = deltaPt;
-                                }
-                            }
-                        }
+                        setPeakOffsets(dataAttr, peak, dim, limits, offsets);
                         drawPeaks.drawPeak(peakListAttr, gC, peak, dim, offsets, false);
+                        if (useTracker != null) {
+                            useTracker.recordPeak(peak, drawPeaks.get2DPeakFootprint(peakListAttr, peak, dim, peakFont));
+                        }
                         for (int iDim : dim) {
                             if (iDim >= 0) {
                                 peak.peakDims[iDim].setLinkDrawn(false);
@@ -3394,6 +3709,9 @@ public class PolyChart implements PeakListener {
     void drawSelectedPeaks(PeakListAttributes peakListAttr, GraphicsContextInterface gC) {
         if (peakListAttr.getDrawPeaks()) {
             Set<Peak> peaks = peakListAttr.getSelectedPeaks();
+            if (gC instanceof GraphicsContextProxy) {
+                peakListAttr.getOverlayTracker().recordSelected(peaks);
+            }
             Set<MultipletSelection> multiplets = peakListAttr.getSelectedMultiplets();
             if (!peaks.isEmpty() || !multiplets.isEmpty()) {
                 int[] dim = peakListAttr.getPeakDim();
@@ -3675,7 +3993,145 @@ public class PolyChart implements PeakListener {
                 drawSlice(gC, 1, VERTICAL);
                 drawSlice(gC, 1, HORIZONTAL);
             }
+            if (showPhaseTraces && controller.isPhaseSliderVisible()) {
+                drawPhaseTraces(gC);
+            }
+        }
+    }
+
+    public boolean getShowPhaseTraces() {
+        return showPhaseTraces;
+    }
+
+    /**
+     * Set whether a stack of representative traces along the dimension being
+     * phased is shown while phasing a 2D (or nD) dataset.
+     *
+     * @param state true to show the traces
+     */
+    public void setShowPhaseTraces(boolean state) {
+        showPhaseTraces = state;
+        if (!state) {
+            phaseTraces = null;
+            requestedTraceLimits = null;
+        }
+        getCrossHairs().refreshCrossHairs();
+    }
+
+    void drawPhaseTraces(GraphicsContextInterface gC) {
+        if (is1D() || datasetAttributesList.isEmpty()) {
+            return;
+        }
+        DatasetAttributes dataAttr = datasetAttributesList.get(0);
+        if (dataAttr.getDataset().getNDim() < 2) {
+            return;
+        }
+        int axis = phaseAxis;
+        double[] limits = {xAxis.getLowerBound(), xAxis.getUpperBound(), yAxis.getLowerBound(), yAxis.getUpperBound()};
+        int[][] pt = dataAttr.copyPt();
+        PhaseTraces traces = phaseTraces;
+        if ((traces == null) || !traces.matches(dataAttr, axis, limits, pt)) {
+            requestPhaseTraces(dataAttr, axis, limits, pt);
+            return;
+        }
+        traces.phase(getPh0(axis), getPh1(axis));
+        int nTraces = traces.getNTraces();
+        NMRAxis traceAxis = axes[axis];
+        NMRAxis stackAxis = axes[axis == 0 ? 1 : 0];
+        double lower = traceAxis.getLowerBound();
+        double upper = traceAxis.getUpperBound();
+        double stackStart = axis == 0 ? yAxis.getYOrigin() : xAxis.getXOrigin();
+        double stackSize = axis == 0 ? -yAxis.getHeight() : xAxis.getWidth();
+        // stack the traces in the order they appear along the other axis
+        Integer[] order = new Integer[nTraces];
+        double[] positions = traces.getPositions();
+        for (int i = 0; i < nTraces; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(
+                (stackAxis.getDisplayPosition(positions[a]) - stackStart) / stackSize,
+                (stackAxis.getDisplayPosition(positions[b]) - stackStart) / stackSize));
+        gC.setStroke(dataAttr.getPosColor());
+        for (int k = 0; k < nTraces; k++) {
+            int iTrace = order[k];
+            double[] values = traces.getPhased(iTrace);
+            int size = values.length;
+            if (size < 2) {
+                continue;
+            }
+            if ((traceXY[0] == null) || (traceXY[0].length < size)) {
+                traceXY[0] = new double[size];
+                traceXY[1] = new double[size];
+            }
+            double max = traces.getMaxValue(iTrace);
+            double scale = max > 0.0 ? 0.45 * Math.abs(stackSize) / nTraces / max : 0.0;
+            double base = stackStart + stackSize * (k + 0.5) / nTraces;
+            double delta = (upper - lower) / (size - 1);
+            for (int i = 0; i < size; i++) {
+                double position = traceAxis.getDisplayPosition(upper - i * delta);
+                if (axis == 0) {
+                    traceXY[0][i] = position;
+                    traceXY[1][i] = base - values[i] * scale;
+                } else {
+                    traceXY[0][i] = base + values[i] * scale;
+                    traceXY[1][i] = position;
+                }
+            }
+            gC.strokePolyline(traceXY[0], traceXY[1], size);
+        }
+    }
+
+    /**
+     * Start reading the phasing traces in the background, unless the same
+     * traces were already requested. The traces are identified by the axis
+     * limits, the phasing axis and the planes shown.
+     *
+     * @param dataAttr the attributes of the dataset
+     * @param axis the axis being phased
+     * @param limits the displayed limits of the chart axes
+     * @param pt a copy of the point limits of dataAttr, taken on the FX thread
+     */
+    void requestPhaseTraces(DatasetAttributes dataAttr, int axis, double[] limits, int[][] pt) {
+        int nPlanes = Math.max(0, pt.length - 2);
+        double[] key = Arrays.copyOf(limits, limits.length + 1 + 2 * nPlanes);
+        key[limits.length] = axis;
+        for (int i = 0; i < nPlanes; i++) {
+            key[limits.length + 1 + 2 * i] = pt[i + 2][0];
+            key[limits.length + 2 + 2 * i] = pt[i + 2][1];
+        }
+        if (Arrays.equals(key, requestedTraceLimits)) {
+            return;
+        }
+        requestedTraceLimits = key;
+        int[] dim = dataAttr.dim.clone();
+        traceExecutor.submit(token -> PhaseTraces.read(dataAttr, axis, limits, pt, dim, PhaseTraces.DEFAULT_TRACES, token),
+                traces -> {
+                    if (showPhaseTraces) {
+                        phaseTraces = traces;
+                        drawSlices();
+                    }
+                }, throwable -> {
+                    requestedTraceLimits = null;
+                    System.out.println("Can't read phasing traces " + throwable.getMessage());
+                });
+    }
+
+    /**
+     * Check whether anything would be drawn by drawSlices: the slices (or the
+     * phasing pivot) are turned on and the chart is in a showing window.
+     *
+     * @return true if the slices are shown
+     */
+    public boolean hasVisibleSlices() {
+        if ((annoCanvas == null) || (annoCanvas.getScene() == null)) {
+            return false;
+        }
+        Window window = annoCanvas.getScene().getWindow();
+        if ((window == null) || !window.isShowing()) {
+            return false;
         }
+        boolean slicesOn = controller.sliceStatus.get() && sliceStatus.get();
+        return slicesOn || controller.isPhaseSliderVisible();
     }
 
     public void projectDataset() {
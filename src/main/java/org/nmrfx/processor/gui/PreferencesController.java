@@ -18,6 +18,7 @@
 package org.nmrfx.processor.gui;
 
 import org.nmrfx.utils.properties.DirectoryOperationItem;
+import org.nmrfx.utils.properties.BooleanOperationItem;
 import org.nmrfx.utils.properties.ChoiceOperationItem;
 import org.nmrfx.utils.properties.IntRangeOperationItem;
 import org.nmrfx.utils.properties.FileOperationItem;
@@ -78,6 +79,7 @@ public class PreferencesController implements Initializable {
     static IntegerProperty tickFontSizeProp = null;
     static IntegerProperty labelFontSizeProp = null;
     static IntegerProperty peakFontSizeProp = null;
+    static BooleanProperty saveDatasetStatsProp = null;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -129,8 +131,17 @@ public class PreferencesController implements Initializable {
                 },
                 getPeakFontSize(), 1, 32, "Spectra", "PeakFontSize", "Font size for peak box labels");
 
+        BooleanOperationItem saveDatasetStatsItem = new BooleanOperationItem(
+                (a, b, c) -> {
+                    saveDatasetStatsProp.setValue((Boolean) c);
+                    setBoolean("SAVE_DATASET_STATS", (Boolean) c);
+                },
+                getSaveDatasetStats(), "Spectra", "SaveDatasetStats",
+                "Save the intensity statistics used for auto scaling next to each dataset (as <file>.stats)");
+
         prefSheet.getItems().addAll(nestaFileItem, locationTypeItem, locationFileItem,
-                nProcessesItem, ticFontSizeItem, labelFontSizeItem, peakFontSizeItem);
+                nProcessesItem, ticFontSizeItem, labelFontSizeItem, peakFontSizeItem,
+                saveDatasetStatsItem);
 
     }
 
@@ -447,6 +458,11 @@ public class PreferencesController implements Initializable {
         return peakFontSizeProp.getValue();
     }
 
+    public static Boolean getSaveDatasetStats() {
+        saveDatasetStatsProp = getBoolean(saveDatasetStatsProp, "SAVE_DATASET_STATS", false);
+        return saveDatasetStatsProp.getValue();
+    }
+
     public static IntegerProperty getInteger(IntegerProperty prop, String name, int defValue) {
         if (prop == null) {
             Preferences prefs = Preferences.userNodeForPackage(MainApp.class);
@@ -0,0 +1,181 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+
+/**
+ * Runs previews (for example, reprocessing the displayed FID after a parameter
+ * has been changed) on a background thread where only the latest request
+ * matters. A request that is still waiting when a newer one is submitted is
+ * dropped, and a request that is running is cancelled: the computation can
+ * check {@link Token#isCancelled} between steps (or call
+ * {@link Token#checkCancelled}) to stop early, and its result is discarded.
+ * The result of the latest request is published on the FX thread.
+ *
+ * Requests run one at a time, in a single daemon thread, so computations
+ * submitted to the same executor don't need to be thread safe with respect to
+ * each other.
+ *
+ * @author brucejohnson
+ */
+public class PreviewExecutor {
+
+    public interface Computation<T> {
+
+        T compute(Token token) throws Exception;
+    }
+
+    /**
+     * Identifies one request, and tells its computation whether a newer request
+     * has been submitted since.
+     */
+    public class Token {
+
+        final long generation;
+
+        Token(long generation) {
+            this.generation = generation;
+        }
+
+        public boolean isCancelled() {
+            return generation != PreviewExecutor.this.generation.get();
+        }
+
+        public void checkCancelled() {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    class Request<T> implements Runnable {
+
+        final Token token;
+        final Computation<T> computation;
+        final Consumer<T> onResult;
+        final Consumer<Throwable> onError;
+
+        Request(Token token, Computation<T> computation, Consumer<T> onResult, Consumer<Throwable> onError) {
+            this.token = token;
+            this.computation = computation;
+            this.onResult = onResult;
+            this.onError = onError;
+        }
+
+        @Override
+        public void run() {
+            if (token.isCancelled()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            try {
+                T result = computation.compute(token);
+                if (token.isCancelled()) {
+                    cancelled.incrementAndGet();
+                    return;
+                }
+                Platform.runLater(() -> {
+                    if (!token.isCancelled()) {
+                        completed.incrementAndGet();
+                        onResult.accept(result);
+                    } else {
+                        cancelled.incrementAndGet();
+                    }
+                });
+            } catch (CancellationException cE) {
+                cancelled.incrementAndGet();
+            } catch (Throwable throwable) {
+                if (!token.isCancelled() && (onError != null)) {
+                    Platform.runLater(() -> onError.accept(throwable));
+                } else if (onError == null) {
+                    throwable.printStackTrace();
+                }
+            }
+        }
+    }
+
+    final ExecutorService executor;
+    final AtomicLong generation = new AtomicLong();
+    final AtomicReference<Request<?>> pending = new AtomicReference<>();
+    final AtomicLong submitted = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong cancelled = new AtomicLong();
+    final AtomicLong completed = new AtomicLong();
+
+    public PreviewExecutor(String name) {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submit a request, superseding any earlier request that hasn't finished.
+     *
+     * @param <T> the type of the result
+     * @param computation the work, run on the background thread
+     * @param onResult receives the result on the FX thread, if no newer request
+     * has been submitted by then
+     * @param onError receives any exception on the FX thread (if null the stack
+     * trace is printed)
+     * @return the token of the request
+     */
+    public <T> Token submit(Computation<T> computation, Consumer<T> onResult, Consumer<Throwable> onError) {
+        Token token = new Token(generation.incrementAndGet());
+        submitted.incrementAndGet();
+        Request<T> request = new Request<>(token, computation, onResult, onError);
+        if (pending.getAndSet(request) == null) {
+            executor.execute(this::runPending);
+        } else {
+            dropped.incrementAndGet();
+        }
+        return token;
+    }
+
+    void runPending() {
+        Request<?> request = pending.getAndSet(null);
+        if (request != null) {
+            request.run();
+        }
+    }
+
+    /**
+     * Cancel the current request, if any, without submitting a new one.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    public String getStatistics() {
+        return String.format("submitted %d dropped %d cancelled %d completed %d",
+                submitted.get(), dropped.get(), cancelled.get(), completed.get());
+    }
+}
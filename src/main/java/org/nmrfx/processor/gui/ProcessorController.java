@@ -88,6 +88,9 @@ import org.controlsfx.dialog.ExceptionDialog;
 import org.python.util.PythonInterpreter;
 import org.fxmisc.richtext.CodeArea;
 import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.gui.spectra.DatasetBlockCache;
+import org.nmrfx.processor.gui.spectra.DatasetStatistics;
+import org.nmrfx.processor.gui.spectra.IntegralCache;
 import org.nmrfx.processor.datasets.vendor.NMRData;
 import org.nmrfx.processor.datasets.vendor.VendorPar;
 import org.nmrfx.utilities.ProgressUpdater;
@@ -410,6 +413,10 @@ public class ProcessorController implements Initializable, ProgressUpdater {
     @FXML
     public void viewDatasetInApp() {
         if (chartProcessor.datasetFile != null) {
+            // the dataset file has just been rewritten
+            DatasetBlockCache.invalidate(chartProcessor.datasetFile);
+            IntegralCache.invalidate(chartProcessor.datasetFile);
+            DatasetStatistics.invalidate(chartProcessor.datasetFile);
             boolean viewingDataset = isViewingDataset();
             chart.controller.openDataset(chartProcessor.datasetFile, false);
             viewMode.getSelectionModel().select(1);
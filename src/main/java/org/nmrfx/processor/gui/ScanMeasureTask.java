@@ -0,0 +1,223 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import org.nmrfx.datasets.DatasetBase;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.datasets.Measure;
+import org.nmrfx.processor.gui.controls.ConsoleUtil;
+import org.nmrfx.processor.gui.controls.FileTableItem;
+
+/**
+ * Measures a set of regions (scan table columns) for the datasets of a scan
+ * table. Each dataset is opened once and all the regions are measured from it
+ * before moving on, and different datasets are measured in parallel. Datasets
+ * are opened and closed on the FX thread, as that changes the dataset list
+ * shown in the GUI, and only measured in the background. As each
+ * dataset finishes, its values are passed (on the FX thread) to a consumer so
+ * the table can be filled in incrementally.
+ *
+ * @author brucejohnson
+ */
+public class ScanMeasureTask extends Task<Integer> {
+
+    /**
+     * A dataset to measure and the table rows that receive its values, in row
+     * order. A dataset that holds several rows (a combined scan) returns one
+     * value per row for each measure.
+     */
+    static class DatasetJob {
+
+        final String datasetName;
+        final DatasetBase dataset;
+        final List<FileTableItem> items;
+
+        DatasetJob(String datasetName, DatasetBase dataset, List<FileTableItem> items) {
+            this.datasetName = datasetName;
+            this.dataset = dataset;
+            this.items = items;
+        }
+    }
+
+    final List<DatasetJob> jobs;
+    final Map<String, Measure> measures;
+    final String scanOutputDir;
+    final BiConsumer<DatasetJob, Map<String, List<Double>>> resultConsumer;
+    final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Create a task that measures the datasets used by the specified scan
+     * table items. Items that share a dataset are measured together.
+     *
+     * @param items the scan table items
+     * @param scanOutputDir the directory that datasets not already open are
+     * loaded from
+     * @param measures the measures to apply, keyed by column name
+     * @param resultConsumer called with each dataset's values, keyed by column
+     * name
+     */
+    ScanMeasureTask(List<FileTableItem> items, String scanOutputDir, Map<String, Measure> measures,
+            BiConsumer<DatasetJob, Map<String, List<Double>>> resultConsumer) {
+        this.scanOutputDir = scanOutputDir;
+        this.measures = measures;
+        this.resultConsumer = resultConsumer;
+        Map<String, List<FileTableItem>> itemMap = new LinkedHashMap<>();
+        for (FileTableItem item : items) {
+            itemMap.computeIfAbsent(item.getDatasetName(), k -> new ArrayList<>()).add(item);
+        }
+        jobs = new ArrayList<>();
+        for (Map.Entry<String, List<FileTableItem>> entry : itemMap.entrySet()) {
+            List<FileTableItem> jobItems = entry.getValue();
+            jobItems.sort(Comparator.comparingInt(FileTableItem::getRow));
+            jobs.add(new DatasetJob(entry.getKey(), null, jobItems));
+        }
+    }
+
+    /**
+     * Create a task that measures a single, already open dataset whose values
+     * are distributed over the specified table items in row order.
+     *
+     * @param dataset the dataset to measure
+     * @param items the scan table items
+     * @param measures the measures to apply, keyed by column name
+     * @param resultConsumer called with the dataset's values, keyed by column
+     * name
+     */
+    ScanMeasureTask(DatasetBase dataset, List<FileTableItem> items, Map<String, Measure> measures,
+            BiConsumer<DatasetJob, Map<String, List<Double>>> resultConsumer) {
+        this.scanOutputDir = null;
+        this.measures = measures;
+        this.resultConsumer = resultConsumer;
+        List<FileTableItem> jobItems = new ArrayList<>(items);
+        jobItems.sort(Comparator.comparingInt(FileTableItem::getRow));
+        jobs = Collections.singletonList(new DatasetJob(dataset.getName(), dataset, jobItems));
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Look up or open the dataset of a job. Opening a dataset registers it in
+     * the dataset list shown by the GUI, so this is done on the FX thread.
+     */
+    DatasetBase openDataset(DatasetJob job, List<DatasetBase> opened) throws IOException {
+        if (job.dataset != null) {
+            return job.dataset;
+        }
+        FutureTask<DatasetBase> future = new FutureTask<>(() -> {
+            DatasetBase dataset = Dataset.getDataset(job.datasetName);
+            if (dataset == null) {
+                File datasetFile = new File(scanOutputDir, job.datasetName);
+                dataset = new Dataset(datasetFile.getPath(), datasetFile.getPath(), true, false);
+                opened.add(dataset);
+            }
+            return dataset;
+        });
+        ConsoleUtil.runOnFxThread(future);
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted opening " + job.datasetName);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    static void closeDatasets(List<DatasetBase> datasets) {
+        if (!datasets.isEmpty()) {
+            Platform.runLater(() -> {
+                for (DatasetBase dataset : datasets) {
+                    dataset.close();
+                }
+            });
+        }
+    }
+
+    boolean measureDataset(DatasetJob job) {
+        if (isCancelled()) {
+            return false;
+        }
+        List<DatasetBase> opened = new ArrayList<>();
+        try {
+            DatasetBase dataset = openDataset(job, opened);
+            Map<String, List<Double>> values = new LinkedHashMap<>();
+            for (Map.Entry<String, Measure> entry : measures.entrySet()) {
+                values.put(entry.getKey(), entry.getValue().measure(dataset));
+            }
+            Platform.runLater(() -> resultConsumer.accept(job, values));
+            return true;
+        } catch (IOException ex) {
+            errors.add(job.datasetName + ": " + ex.getMessage());
+            return false;
+        } finally {
+            closeDatasets(opened);
+        }
+    }
+
+    @Override
+    protected Integer call() throws Exception {
+        updateMessage("Measuring regions");
+        int nThreads = Math.max(1, Math.min(jobs.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        int nMeasured = 0;
+        try {
+            ExecutorCompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+            for (DatasetJob job : jobs) {
+                completionService.submit(() -> measureDataset(job));
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                if (isCancelled()) {
+                    break;
+                }
+                if (completionService.take().get()) {
+                    nMeasured++;
+                }
+                updateProgress(i + 1, jobs.size());
+                updateMessage(String.format("Measured %d of %d datasets", i + 1, jobs.size()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return nMeasured;
+    }
+}
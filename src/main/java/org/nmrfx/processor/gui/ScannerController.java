@@ -14,14 +14,13 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.TreeSet;
 import java.util.function.Consumer;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javafx.beans.value.ChangeListener;
@@ -50,7 +49,6 @@ import javafx.stage.StageStyle;
 import org.controlsfx.control.PropertySheet;
 import org.controlsfx.control.PropertySheet.Item;
 import org.nmrfx.datasets.DatasetBase;
-import org.nmrfx.processor.datasets.Dataset;
 import org.nmrfx.datasets.DatasetRegion;
 import org.nmrfx.processor.datasets.Measure;
 import org.nmrfx.processor.datasets.Measure.MeasureTypes;
@@ -477,45 +475,63 @@ public class ScannerController implements Initializable {
             String columnPrefix = scanTable.getNextColumnName(columnName, columnDescriptor);
             measure.setName(columnPrefix);
             String newColumnName = columnPrefix + ":" + columnDescriptor;
-            List<Double> allValues = new ArrayList<>();
-            List<FileTableItem> items = scanTable.getItems();
-
-            for (FileTableItem item : items) {
-                String datasetName = item.getDatasetName();
-                Dataset itemDataset = Dataset.getDataset(datasetName);
-                if (itemDataset == null) {
-                    File datasetFile = new File(scanTable.getScanOutputDirectory(), datasetName);
-                    try {
-                        itemDataset = new Dataset(datasetFile.getPath(), datasetFile.getPath(), true, false);
-                    } catch (IOException ioE) {
-                        GUIUtils.warn("Measure", "Can't open dataset " + datasetFile.getPath());
-                        return;
-                    }
-                }
+            scanTable.addTableColumn(newColumnName, "D");
+            Map<String, Measure> measures = new LinkedHashMap<>();
+            measures.put(newColumnName, measure);
+            ScanMeasureTask task = new ScanMeasureTask(scanTable.getItems(), scanTable.getScanOutputDirectory(),
+                    measures, this::setJobValues);
+            runMeasureTask(task);
+        }
+    }
 
-                List<Double> values = measureRegion(itemDataset, measure);
-                if (values == null) {
-                    return;
-                }
-                allValues.addAll(values);
-                if (allValues.size() >= items.size()) {
-                    break;
+    /**
+     * Store the values measured from one dataset in the table. A dataset that
+     * holds several rows (a combined scan) returns one value per row, and
+     * value i goes to the item for row i + 1 (rows index from 1), as in
+     * setItems. A dataset of a single item returns a single value for it.
+     *
+     * @param job the measured dataset and its items
+     * @param values the values, keyed by column name
+     */
+    void setJobValues(ScanMeasureTask.DatasetJob job, Map<String, List<Double>> values) {
+        Map<Integer, FileTableItem> rowMap = new HashMap<>();
+        for (FileTableItem item : job.items) {
+            if (item.getRow() > 0) {
+                rowMap.put(item.getRow() - 1, item);
+            }
+        }
+        for (Map.Entry<String, List<Double>> entry : values.entrySet()) {
+            List<Double> columnValues = entry.getValue();
+            if ((job.items.size() == 1) && (columnValues.size() == 1)) {
+                job.items.get(0).setExtra(entry.getKey(), columnValues.get(0));
+            } else {
+                for (int i = 0; i < columnValues.size(); i++) {
+                    FileTableItem item = rowMap.get(i);
+                    if (item != null) {
+                        item.setExtra(entry.getKey(), columnValues.get(i));
+                    }
                 }
             }
-            setItems(newColumnName, allValues);
-            scanTable.addTableColumn(newColumnName, "D");
         }
+        scanTable.refresh();
     }
 
-    private List<Double> measureRegion(Dataset dataset, Measure measure) {
-        List<Double> values;
-        try {
-            values = measure.measure(dataset);
-        } catch (IOException ex) {
-            Logger.getLogger(ScannerController.class.getName()).log(Level.SEVERE, null, ex);
-            return null;
+    void runMeasureTask(ScanMeasureTask task) {
+        task.setOnSucceeded(e -> {
+            scanTable.refresh();
+            List<String> errors = task.getErrors();
+            if (!errors.isEmpty()) {
+                GUIUtils.warn("Measure", "Can't measure " + errors.size() + " dataset(s)\n"
+                        + String.join("\n", errors.subList(0, Math.min(10, errors.size()))));
+            }
+        });
+        task.setOnFailed(e -> GUIUtils.warn("Measure", "Error measuring regions " + task.getException().getMessage()));
+        if (fxmlController != null) {
+            fxmlController.getStatusBar().showJob(task);
         }
-        return values;
+        Thread th = new Thread(task);
+        th.setDaemon(true);
+        th.start();
     }
 
     public void addColumnData(String newColumnName, List<Double> values) {
@@ -572,20 +588,27 @@ public class ScannerController implements Initializable {
     @FXML
     void measureRegions() {
         DatasetBase dataset = chart.getDataset();
+        if (dataset == null) {
+            return;
+        }
         List<String> headers = scanTable.getHeaders();
+        Map<String, Measure> measures = new LinkedHashMap<>();
         for (String header : headers) {
             Optional<Measure> measureOpt = matchHeader(header);
             if (measureOpt.isPresent()) {
-                try {
-                    List<Double> values = measureOpt.get().measure(dataset);
-                    setItems(header, values);
-                } catch (IOException ex) {
-                    Logger.getLogger(ScannerController.class.getName()).log(Level.SEVERE, null, ex);
-                    return;
+                measures.put(header, measureOpt.get());
+            }
+        }
+        if (!measures.isEmpty()) {
+            List<FileTableItem> items = new ArrayList<>();
+            for (FileTableItem item : scanTable.getItems()) {
+                if (item.getRow() > 0) {
+                    items.add(item);
                 }
             }
+            ScanMeasureTask task = new ScanMeasureTask(dataset, items, measures, this::setJobValues);
+            runMeasureTask(task);
         }
-        scanTable.refresh();
     }
 
     @FXML
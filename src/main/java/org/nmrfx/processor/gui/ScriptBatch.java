@@ -0,0 +1,351 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javafx.scene.Cursor;
+import org.nmrfx.processor.gui.controls.ConsoleUtil;
+
+/**
+ * A list of scripting operations that are queued up and then applied together
+ * by {@link #commit()}. All the operations run in one task on the FX thread,
+ * drawing of the charts they touch is held off while they run, and each
+ * touched chart is redrawn once at the end. Operations that query a value add
+ * a slot to the list returned by commit, and return the index of that slot
+ * when they are queued.
+ *
+ * Operations apply to the chart of the scripter the batch was created from,
+ * until a different chart is selected with one of the chart methods. Changing
+ * the grid of a window selects its first chart. Windows whose grid or style
+ * (sconfig) is changed are laid out and drawn once at the end instead of
+ * refreshing their charts individually.
+ *
+ * @author brucejohnson
+ */
+public class ScriptBatch {
+
+    final GUIScripter scripter;
+    final List<Function<PolyChart, Object>> ops = new ArrayList<>();
+    final List<Boolean> hasResult = new ArrayList<>();
+    int nResults = 0;
+
+    ScriptBatch(GUIScripter scripter) {
+        this.scripter = scripter;
+    }
+
+    void add(Function<PolyChart, Object> op) {
+        ops.add(op);
+        hasResult.add(false);
+    }
+
+    int addQuery(Function<PolyChart, Object> op) {
+        ops.add(op);
+        hasResult.add(true);
+        return nResults++;
+    }
+
+    /**
+     * Marker returned by chart selection operations so that commit can switch
+     * the chart that subsequent operations apply to.
+     */
+    static class ChartSelection {
+
+        final PolyChart chart;
+
+        ChartSelection(PolyChart chart) {
+            this.chart = chart;
+        }
+    }
+
+    /**
+     * Marker returned by operations that change the layout or style of a
+     * window, so that commit redraws the whole window. If chart isn't null the
+     * grid of the window was changed: chart becomes the chart that subsequent
+     * operations apply to, and the charts of the window are enabled again at
+     * the end.
+     */
+    static class WindowChange {
+
+        final FXMLController controller;
+        final PolyChart chart;
+
+        WindowChange(FXMLController controller, PolyChart chart) {
+            this.controller = controller;
+            this.chart = chart;
+        }
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    public ScriptBatch chart(int index) {
+        add(c -> {
+            List<PolyChart> charts = c.getController().charts;
+            if ((index < 0) || (index >= charts.size())) {
+                throw new IllegalArgumentException("Invalid chart index " + index);
+            }
+            return new ChartSelection(charts.get(index));
+        });
+        return this;
+    }
+
+    public ScriptBatch chart(String chartName) {
+        add(c -> {
+            Optional<PolyChart> chartOpt = c.getController().charts.stream().
+                    filter(chart -> chart.getName().equals(chartName)).findFirst();
+            if (chartOpt.isEmpty()) {
+                throw new IllegalArgumentException("Chart \"" + chartName + "\" doesn't exist");
+            }
+            return new ChartSelection(chartOpt.get());
+        });
+        return this;
+    }
+
+    public ScriptBatch limit(String dimName, double v1, double v2) {
+        add(c -> {
+            GUIScripter.setLimit(c, c.getAxisNum(dimName), v1, v2);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch limit(int axNum, double v1, double v2) {
+        add(c -> {
+            GUIScripter.setLimit(c, axNum, v1, v2);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch config(List<String> datasetNames, Map<String, Object> map) {
+        add(c -> {
+            GUIScripter.setConfig(c, datasetNames, map);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch pconfig(List<String> peakListNames, Map<String, Object> map) {
+        add(c -> {
+            GUIScripter.setPConfig(c, peakListNames, map);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch cconfig(Map<String, Object> map) {
+        add(c -> {
+            GUIScripter.setCConfig(c, map);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch datasets(List<String> datasetNames) {
+        add(c -> {
+            c.updateDatasets(datasetNames);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch peakLists(List<String> peakListNames) {
+        add(c -> {
+            c.updatePeakLists(peakListNames);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch setDims(String datasetName, int[] dims) {
+        add(c -> {
+            GUIScripter.setDims(c, datasetName, dims);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch grid(int rows, int columns) {
+        add(c -> {
+            FXMLController controller = c.getController();
+            return new WindowChange(controller, GUIScripter.setGrid(controller, rows, columns));
+        });
+        return this;
+    }
+
+    public ScriptBatch grid(int nCharts, String orientName) {
+        add(c -> {
+            FXMLController controller = c.getController();
+            return new WindowChange(controller, GUIScripter.setGrid(controller, nCharts, orientName));
+        });
+        return this;
+    }
+
+    public ScriptBatch geometry(Double x, Double y, Double width, Double height) {
+        add(c -> {
+            GUIScripter.setGeometry(c.getController().stage, x, y, width, height);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch cursor(String name) {
+        Cursor cursor = Cursor.cursor(name);
+        add(c -> {
+            c.setCursor(cursor);
+            return null;
+        });
+        return this;
+    }
+
+    public ScriptBatch sconfig(Map<String, Object> map) {
+        add(c -> {
+            GUIScripter.setSConfig(c.getController(), map);
+            return new WindowChange(c.getController(), null);
+        });
+        return this;
+    }
+
+    public int getLimits() {
+        return addQuery(c -> GUIScripter.getLimits(c));
+    }
+
+    public int getConfig(List<String> datasetNames) {
+        return addQuery(c -> GUIScripter.getConfig(c, datasetNames));
+    }
+
+    public int getPConfig(List<String> peakListNames) {
+        return addQuery(c -> GUIScripter.getPConfig(c, peakListNames));
+    }
+
+    public int getCConfig() {
+        return addQuery(c -> c.config());
+    }
+
+    public int getDatasets() {
+        return addQuery(c -> c.getDatasetAttributes().stream().
+                map(d -> d.getFileName()).collect(Collectors.toList()));
+    }
+
+    public int getPeakLists() {
+        return addQuery(c -> c.getPeakListAttributes().stream().
+                map(p -> p.getPeakListName()).collect(Collectors.toList()));
+    }
+
+    public int getDims(String datasetName) {
+        return addQuery(c -> GUIScripter.getDims(c, datasetName));
+    }
+
+    public int getGrid() {
+        return addQuery(c -> GUIScripter.getGrid(c.getController()));
+    }
+
+    public int nCharts() {
+        return addQuery(c -> c.getController().charts.size());
+    }
+
+    public int getGeometry() {
+        return addQuery(c -> GUIScripter.getGeometry(c.getController().stage));
+    }
+
+    public int getCursor() {
+        return addQuery(c -> c.getCursor());
+    }
+
+    public int getSConfig() {
+        return addQuery(c -> c.getController().config());
+    }
+
+    /**
+     * Apply all the queued operations in a single task on the FX thread and
+     * redraw each chart they touched once. The batch is empty afterwards and
+     * can be reused.
+     *
+     * @return the values of the query operations, in the order they were
+     * queued
+     * @throws InterruptedException if interrupted while waiting for the FX
+     * thread
+     * @throws ExecutionException if one of the operations failed. Operations
+     * queued before the failing one remain applied.
+     */
+    public List<Object> commit() throws InterruptedException, ExecutionException {
+        List<Function<PolyChart, Object>> pending = new ArrayList<>(ops);
+        List<Boolean> pendingHasResult = new ArrayList<>(hasResult);
+        ops.clear();
+        hasResult.clear();
+        nResults = 0;
+        FutureTask<List<Object>> future = new FutureTask<>(() -> {
+            List<Object> results = new ArrayList<>();
+            // charts touched by the batch, with whether they were disabled before it
+            Map<PolyChart, Boolean> touched = new LinkedHashMap<>();
+            // windows to lay out and draw as a whole, and those whose grid changed
+            Set<FXMLController> changedWindows = new LinkedHashSet<>();
+            Set<FXMLController> changedGrids = new LinkedHashSet<>();
+            PolyChart chart = scripter.getChart();
+            try {
+                for (int i = 0; i < pending.size(); i++) {
+                    if (!touched.containsKey(chart)) {
+                        touched.put(chart, chart.disabled);
+                        chart.setDisable(true);
+                    }
+                    Object result = pending.get(i).apply(chart);
+                    if (result instanceof ChartSelection) {
+                        chart = ((ChartSelection) result).chart;
+                    } else if (result instanceof WindowChange) {
+                        WindowChange change = (WindowChange) result;
+                        changedWindows.add(change.controller);
+                        if (change.chart != null) {
+                            changedGrids.add(change.controller);
+                            chart = change.chart;
+                        }
+                    } else if (pendingHasResult.get(i)) {
+                        results.add(result);
+                    }
+                }
+            } finally {
+                for (Map.Entry<PolyChart, Boolean> entry : touched.entrySet()) {
+                    PolyChart touchedChart = entry.getKey();
+                    touchedChart.setDisable(entry.getValue());
+                    if (!changedWindows.contains(touchedChart.getController())) {
+                        touchedChart.refresh();
+                    }
+                }
+                for (FXMLController controller : changedWindows) {
+                    if (changedGrids.contains(controller)) {
+                        controller.setChartDisable(false);
+                    }
+                    controller.draw();
+                }
+            }
+            return results;
+        });
+        ConsoleUtil.runOnFxThread(future);
+        return future.get();
+    }
+}
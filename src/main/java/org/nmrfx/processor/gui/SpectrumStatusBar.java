@@ -36,22 +36,27 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Worker;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
 import javafx.scene.Cursor;
 import javafx.scene.Node;
+import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuButton;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.Spinner;
 import javafx.scene.control.SpinnerValueFactory;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToolBar;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.ScrollEvent;
@@ -111,6 +116,11 @@ public class SpectrumStatusBar {
     Background defaultBackground = null;
     boolean arrayMode = false;
     int currentMode = 0;
+    HBox jobBox = new HBox(5);
+    Label jobLabel = new Label();
+    ProgressBar jobProgress = new ProgressBar();
+    Button jobCancelButton = new Button("Cancel");
+    Worker<?> activeJob = null;
 
     public SpectrumStatusBar(FXMLController controller) {
         this.controller = controller;
@@ -119,6 +129,11 @@ public class SpectrumStatusBar {
     public void buildBar(ToolBar btoolBar) {
         this.btoolBar = btoolBar;
         setupTools();
+        jobProgress.setPrefWidth(100.0);
+        jobCancelButton.setOnAction(e -> cancelJob());
+        jobBox.getChildren().addAll(jobLabel, jobProgress, jobCancelButton);
+        jobBox.setVisible(false);
+        jobBox.setManaged(false);
 
         for (int i = 0; i < 2; i++) {
             for (int j = 1; j >= 0; j--) {
@@ -486,6 +501,7 @@ public class SpectrumStatusBar {
                 int center = (pt1 + pt2) / 2;
                 int delta = center - pt1;
                 if (pt1 != (plane - delta)) {
+                    int direction = (plane - delta) - pt1;
                     pt1 = plane - delta;
                     pt2 = plane + delta;
                     ChartUndoLimits undo = new ChartUndoLimits(controller.getActiveChart());
@@ -494,6 +510,7 @@ public class SpectrumStatusBar {
 
                     controller.getActiveChart().setAxis(iDim, ppm1, ppm2);
                     controller.getActiveChart().refresh();
+                    controller.getActiveChart().prefetchPlanes(iDim, direction);
                     ChartUndoLimits redo = new ChartUndoLimits(controller.getActiveChart());
                     controller.undoManager.add("plane", undo, redo);
                 }
@@ -554,6 +571,7 @@ public class SpectrumStatusBar {
             nodes.add(nodeFiller);
         }
         //  nodes.add(phaserStatus);
+        nodes.add(jobBox);
         btoolBar.getItems().clear();
 
         btoolBar.getItems().addAll(nodes);
@@ -603,12 +621,62 @@ public class SpectrumStatusBar {
             nodes.add(sliceStatus);
         }
         nodes.add(phaserStatus);
+        nodes.add(jobBox);
         btoolBar.getItems().clear();
 
         btoolBar.getItems().addAll(nodes);
 
     }
 
+    /**
+     * Show the message and progress of a background job in the status bar,
+     * along with a button to cancel it. The display is removed when the job
+     * finishes. If another job is started the display switches to it.
+     *
+     * @param worker the job to monitor
+     */
+    public void showJob(Worker<?> worker) {
+        showJob(worker, true);
+    }
+
+    /**
+     * Show the message and progress of a background job in the status bar. If
+     * the job can't be cancelled the cancel button is disabled and its tooltip
+     * says so.
+     *
+     * @param worker the job to monitor
+     * @param cancellable whether the job can be cancelled
+     */
+    public void showJob(Worker<?> worker, boolean cancellable) {
+        activeJob = worker;
+        jobCancelButton.setDisable(!cancellable);
+        jobCancelButton.setTooltip(cancellable ? null : new Tooltip("This job can't be cancelled"));
+        jobLabel.textProperty().bind(worker.messageProperty());
+        jobProgress.progressProperty().bind(worker.progressProperty());
+        jobBox.setVisible(true);
+        jobBox.setManaged(true);
+        worker.stateProperty().addListener((obs, oldState, newState) -> {
+            if ((worker == activeJob) && ((newState == Worker.State.SUCCEEDED)
+                    || (newState == Worker.State.FAILED) || (newState == Worker.State.CANCELLED))) {
+                hideJob();
+            }
+        });
+    }
+
+    void hideJob() {
+        activeJob = null;
+        jobLabel.textProperty().unbind();
+        jobProgress.progressProperty().unbind();
+        jobBox.setVisible(false);
+        jobBox.setManaged(false);
+    }
+
+    void cancelJob() {
+        if (activeJob != null) {
+            activeJob.cancel();
+        }
+    }
+
     public void setCrossText(int iOrient, int iCross, Double value, boolean iconState) {
         String strValue = "";
         if (value != null) {
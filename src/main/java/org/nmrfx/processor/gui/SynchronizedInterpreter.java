@@ -0,0 +1,85 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import org.python.core.PyObject;
+import org.python.util.InteractiveInterpreter;
+
+/**
+ * An interpreter that runs one piece of code at a time. Each call that runs
+ * code or reads or sets a variable holds the lock of the interpreter, so the
+ * console, key bindings and dialogs (on the FX thread) and processing
+ * previews (on background threads) can share the interpreter and the current
+ * process it holds. Code that makes several calls that must not be
+ * interleaved with others (for example setting up the process and then
+ * executing it) should also synchronize on the interpreter.
+ *
+ * @author brucejohnson
+ */
+public class SynchronizedInterpreter extends InteractiveInterpreter {
+
+    @Override
+    public synchronized void exec(String s) {
+        super.exec(s);
+    }
+
+    @Override
+    public synchronized void exec(PyObject code) {
+        super.exec(code);
+    }
+
+    @Override
+    public synchronized void execfile(String filename) {
+        super.execfile(filename);
+    }
+
+    @Override
+    public synchronized PyObject eval(String s) {
+        return super.eval(s);
+    }
+
+    @Override
+    public synchronized PyObject eval(PyObject code) {
+        return super.eval(code);
+    }
+
+    @Override
+    public synchronized void runcode(PyObject code) {
+        super.runcode(code);
+    }
+
+    @Override
+    public synchronized void set(String name, Object value) {
+        super.set(name, value);
+    }
+
+    @Override
+    public synchronized void set(String name, PyObject value) {
+        super.set(name, value);
+    }
+
+    @Override
+    public synchronized PyObject get(String name) {
+        return super.get(name);
+    }
+
+    @Override
+    public synchronized <T> T get(String name, Class<T> javaclass) {
+        return super.get(name, javaclass);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.gui.spectra.DatasetAttributes;
+import org.nmrfx.processor.gui.spectra.PeakListAttributes;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Reads and writes window layouts in the YAML form used by nwyaml.py, without
+ * going through the Python scripting layer. When reading, all the windows are
+ * built with drawing of their charts disabled, and each chart is then drawn
+ * once, with the charts of visible windows drawn first.
+ *
+ * @author brucejohnson
+ */
+public class WindowLayout {
+
+    final Path path;
+    final Map<String, Object> data;
+    final int fileNum;
+
+    WindowLayout(Path path, Map<String, Object> data, int fileNum) {
+        this.path = path;
+        this.data = data;
+        this.fileNum = fileNum;
+    }
+
+    /**
+     * Read a layout file.
+     *
+     * @param path the YAML file
+     * @param fileNum the index of the window. Index 0 is restored into the
+     * active window, others get a new window.
+     * @return the layout
+     * @throws IOException if the file can't be read or isn't a layout
+     */
+    @SuppressWarnings("unchecked")
+    public static WindowLayout read(Path path, int fileNum) throws IOException {
+        String content = new String(Files.readAllBytes(path));
+        Object data = new Yaml().load(content);
+        if (!(data instanceof Map)) {
+            throw new IOException("Not a window file " + path);
+        }
+        return new WindowLayout(path, (Map<String, Object>) data, fileNum);
+    }
+
+    /**
+     * Restore a list of windows. The windows are created and configured in
+     * one pass on the FX thread, and then their charts are drawn.
+     *
+     * @param layouts the layouts to restore
+     * @throws IOException if a window can't be restored
+     */
+    public static void restore(List<WindowLayout> layouts) throws IOException {
+        try {
+            List<FXMLController> controllers = FigureRenderer.callOnFxThread(() -> {
+                List<FXMLController> result = new ArrayList<>();
+                for (WindowLayout layout : layouts) {
+                    result.add(layout.build());
+                }
+                return result;
+            });
+            Platform.runLater(() -> drawWindows(controllers));
+        } catch (InterruptedException | ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            throw new IOException("Error restoring windows: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Enable and draw the charts of restored windows. Visible windows are
+     * drawn now and the others on later pulses of the FX thread.
+     *
+     * @param controllers the restored windows
+     */
+    static void drawWindows(List<FXMLController> controllers) {
+        List<FXMLController> hidden = new ArrayList<>();
+        for (FXMLController controller : controllers) {
+            Stage stage = controller.getStage();
+            if ((stage != null) && stage.isShowing() && !stage.isIconified()) {
+                drawWindow(controller);
+            } else {
+                hidden.add(controller);
+            }
+        }
+        for (FXMLController controller : hidden) {
+            Platform.runLater(() -> drawWindow(controller));
+        }
+    }
+
+    static void drawWindow(FXMLController controller) {
+        for (PolyChart chart : controller.charts) {
+            chart.setDisable(false);
+            chart.drawDeferred = false;
+            chart.refresh();
+        }
+    }
+
+    static String getTitle(Path path) {
+        String title = path.getFileName().toString();
+        if (title.endsWith("_fav.yaml")) {
+            title = title.substring(0, title.length() - 9);
+        } else if (title.endsWith(".yaml")) {
+            title = title.substring(0, title.length() - 5);
+        }
+        return title;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Number> getNumbers(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        List<Number> result = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<Object>) value) {
+                if (item instanceof Number) {
+                    result.add((Number) item);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create (or reuse) the window and set up its charts with drawing
+     * disabled. Must be called on the FX thread.
+     *
+     * @return the window's controller
+     */
+    FXMLController build() {
+        FXMLController controller;
+        if (fileNum > 0) {
+            controller = FXMLController.create();
+            controller.getStage().setTitle(getTitle(path));
+        } else {
+            controller = FXMLController.getActiveController();
+        }
+        controller.setChartDisable(true);
+
+        List<Number> geometry = getNumbers(data, "geometry");
+        if (geometry.size() == 4) {
+            Stage stage = controller.getStage();
+            stage.setX(geometry.get(0).doubleValue());
+            stage.setY(geometry.get(1).doubleValue());
+            stage.setWidth(geometry.get(2).doubleValue());
+            stage.setHeight(geometry.get(3).doubleValue());
+        }
+        int nCols = 1;
+        List<Number> grid = getNumbers(data, "grid");
+        if (grid.size() == 2) {
+            int nRows = grid.get(0).intValue();
+            nCols = grid.get(1).intValue();
+            controller.setNCharts(nRows * nCols);
+            controller.setChartDisable(true);
+            controller.arrange(nRows);
+        }
+        FigureRenderer.getMap(data, "sconfig").forEach((key, value)
+                -> controller.config(key, FigureRenderer.getConfigValue(key, value)));
+
+        for (Map<String, Object> spectrum : FigureRenderer.getList(data, "spectra")) {
+            List<Number> chartGrid = getNumbers(spectrum, "grid");
+            int index = 0;
+            if (chartGrid.size() == 2) {
+                index = chartGrid.get(0).intValue() * nCols + chartGrid.get(1).intValue();
+            }
+            if (index < controller.charts.size()) {
+                PolyChart chart = controller.charts.get(index);
+                chart.setDisable(true);
+                configureChart(chart, spectrum);
+            }
+        }
+        if (!controller.charts.isEmpty()) {
+            controller.setActiveChart(controller.charts.get(0));
+        }
+        return controller;
+    }
+
+    @SuppressWarnings("unchecked")
+    static void configureChart(PolyChart chart, Map<String, Object> spectrum) {
+        GUIScripter.setCConfig(chart, FigureRenderer.getMap(spectrum, "cconfig"));
+        List<Map<String, Object>> datasets = FigureRenderer.getList(spectrum, "datasets");
+        List<String> datasetNames = new ArrayList<>();
+        for (Map<String, Object> datasetMap : datasets) {
+            datasetNames.add(String.valueOf(datasetMap.get("name")));
+        }
+        chart.updateDatasets(datasetNames);
+
+        FigureRenderer.getMap(spectrum, "lim").forEach((axName, value) -> {
+            List<Number> limits = new ArrayList<>();
+            if (value instanceof List) {
+                limits.addAll((List<Number>) value);
+            } else if (value instanceof Number) {
+                limits.add((Number) value);
+            }
+            if (!limits.isEmpty()) {
+                int axNum = chart.getAxisNum(axName);
+                double v1 = limits.get(0).doubleValue();
+                double v2 = limits.get(limits.size() - 1).doubleValue();
+                GUIScripter.setLimit(chart, axNum, v1, v2);
+            }
+        });
+
+        for (Map<String, Object> datasetMap : datasets) {
+            String name = String.valueOf(datasetMap.get("name"));
+            List<String> names = Collections.singletonList(name);
+            GUIScripter.setConfig(chart, names, FigureRenderer.getMap(datasetMap, "config"));
+            Object dimValue = datasetMap.get("dims");
+            if (dimValue instanceof List) {
+                List<Object> dimList = (List<Object>) dimValue;
+                int[] dims = new int[dimList.size()];
+                Dataset dataset = Dataset.getDataset(name);
+                for (int i = 0; i < dims.length; i++) {
+                    Object dim = dimList.get(i);
+                    if (dim instanceof Number) {
+                        dims[i] = ((Number) dim).intValue();
+                    } else if (dataset != null) {
+                        dims[i] = dataset.getDim(dim.toString());
+                    }
+                }
+                GUIScripter.setDims(chart, name, dims);
+            }
+        }
+
+        List<Map<String, Object>> peakLists = FigureRenderer.getList(spectrum, "peaklists");
+        List<String> peakListNames = new ArrayList<>();
+        for (Map<String, Object> peakListMap : peakLists) {
+            peakListNames.add(String.valueOf(peakListMap.get("name")));
+        }
+        chart.updatePeakLists(peakListNames);
+        for (Map<String, Object> peakListMap : peakLists) {
+            String name = String.valueOf(peakListMap.get("name"));
+            GUIScripter.setPConfig(chart, Collections.singletonList(name), FigureRenderer.getMap(peakListMap, "config"));
+        }
+    }
+
+    /**
+     * Get the layout of a window in the form written to the YAML file. Must
+     * be called on the FX thread.
+     *
+     * @param controller the window
+     * @return the layout data
+     */
+    static Map<String, Object> getLayout(FXMLController controller) {
+        Map<String, Object> win = new LinkedHashMap<>();
+        Stage stage = controller.getStage();
+        List<Double> geometry = new ArrayList<>();
+        geometry.add(stage.getX());
+        geometry.add(stage.getY());
+        geometry.add(stage.getWidth());
+        geometry.add(stage.getHeight());
+        win.put("geometry", geometry);
+        win.put("title", stage.getTitle());
+        int nRows = controller.arrangeGetRows();
+        int nCols = Math.max(1, controller.arrangeGetColumns());
+        List<Integer> grid = new ArrayList<>();
+        grid.add(nRows);
+        grid.add(nCols);
+        win.put("grid", grid);
+        win.put("sconfig", controller.config());
+        List<Map<String, Object>> spectra = new ArrayList<>();
+        win.put("spectra", spectra);
+        for (int i = 0; i < controller.charts.size(); i++) {
+            PolyChart chart = controller.charts.get(i);
+            Map<String, Object> spectrum = new LinkedHashMap<>();
+            List<Integer> chartGrid = new ArrayList<>();
+            chartGrid.add(i / nCols);
+            chartGrid.add(i % nCols);
+            spectrum.put("grid", chartGrid);
+            spectrum.put("lim", GUIScripter.getLimits(chart));
+            spectrum.put("cconfig", chart.config());
+            List<Map<String, Object>> datasets = new ArrayList<>();
+            for (DatasetAttributes dataAttr : chart.getDatasetAttributes()) {
+                String name = dataAttr.getFileName();
+                Map<String, Object> dset = new LinkedHashMap<>();
+                dset.put("name", name);
+                dset.put("config", GUIScripter.getConfig(chart, Collections.singletonList(name)));
+                List<Integer> dims = new ArrayList<>();
+                for (int dim : GUIScripter.getDims(chart, name)) {
+                    dims.add(dim);
+                }
+                dset.put("dims", dims);
+                datasets.add(dset);
+            }
+            spectrum.put("datasets", datasets);
+            List<Map<String, Object>> peakLists = new ArrayList<>();
+            for (PeakListAttributes peakAttr : chart.getPeakListAttributes()) {
+                String name = peakAttr.getPeakListName();
+                Map<String, Object> pset = new LinkedHashMap<>();
+                pset.put("name", name);
+                pset.put("config", GUIScripter.getPConfig(chart, Collections.singletonList(name)));
+                peakLists.add(pset);
+            }
+            spectrum.put("peaklists", peakLists);
+            spectra.add(spectrum);
+        }
+        return win;
+    }
+
+    /**
+     * Write the layout of a window to a YAML file.
+     *
+     * @param controller the window
+     * @param path the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void write(FXMLController controller, Path path) throws IOException {
+        Map<String, Object> win;
+        try {
+            win = FigureRenderer.callOnFxThread(() -> getLayout(controller));
+        } catch (InterruptedException | ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            throw new IOException("Error getting window layout: " + cause.getMessage());
+        }
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            new Yaml().dump(win, writer);
+        }
+    }
+}
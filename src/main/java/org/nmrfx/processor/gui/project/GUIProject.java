@@ -15,10 +15,15 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.FutureTask;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -44,11 +49,14 @@ import org.nmrfx.chemistry.io.PDBFile;
 import org.nmrfx.chemistry.io.PPMFiles;
 import org.nmrfx.chemistry.io.SDFile;
 import org.nmrfx.chemistry.io.Sequence;
+import org.nmrfx.datasets.DatasetBase;
 import org.nmrfx.peaks.InvalidPeakException;
 import org.nmrfx.processor.datasets.Dataset;
 import org.nmrfx.peaks.PeakList;
+import org.nmrfx.peaks.io.PeakReader;
 import org.nmrfx.processor.gui.MainApp;
 import org.nmrfx.processor.gui.PreferencesController;
+import org.nmrfx.processor.gui.controls.ConsoleUtil;
 import org.nmrfx.processor.gui.spectra.WindowIO;
 import org.nmrfx.processor.gui.utils.FxPropertyChangeSupport;
 import org.nmrfx.processor.gui.utils.PeakListUpdater;
@@ -67,6 +75,8 @@ public class GUIProject extends ProjectBase {
     private FxPropertyChangeSupport pcs = new FxPropertyChangeSupport(this);
 
     private static boolean commitActive = false;
+    ProjectLoader loader = null;
+    volatile boolean stagingPeakLists = false;
 
     public GUIProject(String name) {
         super(name);
@@ -144,54 +154,154 @@ public class GUIProject extends ProjectBase {
     public void loadGUIProject(Path projectDir) throws IOException, MoleculeIOException, IllegalStateException {
         ProjectBase currentProject = getActive();
         setActive();
+        loader = new ProjectLoader();
+        try {
+            if (projectDir != null) {
+                loadStages(projectDir, loader);
+            }
+        } catch (IOException | MoleculeIOException | IllegalStateException ex) {
+            throw ex;
+        } catch (InterruptedException iE) {
+            throw new IOException("Interrupted loading project");
+        } catch (Exception ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            System.out.print("loaded project " + projectDir + "\n" + loader.getReport());
+        }
+        this.setProjectDir(projectDir);
+        PreferencesController.saveRecentProjects(projectDir.toString());
+        currentProject.setActive();
+    }
 
-        loadProject(projectDir, "datasets");
+    void loadStages(Path projectDir, ProjectLoader loader) throws Exception {
         FileSystem fileSystem = FileSystems.getDefault();
+        Path datasetDir = fileSystem.getPath(projectDir.toString(), "datasets");
+        if (isReadableDir(datasetDir)) {
+            // only the headers are read here, the data is read when a chart draws it
+            List<Path> datasetFiles = ProjectLoader.listFiles(datasetDir, Pattern.compile("(.+)\\.(nv|ucsf)"));
+            loadDatasetFiles(datasetFiles, loader);
+        }
+        boolean[] readSTAR3 = {false};
+        Path starDir = fileSystem.getPath(projectDir.toString(), "star");
+        if (isReadableDir(starDir)) {
+            loader.stage("star", () -> readSTAR3[0] = loadSTAR3(starDir));
+        }
+        Path peakDir = fileSystem.getPath(projectDir.toString(), "peaks");
+        if (!readSTAR3[0] && isReadableDir(peakDir)) {
+            List<Path> peakFiles = ProjectLoader.listFiles(peakDir, Pattern.compile("(.+)\\.(xpk|xpk2)$"));
+            loadPeakListFiles(peakFiles, loader);
+        }
+        Path molDir = fileSystem.getPath(projectDir.toString(), "molecules");
+        if (!readSTAR3[0] && isReadableDir(molDir)) {
+            loader.stage("molecules", () -> loadMolecules(molDir));
+        }
+        // shift files update the ppm sets of the same atoms so are read in order
+        Path shiftDir = fileSystem.getPath(projectDir.toString(), "shifts");
+        if (!readSTAR3[0] && isReadableDir(shiftDir)) {
+            loader.stage("shifts", () -> loadShiftFiles(shiftDir, false));
+        }
+        Path refShiftDir = fileSystem.getPath(projectDir.toString(), "refshifts");
+        if (isReadableDir(refShiftDir)) {
+            loader.stage("refshifts", () -> loadShiftFiles(refShiftDir, true));
+        }
+        Path windowDir = fileSystem.getPath(projectDir.toString(), "windows");
+        if (isReadableDir(windowDir)) {
+            loader.stage("windows", () -> loadWindows(windowDir));
+        }
+    }
 
-        String[] subDirTypes = {"star", "peaks", "molecules", "shifts", "refshifts", "windows"};
-        if (projectDir != null) {
-            boolean readSTAR3 = false;
-            for (String subDir : subDirTypes) {
-                System.out.println("read " + subDir + " " + readSTAR3);
-                Path subDirectory = fileSystem.getPath(projectDir.toString(), subDir);
-                if (Files.exists(subDirectory) && Files.isDirectory(subDirectory) && Files.isReadable(subDirectory)) {
-                    switch (subDir) {
-                        case "star":
-                            readSTAR3 = loadSTAR3(subDirectory);
-                            break;
-                        case "molecules":
-                            if (!readSTAR3) {
-                                loadMolecules(subDirectory);
-                            }
-                            break;
-                        case "peaks":
-                            if (!readSTAR3) {
-                                System.out.println("readpeaks");
-                                loadProject(projectDir, "peaks");
-                            }
-                            break;
-                        case "shifts":
-                            if (!readSTAR3) {
-                                loadShiftFiles(subDirectory, false);
-                            }
-                            break;
-                        case "refshifts":
-                            loadShiftFiles(subDirectory, true);
-                            break;
-                        case "windows":
-                            loadWindows(subDirectory);
-                            break;
-
-                        default:
-                            throw new IllegalStateException("Invalid subdir type");
-                    }
+    static boolean isReadableDir(Path path) {
+        return Files.exists(path) && Files.isDirectory(path) && Files.isReadable(path);
+    }
+
+    /**
+     * Open dataset files on the loader's worker threads and then add them to
+     * the project on the FX thread, in the order of the files. While the
+     * files are opened the datasets register themselves in private
+     * collections, so the observed ones only change on the FX thread.
+     *
+     * @param files the dataset files, in project order
+     * @param loader the project loader
+     * @throws Exception if the datasets can't be added
+     */
+    void loadDatasetFiles(List<Path> files, ProjectLoader loader) throws Exception {
+        Map<String, DatasetBase> observedMap = datasetMap;
+        List<DatasetBase> observedList = datasets;
+        List<Dataset> openedDatasets;
+        datasetMap = Collections.synchronizedMap(new HashMap<>());
+        datasets = Collections.synchronizedList(new ArrayList<>());
+        try {
+            openedDatasets = loader.parse("datasets", files, path -> new Dataset(path.toString(), path.getFileName().toString(), false, false));
+        } finally {
+            datasetMap = observedMap;
+            datasets = observedList;
+        }
+        runOnFxThread(() -> {
+            for (Dataset dataset : openedDatasets) {
+                if (dataset != null) {
+                    datasetMap.put(dataset.getName(), dataset);
+                    datasets.add(dataset);
                 }
+            }
+        });
+    }
+
+    /**
+     * Read peak list files on the loader's worker threads and then add them
+     * to the project on the FX thread, in the order of the files. While the
+     * files are read, addPeakList only records the new lists in a private map.
+     *
+     * @param files the peak list files, in project order
+     * @param loader the project loader
+     * @throws Exception if the peak lists can't be added
+     */
+    void loadPeakListFiles(List<Path> files, ProjectLoader loader) throws Exception {
+        Map<String, PeakList> observedMap = peakLists;
+        List<PeakList> readLists;
+        peakLists = Collections.synchronizedMap(new HashMap<>());
+        stagingPeakLists = true;
+        try {
+            readLists = loader.parse("peaks", files, this::readPeakListFile);
+        } finally {
+            stagingPeakLists = false;
+            peakLists = observedMap;
+        }
+        runOnFxThread(() -> {
+            for (PeakList peakList : readLists) {
+                if (peakList != null) {
+                    addPeakList(peakList, peakList.getName());
+                }
+            }
+        });
+    }
+
+    static void runOnFxThread(Runnable runnable) throws Exception {
+        FutureTask<Void> future = new FutureTask<>(runnable, null);
+        ConsoleUtil.runOnFxThread(future);
+        future.get();
+    }
 
+    PeakList readPeakListFile(Path path) throws IOException {
+        PeakReader peakReader = new PeakReader();
+        String pathName = path.toString();
+        PeakList peakList = peakReader.readPeakList(pathName);
+        if (peakList != null) {
+            Path mpk2Path = Paths.get(pathName.substring(0, pathName.lastIndexOf('.')) + ".mpk2");
+            if (Files.exists(mpk2Path)) {
+                peakReader.readMPK2(peakList, mpk2Path.toString());
             }
         }
-        this.setProjectDir(projectDir);
-        PreferencesController.saveRecentProjects(projectDir.toString());
-        currentProject.setActive();
+        return peakList;
+    }
+
+    /**
+     * Get the loader used for the most recent load of this project, which
+     * holds the time taken by each stage.
+     *
+     * @return the loader or null if the project wasn't loaded
+     */
+    public ProjectLoader getLoader() {
+        return loader;
     }
 
     private File getSTAR3FileName() {
@@ -466,6 +576,11 @@ public class GUIProject extends ProjectBase {
 
     @Override
     public void addPeakList(PeakList peakList, String name) {
+        if (stagingPeakLists) {
+            // read on a loader thread, added to the project later on the FX thread
+            peakLists.put(name, peakList);
+            return;
+        }
         super.addPeakList(peakList, name);
         PeakListUpdater updater = new PeakListUpdater(peakList);
         System.out.println("update " + name);
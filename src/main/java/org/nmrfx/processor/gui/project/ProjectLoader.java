@@ -0,0 +1,228 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.nmrfx.project.ProjectBase;
+
+/**
+ * Runs the stages of loading a project and records how long each one takes.
+ * Within a stage, files that can be read independently of each other (dataset
+ * headers and peak lists) are read concurrently on a pool of worker threads.
+ * The results are returned in the order of the files, so the caller can add
+ * them to the project in that order whichever file finished first. The stages
+ * themselves still run in order, as later ones depend on earlier ones (shifts
+ * need the molecule, windows need the datasets and peak lists).
+ *
+ * @author brucejohnson
+ */
+public class ProjectLoader {
+
+    public interface FileLoader {
+
+        void load(Path path) throws Exception;
+    }
+
+    public interface FileParser<T> {
+
+        T parse(Path path) throws Exception;
+    }
+
+    public interface StageLoader {
+
+        void load() throws Exception;
+    }
+
+    final int nThreads;
+    final Map<String, Long> stageTimes = new LinkedHashMap<>();
+    final Map<String, Integer> stageFiles = new LinkedHashMap<>();
+    final List<String> errors = new ArrayList<>();
+
+    /**
+     * Create a loader. The number of threads can be set with the
+     * nmrfx.loadThreads system property, and 1 loads everything on the calling
+     * thread.
+     */
+    public ProjectLoader() {
+        int defaultThreads = Math.min(8, Runtime.getRuntime().availableProcessors());
+        nThreads = Math.max(1, Integer.getInteger("nmrfx.loadThreads", defaultThreads));
+    }
+
+    /**
+     * Get the files in a directory whose names match a pattern, in the order
+     * used by the project (by the index at the start of the name).
+     *
+     * @param directory the directory
+     * @param pattern the pattern file names must contain
+     * @return the sorted list of files
+     * @throws IOException if the directory can't be read
+     */
+    public static List<Path> listFiles(Path directory, Pattern pattern) throws IOException {
+        Predicate<String> predicate = pattern.asPredicate();
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> predicate.test(path.getFileName().toString())).
+                    sorted(new ProjectBase.FileComparator()).
+                    collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Run a stage on the calling thread.
+     *
+     * @param name the stage name used in the timing report
+     * @param stage the work of the stage
+     * @throws Exception if the stage fails
+     */
+    public void stage(String name, StageLoader stage) throws Exception {
+        long start = System.nanoTime();
+        try {
+            stage.load();
+        } finally {
+            stageTimes.merge(name, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    /**
+     * Run a stage that loads each of a list of files concurrently. A file that
+     * can't be loaded is reported and the others are still loaded.
+     *
+     * @param name the stage name used in the timing report
+     * @param files the files to load
+     * @param loader loads one file
+     * @throws InterruptedException if interrupted while waiting for the files
+     */
+    public void stage(String name, List<Path> files, FileLoader loader) throws InterruptedException {
+        parse(name, files, path -> {
+            loader.load(path);
+            return null;
+        });
+    }
+
+    /**
+     * Run a stage that parses each of a list of files concurrently and return
+     * the results in the order of the files. A file that can't be parsed is
+     * reported and has a null result.
+     *
+     * @param <T> the type of the results
+     * @param name the stage name used in the timing report
+     * @param files the files to parse
+     * @param parser parses one file
+     * @return the results, with the same size and order as files
+     * @throws InterruptedException if interrupted while waiting for the files
+     */
+    public <T> List<T> parse(String name, List<Path> files, FileParser<T> parser) throws InterruptedException {
+        long start = System.nanoTime();
+        List<T> results = new ArrayList<>();
+        try {
+            int nWorkers = Math.min(nThreads, files.size());
+            if (nWorkers <= 1) {
+                for (Path path : files) {
+                    results.add(parseFile(name, path, parser));
+                }
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(nWorkers, r -> {
+                    Thread thread = new Thread(r, "ProjectLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                try {
+                    List<Future<T>> futures = new ArrayList<>();
+                    for (Path path : files) {
+                        futures.add(executor.submit(() -> parseFile(name, path, parser)));
+                    }
+                    for (Future<T> future : futures) {
+                        try {
+                            results.add(future.get());
+                        } catch (ExecutionException eE) {
+                            addError(name + ": " + eE.getCause().getMessage());
+                            results.add(null);
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        } finally {
+            stageTimes.merge(name, System.nanoTime() - start, Long::sum);
+            stageFiles.merge(name, files.size(), Integer::sum);
+        }
+        return results;
+    }
+
+    <T> T parseFile(String name, Path path, FileParser<T> parser) {
+        try {
+            return parser.parse(path);
+        } catch (Exception ex) {
+            addError(name + " " + path.getFileName() + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    synchronized void addError(String error) {
+        System.out.println("Error loading " + error);
+        errors.add(error);
+    }
+
+    public synchronized List<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * Get the time taken by each stage.
+     *
+     * @return map from stage name to time in milliseconds
+     */
+    public Map<String, Double> getStageTimes() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        stageTimes.forEach((name, time) -> result.put(name, time / 1.0e6));
+        return result;
+    }
+
+    public String getReport() {
+        StringBuilder sBuilder = new StringBuilder();
+        double total = 0.0;
+        for (Map.Entry<String, Double> entry : getStageTimes().entrySet()) {
+            String name = entry.getKey();
+            sBuilder.append(String.format("%-10s %8.1f ms", name, entry.getValue()));
+            if (stageFiles.containsKey(name)) {
+                sBuilder.append(String.format(" %5d files", stageFiles.get(name)));
+            }
+            sBuilder.append('\n');
+            total += entry.getValue();
+        }
+        sBuilder.append(String.format("%-10s %8.1f ms (%d threads)%n", "total", total, nThreads));
+        return sBuilder.toString();
+    }
+}
@@ -17,7 +17,13 @@
  */
 package org.nmrfx.processor.gui.spectra;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javafx.animation.AnimationTimer;
 import javafx.scene.shape.Line;
 import org.nmrfx.datasets.DatasetBase;
 import org.nmrfx.processor.datasets.Dataset;
@@ -127,13 +133,81 @@ public class CrossHairs {
                 statusBar.setCrossTextRange(iCross, jOrient, axis.getLowerBound(), axis.getUpperBound());
             }
         }
-        chart.drawSlices();
+        drawSlices();
+    }
+
+    /**
+     * Crosshair moves in one chart are propagated to the other charts through
+     * a queue that is emptied once per pulse (frame) of the FX scene graph.
+     * Only the latest position for each crosshair and dimension is kept, so
+     * however many mouse events arrive between two frames each chart redraws
+     * its crosshairs, and reads and draws its slices, at most once per frame.
+     * Slices are only redrawn for charts where they are shown and where the
+     * crosshair positions have changed since they were last drawn.
+     */
+    static class SyncRequest {
+
+        final int iCross;
+        final String dimLabel;
+        final double value;
+
+        SyncRequest(int iCross, String dimLabel, double value) {
+            this.iCross = iCross;
+            this.dimLabel = dimLabel;
+            this.value = value;
+        }
+    }
+
+    static final Map<CrossHairs, Map<String, SyncRequest>> PENDING_SYNCS = new LinkedHashMap<>();
+    static final Set<CrossHairs> PENDING_SLICES = new LinkedHashSet<>();
+    static AnimationTimer syncTimer = null;
+
+    final double[][] slicePositions = {{Double.NaN, Double.NaN}, {Double.NaN, Double.NaN}};
+
+    private static void requestPulse() {
+        if (syncTimer == null) {
+            syncTimer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    stop();
+                    flushSyncs();
+                }
+            };
+        }
+        syncTimer.start();
+    }
+
+    /**
+     * Apply all the queued crosshair moves now, rather than waiting for the
+     * next pulse.
+     */
+    public static void flushSyncs() {
+        List<Map.Entry<CrossHairs, Map<String, SyncRequest>>> syncs = new ArrayList<>(PENDING_SYNCS.entrySet());
+        List<CrossHairs> sliceCharts = new ArrayList<>(PENDING_SLICES);
+        PENDING_SYNCS.clear();
+        PENDING_SLICES.clear();
+        for (Map.Entry<CrossHairs, Map<String, SyncRequest>> entry : syncs) {
+            CrossHairs crossHairs = entry.getKey();
+            boolean moved = false;
+            for (SyncRequest request : entry.getValue().values()) {
+                moved |= crossHairs.applySync(request.iCross, request.dimLabel, request.value);
+            }
+            if (moved && !sliceCharts.contains(crossHairs)) {
+                sliceCharts.add(crossHairs);
+            }
+        }
+        for (CrossHairs crossHairs : sliceCharts) {
+            crossHairs.drawSlicesIfMoved();
+        }
     }
 
     private static void updateAllCharts(PolyChart source, int iCross, int iOrient, double position, String dimLabel) {
+        String key = iCross + " " + dimLabel;
         PolyChart.CHARTS.stream().filter((c) -> (c != source)).forEach((c) -> {
-            c.getCrossHairs().syncCrosshair(iCross, iOrient, dimLabel, position);
+            PENDING_SYNCS.computeIfAbsent(c.getCrossHairs(), k -> new LinkedHashMap<>()).
+                    put(key, new SyncRequest(iCross, dimLabel, position));
         });
+        requestPulse();
     }
 
     public void moveCrosshair(int iCross, int iOrient, double value) {
@@ -149,14 +223,29 @@ public class CrossHairs {
         String label;
         int axisDim = iOrient == VERTICAL ? 0 : 1;
         label = dataAttr.getLabel(axisDim);
+        PENDING_SLICES.add(this);
         updateAllCharts(chart, iCross, iOrient, aValue, label);
-        chart.drawSlices();
     }
 
+    /**
+     * Queue a move of a crosshair of this chart to the position of a crosshair
+     * in another chart. The move is applied at the next pulse.
+     *
+     * @param iCross the crosshair (0 or 1)
+     * @param iOrient the orientation of the crosshair in the other chart
+     * @param dimLabel the label of the dimension the crosshair is on
+     * @param value the position in ppm
+     */
     public void syncCrosshair(int iCross, int iOrient, String dimLabel, double value) {
+        PENDING_SYNCS.computeIfAbsent(this, k -> new LinkedHashMap<>()).
+                put(iCross + " " + dimLabel, new SyncRequest(iCross, dimLabel, value));
+        requestPulse();
+    }
+
+    boolean applySync(int iCross, String dimLabel, double value) {
         List<DatasetAttributes> dataAttrs = chart.getDatasetAttributes();
         if (dataAttrs.isEmpty()) {
-            return;
+            return false;
         }
         DatasetAttributes dataAttr = dataAttrs.get(0);
         int jOrient = -1;
@@ -172,10 +261,34 @@ public class CrossHairs {
         if (jOrient >= 0) {
             crossHairPositions[iCross][jOrient] = value;
             drawCrossHair(iCross, jOrient);
-            if (iCross == 0) {
-                chart.drawSlices();
+            return true;
+        }
+        return false;
+    }
+
+    void drawSlicesIfMoved() {
+        if (!chart.hasVisibleSlices()) {
+            return;
+        }
+        boolean moved = false;
+        for (int iCross = 0; iCross < 2; iCross++) {
+            for (int jOrient = 0; jOrient < 2; jOrient++) {
+                if (Double.compare(slicePositions[iCross][jOrient], crossHairPositions[iCross][jOrient]) != 0) {
+                    moved = true;
+                }
             }
         }
+        if (moved) {
+            drawSlices();
+        }
+    }
+
+    void drawSlices() {
+        for (int iCross = 0; iCross < 2; iCross++) {
+            slicePositions[iCross][0] = crossHairPositions[iCross][0];
+            slicePositions[iCross][1] = crossHairPositions[iCross][1];
+        }
+        chart.drawSlices();
     }
 
     public boolean isCrossHairInRange(int iCross, int iOrient) {
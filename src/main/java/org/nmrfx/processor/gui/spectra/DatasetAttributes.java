@@ -953,6 +953,24 @@ public class DatasetAttributes extends DataGenerator implements Cloneable {
     }
 
     public boolean getSlice(Vec specVec, int iDim, double ppmx, double ppmy) throws IOException {
+        return getSlice(specVec, iDim, ppmx, ppmy, pt, dim);
+    }
+
+    /**
+     * Read a slice using given point limits and dimension order instead of
+     * the current ones, so that a slice can be read off the FX thread from a
+     * copy of them (see {@link #copyPt}) while the chart changes them.
+     *
+     * @param specVec the vector to read into
+     * @param iDim the dimension of the slice
+     * @param ppmx the x position of the slice
+     * @param ppmy the y position of the slice
+     * @param pt the point limits of each dimension
+     * @param dim the dimension order
+     * @return true if the slice was read
+     * @throws IOException if the dataset can't be read
+     */
+    public boolean getSlice(Vec specVec, int iDim, double ppmx, double ppmy, int[][] pt, int[] dim) throws IOException {
         int[][] ptC = new int[pt.length][2];
         int[] dimC = new int[pt.length];
         for (int i = 0; i < pt.length; i++) {
@@ -988,6 +1006,19 @@ public class DatasetAttributes extends DataGenerator implements Cloneable {
         return true;
     }
 
+    /**
+     * Get a copy of the point limits of each dimension.
+     *
+     * @return the copy
+     */
+    public int[][] copyPt() {
+        int[][] ptC = new int[pt.length][];
+        for (int i = 0; i < pt.length; i++) {
+            ptC[i] = pt[i].clone();
+        }
+        return ptC;
+    }
+
     public void rearrangeDim(int[] dim, int[][] pt) {
         int iDim = 0;
         for (int i = 0; i < pt.length; i++) {
@@ -1137,6 +1168,13 @@ public class DatasetAttributes extends DataGenerator implements Cloneable {
         specVec.resize(dimSize, false);
         ptC[0][0] = pt1;
         ptC[0][1] = pt2;
+        double[] sums = IntegralCache.getSums(theFile, ptC, dimC);
+        if (sums != null) {
+            double firstIntensity = offsets != null ? offsets[1] : 0.0;
+            double lastIntensity = offsets != null ? offsets[0] : 0.0;
+            IntegralCache.fillIntegral(sums, pt1, pt2, firstIntensity, lastIntensity, specVec);
+            return true;
+        }
         if (theFile.getVec() == null) {
             theFile.readVectorFromDatasetFile(ptC, dimC, specVec);
         } else {
@@ -1501,12 +1539,25 @@ public class DatasetAttributes extends DataGenerator implements Cloneable {
 //        for (int i=0;i<dim.length;i++) {
 //            System.out.println(i + " " + dim[i] + " " + apt[i][1] + " " + apt[i][0]);
 //        }
-        float maxValue = theFile.readMatrix(theFile, apt, dim, matrix);
+        float maxValue = DatasetBlockCache.readMatrix(theFile, apt, dim, matrix);
         extremes.put(chunkLabelStr + iChunk, new Float(maxValue));
 
         return (matrix);
     }
 
+    /**
+     * Start reading the planes following the current plane into the block
+     * cache, so stepping through the planes in that direction is fast.
+     *
+     * @param axis the axis along which the plane is moving
+     * @param direction the direction of travel, positive or negative
+     */
+    public void prefetchPlanes(int axis, int direction) {
+        if ((pt != null) && drawList.isEmpty()) {
+            PlanePrefetcher.prefetch(theFile, dim, pt, axis, direction);
+        }
+    }
+
     public String getLabel(int iDim) {
         String label = "";
         if (iDim < dim.length) {
@@ -0,0 +1,279 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.nmrfx.processor.datasets.Dataset;
+
+/**
+ * A process wide cache of the blocks of data read from dataset files, shared
+ * by all the charts, so that a dataset shown in several charts (overlays,
+ * grids and strips) has each block read from the file once. A block is the
+ * region of the dataset read in one call (one contouring chunk, or one chunk
+ * of a plane of an nD dataset), identified by the dataset file, the dimension
+ * order, the point limits of the region and the scale of the dataset, as the
+ * values read depend on the scale.
+ * <p>
+ * The least recently used blocks are dropped when the cache holds more than
+ * its limit (set in MB with the nmrfx.blockCacheMB property). Blocks are
+ * ignored once the dataset file has been modified since they were read.
+ * Writes made in this process (such as phasing) may not change the
+ * modification time, so code that changes the values of a dataset, or closes
+ * it, must drop its blocks with {@link #invalidate}. Only datasets stored in files, with at least two
+ * dimensions, are cached.
+ *
+ * @author brucejohnson
+ */
+public class DatasetBlockCache {
+
+    static final long MAX_BYTES = Long.getLong("nmrfx.blockCacheMB", 256) * 1024 * 1024;
+
+    static final Map<Key, Entry> CACHE = new LinkedHashMap<>(256, 0.75f, true);
+    static long cacheBytes = 0;
+    static final AtomicLong HITS = new AtomicLong();
+    static final AtomicLong MISSES = new AtomicLong();
+    static final AtomicLong EVICTIONS = new AtomicLong();
+    static final AtomicLong PREFETCHED = new AtomicLong();
+
+    static class Key {
+
+        final String fileName;
+        final int[] dim;
+        final int[] region;
+        final double scale;
+        final int hash;
+
+        Key(String fileName, int[] dim, int[][] apt, double scale) {
+            this.fileName = fileName;
+            this.dim = dim.clone();
+            this.scale = scale;
+            region = new int[apt.length * 2];
+            for (int i = 0; i < apt.length; i++) {
+                region[i * 2] = apt[i][0];
+                region[i * 2 + 1] = apt[i][1];
+            }
+            hash = 31 * (31 * (31 * fileName.hashCode() + Arrays.hashCode(this.dim)) + Arrays.hashCode(region)) + Double.hashCode(scale);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return fileName.equals(key.fileName) && Arrays.equals(dim, key.dim) && Arrays.equals(region, key.region)
+                    && (Double.compare(scale, key.scale) == 0);
+        }
+    }
+
+    static class Entry {
+
+        final float[][] matrix;
+        final float maxValue;
+        final long modified;
+        final long bytes;
+
+        Entry(float[][] matrix, float maxValue, long modified) {
+            this.matrix = matrix;
+            this.maxValue = maxValue;
+            this.modified = modified;
+            bytes = 4L * matrix.length * (matrix.length > 0 ? matrix[0].length : 0) + 16L * matrix.length;
+        }
+    }
+
+    static boolean isCacheable(Dataset dataset) {
+        return (dataset != null) && (dataset.getNDim() > 1) && (dataset.getFile() != null);
+    }
+
+    static long getModified(File file) {
+        return file == null ? -1 : file.lastModified();
+    }
+
+    static float[][] newMatrix(int[][] apt) {
+        return new float[apt[1][1] - apt[1][0] + 1][apt[0][1] - apt[0][0] + 1];
+    }
+
+    /**
+     * Read a block of a dataset, from the cache if it's there.
+     *
+     * @param dataset the dataset
+     * @param apt the point limits of the block
+     * @param dim the dimension order
+     * @param matrix the matrix to read into, which must be the size of the
+     * block
+     * @return the maximum absolute value in the block
+     * @throws IOException if the block can't be read
+     */
+    public static float readMatrix(Dataset dataset, int[][] apt, int[] dim, float[][] matrix) throws IOException {
+        if (!isCacheable(dataset)) {
+            return dataset.readMatrix(dataset, apt, dim, matrix);
+        }
+        File file = dataset.getFile();
+        Key key = new Key(file.getPath(), dim, apt, dataset.getScale());
+        long modified = getModified(file);
+        Entry entry = get(key, modified);
+        if ((entry != null) && (entry.matrix.length == matrix.length)) {
+            HITS.incrementAndGet();
+            for (int i = 0; i < matrix.length; i++) {
+                System.arraycopy(entry.matrix[i], 0, matrix[i], 0, matrix[i].length);
+            }
+            return entry.maxValue;
+        }
+        MISSES.incrementAndGet();
+        float maxValue = dataset.readMatrix(dataset, apt, dim, matrix);
+        float[][] copy = new float[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        put(key, new Entry(copy, maxValue, modified));
+        return maxValue;
+    }
+
+    /**
+     * Read a block into the cache if it isn't already there.
+     *
+     * @param dataset the dataset
+     * @param apt the point limits of the block
+     * @param dim the dimension order
+     * @return true if the block was read
+     * @throws IOException if the block can't be read
+     */
+    public static boolean prefetch(Dataset dataset, int[][] apt, int[] dim) throws IOException {
+        if (!isCacheable(dataset)) {
+            return false;
+        }
+        File file = dataset.getFile();
+        Key key = new Key(file.getPath(), dim, apt, dataset.getScale());
+        long modified = getModified(file);
+        if (get(key, modified) != null) {
+            return false;
+        }
+        float[][] matrix = newMatrix(apt);
+        float maxValue = dataset.readMatrix(dataset, apt, dim, matrix);
+        put(key, new Entry(matrix, maxValue, modified));
+        PREFETCHED.incrementAndGet();
+        return true;
+    }
+
+    static Entry get(Key key, long modified) {
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(key);
+            if ((entry != null) && (entry.modified != modified)) {
+                CACHE.remove(key);
+                cacheBytes -= entry.bytes;
+                entry = null;
+            }
+            return entry;
+        }
+    }
+
+    static void put(Key key, Entry entry) {
+        if (entry.bytes > MAX_BYTES / 4) {
+            return;
+        }
+        synchronized (CACHE) {
+            Entry old = CACHE.put(key, entry);
+            if (old != null) {
+                cacheBytes -= old.bytes;
+            }
+            cacheBytes += entry.bytes;
+            Iterator<Entry> iter = CACHE.values().iterator();
+            while ((cacheBytes > MAX_BYTES) && iter.hasNext()) {
+                Entry oldest = iter.next();
+                cacheBytes -= oldest.bytes;
+                iter.remove();
+                EVICTIONS.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop the cached blocks of a dataset, for example after its values have
+     * been written or the dataset has been closed.
+     *
+     * @param dataset the dataset
+     */
+    public static void invalidate(Dataset dataset) {
+        if ((dataset != null) && (dataset.getFile() != null)) {
+            invalidate(dataset.getFile());
+        }
+    }
+
+    /**
+     * Drop the cached blocks read from a file.
+     *
+     * @param file the dataset file
+     */
+    public static void invalidate(File file) {
+        String fileName = file.getPath();
+        synchronized (CACHE) {
+            Iterator<Map.Entry<Key, Entry>> iter = CACHE.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Key, Entry> mapEntry = iter.next();
+                if (mapEntry.getKey().fileName.equals(fileName)) {
+                    cacheBytes -= mapEntry.getValue().bytes;
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    public static double getHitRatio() {
+        long hits = HITS.get();
+        long total = hits + MISSES.get();
+        return total > 0 ? (double) hits / total : 0.0;
+    }
+
+    /**
+     * Get the statistics of the cache since the program started.
+     *
+     * @return map of statistic name to value
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (CACHE) {
+            stats.put("blocks", CACHE.size());
+            stats.put("bytes", cacheBytes);
+        }
+        stats.put("maxBytes", MAX_BYTES);
+        stats.put("hits", HITS.get());
+        stats.put("misses", MISSES.get());
+        stats.put("hitRatio", getHitRatio());
+        stats.put("evictions", EVICTIONS.get());
+        stats.put("prefetched", PREFETCHED.get());
+        return stats;
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.gui.PreferencesController;
+
+/**
+ * A compact summary of the intensities of a dataset, used to answer auto
+ * scaling, percentile and noise queries without reading the dataset. For each
+ * plane (each combination of indices of the dimensions after the first two) a
+ * histogram of the absolute values is kept. Bins are logarithmic, 16 per
+ * factor of two, so percentiles are accurate to a few percent.
+ * <p>
+ * Statistics are computed once in the background and, if turned on with the
+ * SaveDatasetStats preference (off by default), saved in a file next to the
+ * dataset (the dataset file name with ".stats" appended), so reopening the
+ * dataset only requires reading that small file. The saved file records the length and
+ * modification time of the dataset file and is ignored if the dataset has
+ * since been rewritten (for example by reprocessing).
+ * <p>
+ * Changes made to a dataset in this process (such as phasing) may not change
+ * the file, and datasets held in memory have no file to check, so code that
+ * changes the values of a dataset (or closes it) must call
+ * {@link #invalidate}. That also deletes the saved file, and discards the
+ * result of any computation that was running when it was called.
+ *
+ * @author brucejohnson
+ */
+public class DatasetStatistics {
+
+    static final int MAGIC = 0x4e465853;
+    static final int VERSION = 1;
+    static final String SUFFIX = ".stats";
+    // a bin is the float exponent plus the top 4 bits of the mantissa
+    static final int MANTISSA_SHIFT = 19;
+    static final int STRIP_ROWS = 64;
+    static final double MAD_TO_SDEV = 1.0 / 0.6745;
+
+    static final Map<Dataset, DatasetStatistics> STATS = new WeakHashMap<>();
+    static final Set<Dataset> PENDING = Collections.newSetFromMap(new WeakHashMap<>());
+    // bumped by invalidate, so computations started before it are discarded
+    static final Map<Dataset, Integer> GENERATIONS = new WeakHashMap<>();
+    static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "DatasetStatistics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final int[] sizes;
+    final int nPlanes;
+    final long fileLength;
+    final long fileModified;
+    // for each plane, the first occupied bin and the counts from there on
+    final int[] firstBin;
+    final long[][] counts;
+
+    private DatasetStatistics(int[] sizes, long fileLength, long fileModified, int[] firstBin, long[][] counts) {
+        this.sizes = sizes;
+        this.fileLength = fileLength;
+        this.fileModified = fileModified;
+        this.firstBin = firstBin;
+        this.counts = counts;
+        this.nPlanes = counts.length;
+    }
+
+    /**
+     * Get the statistics for a dataset if they are available. If they aren't,
+     * their computation (or loading from the saved file) is started in the
+     * background and an empty result is returned.
+     *
+     * @param dataset the dataset
+     * @return the statistics, if available
+     */
+    public static Optional<DatasetStatistics> get(Dataset dataset) {
+        DatasetStatistics stats;
+        synchronized (STATS) {
+            stats = STATS.get(dataset);
+        }
+        if ((stats != null) && !stats.isValidFor(dataset)) {
+            stats = null;
+        }
+        if (stats == null) {
+            request(dataset, null);
+        }
+        return Optional.ofNullable(stats);
+    }
+
+    /**
+     * Start computing (or loading) the statistics of a dataset in the
+     * background if they aren't already available or being computed.
+     *
+     * @param dataset the dataset
+     * @param onReady called on the FX thread when the statistics become
+     * available (may be null)
+     */
+    public static void request(Dataset dataset, Consumer<DatasetStatistics> onReady) {
+        if ((dataset == null) || (dataset.getNDim() < 2)) {
+            return;
+        }
+        boolean saveFile = PreferencesController.getSaveDatasetStats();
+        int generation;
+        synchronized (STATS) {
+            DatasetStatistics current = STATS.get(dataset);
+            if ((current != null) && current.isValidFor(dataset)) {
+                return;
+            }
+            STATS.remove(dataset);
+            if (!PENDING.add(dataset)) {
+                return;
+            }
+            generation = GENERATIONS.getOrDefault(dataset, 0);
+        }
+        EXECUTOR.submit(() -> {
+            DatasetStatistics stats = null;
+            boolean computed = false;
+            try {
+                stats = load(dataset);
+                if (stats == null) {
+                    stats = compute(dataset);
+                    computed = true;
+                }
+            } catch (Exception e) {
+                System.out.println("Can't get statistics for " + dataset.getName() + " " + e.getMessage());
+            }
+            synchronized (STATS) {
+                if (GENERATIONS.getOrDefault(dataset, 0) != generation) {
+                    // invalidated while running, a newer request may be pending
+                    return;
+                }
+                PENDING.remove(dataset);
+                if (stats != null) {
+                    STATS.put(dataset, stats);
+                    if (computed && saveFile) {
+                        save(dataset, stats);
+                    }
+                }
+            }
+            if ((stats != null) && (onReady != null)) {
+                DatasetStatistics readyStats = stats;
+                Platform.runLater(() -> onReady.accept(readyStats));
+            }
+        });
+    }
+
+    /**
+     * Discard the statistics of a dataset, including the saved file, after
+     * its values have been changed.
+     *
+     * @param dataset the dataset
+     */
+    public static void invalidate(Dataset dataset) {
+        synchronized (STATS) {
+            discard(dataset);
+        }
+    }
+
+    /**
+     * Forget the statistics of a dataset that is being closed, keeping the
+     * saved file (if any) for when it is reopened.
+     *
+     * @param dataset the dataset
+     */
+    public static void remove(Dataset dataset) {
+        synchronized (STATS) {
+            forget(dataset);
+        }
+    }
+
+    // must be called holding the STATS lock
+    static void forget(Dataset dataset) {
+        STATS.remove(dataset);
+        PENDING.remove(dataset);
+        GENERATIONS.merge(dataset, 1, Integer::sum);
+    }
+
+    // must be called holding the STATS lock
+    static void discard(Dataset dataset) {
+        forget(dataset);
+        File statsFile = getStatsFile(dataset);
+        if ((statsFile != null) && statsFile.exists() && !statsFile.delete()) {
+            System.out.println("Can't delete statistics " + statsFile);
+        }
+    }
+
+    /**
+     * Discard the statistics of all datasets using a file, for example after
+     * the file has been rewritten.
+     *
+     * @param file the dataset file
+     */
+    public static void invalidate(File file) {
+        String fileName = file.getPath();
+        synchronized (STATS) {
+            Set<Dataset> datasets = new HashSet<>(STATS.keySet());
+            datasets.addAll(PENDING);
+            for (Dataset dataset : datasets) {
+                if ((dataset.getFile() != null) && dataset.getFile().getPath().equals(fileName)) {
+                    discard(dataset);
+                }
+            }
+            File statsFile = new File(fileName + SUFFIX);
+            if (statsFile.exists() && !statsFile.delete()) {
+                System.out.println("Can't delete statistics " + statsFile);
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (STATS) {
+            Set<Dataset> datasets = new HashSet<>(STATS.keySet());
+            datasets.addAll(PENDING);
+            datasets.forEach(DatasetStatistics::discard);
+        }
+    }
+
+    static File getStatsFile(Dataset dataset) {
+        File file = dataset.getFile();
+        return file == null ? null : new File(file.getPath() + SUFFIX);
+    }
+
+    static int[] getSizes(Dataset dataset) {
+        int[] sizes = new int[dataset.getNDim()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = dataset.getSize(i);
+        }
+        return sizes;
+    }
+
+    /**
+     * Check the statistics against the dataset file. Datasets without a file
+     * can't be checked, so their statistics are kept until invalidated.
+     */
+    boolean isValidFor(Dataset dataset) {
+        File file = dataset.getFile();
+        long length = file == null ? -1 : file.length();
+        long modified = file == null ? -1 : file.lastModified();
+        return (length == fileLength) && (modified == fileModified)
+                && Arrays.equals(sizes, getSizes(dataset));
+    }
+
+    static int getBin(float value) {
+        return (Float.floatToRawIntBits(value) & 0x7fffffff) >>> MANTISSA_SHIFT;
+    }
+
+    static double getBinLow(int bin) {
+        return Float.intBitsToFloat(bin << MANTISSA_SHIFT);
+    }
+
+    static DatasetStatistics compute(Dataset dataset) throws IOException {
+        int[] sizes = getSizes(dataset);
+        int nDim = sizes.length;
+        File file = dataset.getFile();
+        long fileLength = file == null ? -1 : file.length();
+        long fileModified = file == null ? -1 : file.lastModified();
+        int nPlanes = 1;
+        for (int i = 2; i < nDim; i++) {
+            nPlanes *= sizes[i];
+        }
+        int[] dim = new int[nDim];
+        for (int i = 0; i < nDim; i++) {
+            dim[i] = i;
+        }
+        int[] firstBin = new int[nPlanes];
+        long[][] counts = new long[nPlanes][];
+        long[] histogram = new long[getBin(Float.MAX_VALUE) + 1];
+        int[][] apt = new int[nDim][2];
+        apt[0][1] = sizes[0] - 1;
+        float[][] matrix = null;
+        for (int plane = 0; plane < nPlanes; plane++) {
+            int index = plane;
+            for (int i = 2; i < nDim; i++) {
+                apt[i][0] = index % sizes[i];
+                apt[i][1] = apt[i][0];
+                index /= sizes[i];
+            }
+            Arrays.fill(histogram, 0);
+            for (int row = 0; row < sizes[1]; row += STRIP_ROWS) {
+                apt[1][0] = row;
+                apt[1][1] = Math.min(sizes[1], row + STRIP_ROWS) - 1;
+                int nRows = apt[1][1] - apt[1][0] + 1;
+                if ((matrix == null) || (matrix.length != nRows)) {
+                    matrix = new float[nRows][sizes[0]];
+                }
+                dataset.readMatrix(dataset, apt, dim, matrix);
+                for (float[] values : matrix) {
+                    for (float value : values) {
+                        // zeros (from zero filling or blank regions) and NaN are not counted
+                        if ((value != 0.0f) && !Float.isNaN(value)) {
+                            histogram[getBin(value)]++;
+                        }
+                    }
+                }
+            }
+            int first = 0;
+            while ((first < histogram.length) && (histogram[first] == 0)) {
+                first++;
+            }
+            int last = histogram.length - 1;
+            while ((last >= first) && (histogram[last] == 0)) {
+                last--;
+            }
+            firstBin[plane] = first;
+            counts[plane] = last < first ? new long[0] : Arrays.copyOfRange(histogram, first, last + 1);
+        }
+        return new DatasetStatistics(sizes, fileLength, fileModified, firstBin, counts);
+    }
+
+    static DatasetStatistics load(Dataset dataset) {
+        File statsFile = getStatsFile(dataset);
+        if ((statsFile == null) || !statsFile.canRead()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statsFile.toPath())))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                return null;
+            }
+            long fileLength = in.readLong();
+            long fileModified = in.readLong();
+            int[] sizes = new int[in.readInt()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = in.readInt();
+            }
+            int nPlanes = in.readInt();
+            int[] firstBin = new int[nPlanes];
+            long[][] counts = new long[nPlanes][];
+            for (int plane = 0; plane < nPlanes; plane++) {
+                firstBin[plane] = in.readInt();
+                counts[plane] = new long[in.readInt()];
+                for (int i = 0; i < counts[plane].length; i++) {
+                    counts[plane][i] = in.readLong();
+                }
+            }
+            DatasetStatistics stats = new DatasetStatistics(sizes, fileLength, fileModified, firstBin, counts);
+            return stats.isValidFor(dataset) ? stats : null;
+        } catch (IOException ioE) {
+            return null;
+        }
+    }
+
+    static void save(Dataset dataset, DatasetStatistics stats) {
+        File statsFile = getStatsFile(dataset);
+        if (statsFile == null) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(statsFile.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stats.fileLength);
+            out.writeLong(stats.fileModified);
+            out.writeInt(stats.sizes.length);
+            for (int size : stats.sizes) {
+                out.writeInt(size);
+            }
+            out.writeInt(stats.nPlanes);
+            for (int plane = 0; plane < stats.nPlanes; plane++) {
+                out.writeInt(stats.firstBin[plane]);
+                out.writeInt(stats.counts[plane].length);
+                for (long count : stats.counts[plane]) {
+                    out.writeLong(count);
+                }
+            }
+        } catch (IOException ioE) {
+            // the dataset directory may not be writable, the statistics are still used from memory
+            System.out.println("Can't save statistics " + statsFile + " " + ioE.getMessage());
+        }
+    }
+
+    /**
+     * Merge the histograms of the planes within the specified point ranges.
+     *
+     * @param planeRanges the point range of each dataset dimension, only the
+     * dimensions after the first two are used. If null, all planes are
+     * merged.
+     * @return the merged histogram, indexed by bin
+     */
+    long[] merge(int[][] planeRanges) {
+        long[] histogram = new long[getBin(Float.MAX_VALUE) + 1];
+        for (int plane = 0; plane < nPlanes; plane++) {
+            if ((planeRanges == null) || inRanges(plane, planeRanges)) {
+                long[] planeCounts = counts[plane];
+                int first = firstBin[plane];
+                for (int i = 0; i < planeCounts.length; i++) {
+                    histogram[first + i] += planeCounts[i];
+                }
+            }
+        }
+        return histogram;
+    }
+
+    boolean inRanges(int plane, int[][] planeRanges) {
+        int index = plane;
+        for (int i = 2; i < sizes.length; i++) {
+            int pt = index % sizes[i];
+            index /= sizes[i];
+            if ((i < planeRanges.length) && ((pt < planeRanges[i][0]) || (pt > planeRanges[i][1]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static double quantile(long[] histogram, double fraction) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        double target = fraction * total;
+        long sum = 0;
+        for (int bin = 0; bin < histogram.length; bin++) {
+            if (histogram[bin] > 0) {
+                if (sum + histogram[bin] >= target) {
+                    double f = (target - sum) / histogram[bin];
+                    double low = getBinLow(bin);
+                    double high = getBinLow(bin + 1);
+                    return low + f * (high - low);
+                }
+                sum += histogram[bin];
+            }
+        }
+        return getBinLow(histogram.length - 1);
+    }
+
+    /**
+     * Get a percentile of the absolute (non-zero) values in the specified
+     * planes.
+     *
+     * @param p the percentile (0 to 100)
+     * @param planeRanges the point range of each dataset dimension (only the
+     * dimensions after the first two are used), or null for all planes
+     * @return the percentile
+     */
+    public double getPercentile(double p, int[][] planeRanges) {
+        return quantile(merge(planeRanges), p / 100.0);
+    }
+
+    /**
+     * Estimate the noise level (standard deviation) of the specified planes
+     * from the median absolute value, which is dominated by noise for
+     * typical multidimensional spectra.
+     *
+     * @param planeRanges the point range of each dataset dimension (only the
+     * dimensions after the first two are used), or null for all planes
+     * @return the estimated noise level
+     */
+    public double getNoiseLevel(int[][] planeRanges) {
+        return quantile(merge(planeRanges), 0.5) * MAD_TO_SDEV;
+    }
+
+    public int getNPlanes() {
+        return nPlanes;
+    }
+}
@@ -37,11 +37,8 @@ import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 import javafx.scene.shape.Path;
 import javafx.scene.shape.Rectangle;
-import javafx.scene.shape.Shape;
 import javafx.scene.text.Font;
-import javafx.scene.text.Text;
 import javafx.scene.text.TextAlignment;
-import javafx.scene.transform.Affine;
 import org.apache.commons.collections4.list.TreeList;
 import org.nmrfx.graphicsio.GraphicsContextInterface;
 import org.nmrfx.graphicsio.GraphicsContextProxy;
@@ -1054,7 +1051,8 @@ public class DrawPeaks {
         }
         double yText = y1 - deltaY;
         g2.setTextAlign(TextAlignment.CENTER);
-        Bounds bounds = measureText(label, g2.getFont(), 0, x1, yText);
+        Bounds labelBounds = TextMetricsCache.getLocalBounds(label, g2.getFont());
+        Bounds bounds = measureText(labelBounds, 0, x1, yText);
         int nTries = 10;
         boolean noOverlap = true;
         if (!lastTextBoxes.isEmpty()) {
@@ -1068,7 +1066,7 @@ public class DrawPeaks {
                         break;
                     }
 
-                    bounds = measureText(label, g2.getFont(), 0, x1, yText);
+                    bounds = measureText(labelBounds, 0, x1, yText);
                     if (lastTextBox.intersects(bounds)) {
                         ok = false;
                     }
@@ -1339,6 +1337,54 @@ public class DrawPeaks {
         }
     }
 
+    /**
+     * Get the screen region covered when drawing a 2D peak: its box, cross or
+     * ellipse, the label placed at its corner and a small border for the
+     * stroke and selection fill.
+     *
+     * @param peakAttr the attributes of the peak list
+     * @param peak the peak
+     * @param dim the peak dimensions displayed on the x and y axes
+     * @param font the font used for labels
+     * @return the footprint of the peak
+     */
+    public PeakOverlayTracker.PeakFootprint get2DPeakFootprint(PeakListAttributes peakAttr, Peak peak, int[] dim, Font font) {
+        double[] ctr = new double[2];
+        double[] bou = new double[2];
+        double[] wid = new double[2];
+        for (int i = 0; i < 2; i++) {
+            ctr[i] = peakAttr.foldShift(i, peak.peakDims[dim[i]].getChemShiftValue());
+            bou[i] = Math.abs(peak.peakDims[dim[i]].getBoundsValue());
+            wid[i] = Math.abs(peak.peakDims[dim[i]].getLineWidth() * 0.68);
+        }
+        double x1 = xAxis.getDisplayPosition(ctr[0] + (bou[0] / 2.0));
+        double x2 = xAxis.getDisplayPosition(ctr[0] - (bou[0] / 2.0));
+        double y1 = yAxis.getDisplayPosition(ctr[1] + (bou[1] / 2.0));
+        double y2 = yAxis.getDisplayPosition(ctr[1] - (bou[1] / 2.0));
+        double xw1 = xAxis.getDisplayPosition(ctr[0] + (wid[0] / 2.0));
+        double xw2 = xAxis.getDisplayPosition(ctr[0] - (wid[0] / 2.0));
+        double yw1 = yAxis.getDisplayPosition(ctr[1] + (wid[1] / 2.0));
+        double yw2 = yAxis.getDisplayPosition(ctr[1] - (wid[1] / 2.0));
+        double minX = Math.min(Math.min(x1, x2), Math.min(xw1, xw2));
+        double maxX = Math.max(Math.max(x1, x2), Math.max(xw1, xw2));
+        double minY = Math.min(Math.min(y1, y2), Math.min(yw1, yw2));
+        double maxY = Math.max(Math.max(y1, y2), Math.max(yw1, yw2));
+        String label = getLabel(peak, peakAttr);
+        if (peakAttr.getLabelType() != LabelTypes.None) {
+            double[] position = peak.getCorner().getPosition(x1, y1, x2, y2);
+            Bounds textBounds = TextMetricsCache.getLocalBounds(label, font);
+            // alignment depends on the corner so allow for the text extending either way
+            minX = Math.min(minX, position[0] - textBounds.getWidth());
+            maxX = Math.max(maxX, position[0] + textBounds.getWidth());
+            minY = Math.min(minY, position[1] - textBounds.getHeight());
+            maxY = Math.max(maxY, position[1] + textBounds.getHeight());
+        }
+        double border = peak2DStroke + 2.0;
+        Bounds bounds = new BoundingBox(minX - border, minY - border,
+                maxX - minX + 2 * border, maxY - minY + 2 * border);
+        return new PeakOverlayTracker.PeakFootprint(bounds, label, peak.getStatus(), peak.getColor());
+    }
+
     public void drawPeakConnection(ConnectPeakAttributes connPeaks, GraphicsContextInterface g2, int[] dim) {
         if (g2 == null) {
             return;
@@ -1536,39 +1582,24 @@ public class DrawPeaks {
     }
 
     public static Bounds measureText(String s, Font font, double angle, double x, double y) {
-        Text text = new Text(s);
-        text.setFont(font);
-        text.setTextAlignment(TextAlignment.CENTER);
-        text.setTextOrigin(VPos.TOP);
-        // GUIUtils.getTextWidth(s, font);
-        Bounds textBounds = text.getBoundsInLocal();
-        Bounds useBounds;
-        if (false) {
-            Rectangle stencil = new Rectangle(
-                    textBounds.getMinX(), textBounds.getMinY(), textBounds.getWidth(), textBounds.getHeight()
-            );
-            Shape intersection = Shape.intersect(text, stencil);
-            useBounds = intersection.getBoundsInLocal();
-        } else {
-            useBounds = textBounds;
-        }
+        Bounds textBounds = TextMetricsCache.getLocalBounds(s, font);
+        return measureText(textBounds, angle, x, y);
+    }
 
-        double xOffset = useBounds.getWidth() / 2.0;
+    static Bounds measureText(Bounds textBounds, double angle, double x, double y) {
+        double xOffset = textBounds.getWidth() / 2.0;
         double yOffset = textBounds.getHeight() - 3;
         Bounds ab;
         if (angle != 0.0) {
-            Affine aT = new Affine();
-            aT.appendTranslation(x, y);
-            aT.appendRotation(angle);
-            xOffset = -useBounds.getHeight() / 2.0;
+            xOffset = -textBounds.getHeight() / 2.0;
             yOffset = 0.0;
-            Bounds trBds = aT.transform(useBounds);
+            Bounds trBds = TextMetricsCache.rotate(textBounds, angle, x, y);
             ab = new BoundingBox(trBds.getMinX() - xOffset, trBds.getMinY() + yOffset, trBds.getWidth(), trBds.getHeight());
         } else {
-            ab = new BoundingBox(x + useBounds.getMinX() - xOffset,
-                    y + useBounds.getMinY() - useBounds.getHeight() + yOffset,
-                    useBounds.getWidth(),
-                    useBounds.getHeight() * 1.2);
+            ab = new BoundingBox(x + textBounds.getMinX() - xOffset,
+                    y + textBounds.getMinY() - textBounds.getHeight() + yOffset,
+                    textBounds.getWidth(),
+                    textBounds.getHeight() * 1.2);
         }
 
         return ab;
@@ -103,7 +103,9 @@ public class DrawSpectrum {
     volatile long jobCount = 0;
     private long startTime = 0;
     private long lastPlotTime = 0;
+    private boolean timeLimited = true;
     Rectangle clipRect = null;
+    final RenderMetrics metrics = new RenderMetrics();
 
     public DrawSpectrum(NMRAxis[] axes, Canvas canvas) {
         this.axes = axes;
@@ -150,6 +152,10 @@ public class DrawSpectrum {
         return lastPlotTime;
     }
 
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+
     public void drawSpectrum(ArrayList<DatasetAttributes> dataGenerators, AXMODE[] axModes,
             boolean pick) {
         cancelled = false;
@@ -208,6 +214,17 @@ public class DrawSpectrum {
         return finished;
     }
 
+    /**
+     * Set whether immediate drawing into a canvas gives up after MAX_TIME so
+     * the drawing can be continued in the background. Offscreen rendering
+     * turns this off so the whole spectrum is always drawn.
+     *
+     * @param state true if drawing is time limited
+     */
+    public void setTimeLimited(boolean state) {
+        timeLimited = state;
+    }
+
     public static float[] getLevels(DatasetAttributes fileData) {
         int nLevels = fileData.getNlvls();
         double clm = fileData.getClm();
@@ -332,6 +349,7 @@ public class DrawSpectrum {
                 try {
                     z = getData(fileData, iChunk, offset, z);
                     if (z != null) {
+                        drawSpectrum.metrics.addChunk(z);
                         double xOff = offset[0];
                         double yOff = offset[1];
 //                        System.out.println("off " + xOff + " " + yOff + " " + 
@@ -355,6 +373,7 @@ public class DrawSpectrum {
                                     try {
                                         DrawObject drawObject = new DrawObject(fileData, contour, drawSpectrum.jobCount);
                                         drawSpectrum.contourQueue.put(drawObject);
+                                        drawSpectrum.metrics.addContour();
                                     } catch (InterruptedException ex) {
                                         done = true;
                                         return;
@@ -489,7 +508,7 @@ public class DrawSpectrum {
             do {
                 long currentTime = System.currentTimeMillis();
 //                System.out.println(fileData.mChunk + " " + (currentTime - startTime));
-                if ((g2I instanceof GraphicsContextProxy) && ((currentTime - startTime) > MAX_TIME)) {
+                if (timeLimited && (g2I instanceof GraphicsContextProxy) && ((currentTime - startTime) > MAX_TIME)) {
                     return false;
 
                 }
@@ -501,6 +520,7 @@ public class DrawSpectrum {
                 try {
                     z = getData(fileData, iChunk, offset, z);
                     if (z != null) {
+                        metrics.addChunk(z);
                         double xOff = offset[0];
                         double yOff = offset[1];
                         int[][] cells = new int[z.length][z[0].length];
@@ -518,6 +538,8 @@ public class DrawSpectrum {
                                 }
                                 if (!contour.marchSquares(sign * level, z, cells)) {
                                     contour.drawSquares(g2I);
+                                    metrics.addContour();
+                                    metrics.addContourDrawn();
                                 } else {
                                     break;
                                 }
@@ -580,9 +602,12 @@ public class DrawSpectrum {
         }
         //g2.save();
         result = 1;
+        long start = System.nanoTime();
         try {
             //  drawSpectrum.clip(g2);
             drawObject.contour.drawSquares(g2);
+            drawSpectrum.metrics.addFxTime(System.nanoTime() - start);
+            drawSpectrum.metrics.addContourDrawn();
         } catch (Exception ex) {
             result = 0;
         } finally {
@@ -0,0 +1,250 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.nmrfx.processor.datasets.Dataset;
+import org.nmrfx.processor.math.Vec;
+
+/**
+ * A process wide cache of the cumulative sums (running integrals) of the rows
+ * of datasets used for drawing integrals. A row is read from the dataset file
+ * once, and the integral curve of any region of it, with the baseline of the
+ * region (a line between its start and end intensities) subtracted, is then
+ * found from differences of the cumulative sum, without reading the file
+ * again. Redrawing the integrals of many regions and rows while zooming or
+ * scrolling then doesn't need any reads.
+ * <p>
+ * Rows are identified by the dataset file, the dimension order, the position
+ * of the row and the scale of the dataset. They are ignored once the file has
+ * been modified since they were read, and all the rows of a file can be
+ * dropped with {@link #invalidate} when the data is changed (for example by
+ * phasing or baseline correction) or the dataset is closed. The least
+ * recently used rows are dropped when the cache holds more than its limit (set
+ * in MB with the nmrfx.integralCacheMB property). Datasets held in memory
+ * (backed by a vector) are not cached.
+ *
+ * @author brucejohnson
+ */
+public class IntegralCache {
+
+    static final long MAX_BYTES = Long.getLong("nmrfx.integralCacheMB", 64) * 1024 * 1024;
+
+    static final Map<String, Entry> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    static long cacheBytes = 0;
+    static final AtomicLong HITS = new AtomicLong();
+    static final AtomicLong MISSES = new AtomicLong();
+
+    static class Entry {
+
+        final String fileName;
+        final double[] sums;
+        final long modified;
+
+        Entry(String fileName, double[] sums, long modified) {
+            this.fileName = fileName;
+            this.sums = sums;
+            this.modified = modified;
+        }
+
+        long getBytes() {
+            return 8L * sums.length + 64;
+        }
+    }
+
+    static boolean isCacheable(Dataset dataset) {
+        return (dataset != null) && (dataset.getVec() == null) && (dataset.getFile() != null);
+    }
+
+    static String getKey(Dataset dataset, int[][] pt, int[] dim) {
+        StringBuilder sBuilder = new StringBuilder();
+        sBuilder.append(dataset.getFile().getPath()).append(' ');
+        sBuilder.append(Arrays.toString(dim)).append(' ');
+        for (int i = 1; i < pt.length; i++) {
+            sBuilder.append(pt[i][0]).append(':').append(pt[i][1]).append(' ');
+        }
+        sBuilder.append(dataset.getScale());
+        return sBuilder.toString();
+    }
+
+    /**
+     * Get the cumulative sums of a row of a dataset, reading the row if it's
+     * not in the cache.
+     *
+     * @param dataset the dataset
+     * @param pt the point limits of the row (those of the first dimension are
+     * ignored, as the whole row is used)
+     * @param dim the dimension order
+     * @return the cumulative sums, or null if the dataset can't be cached
+     * @throws IOException if the row can't be read
+     */
+    public static double[] getSums(Dataset dataset, int[][] pt, int[] dim) throws IOException {
+        if (!isCacheable(dataset)) {
+            return null;
+        }
+        String key = getKey(dataset, pt, dim);
+        File file = dataset.getFile();
+        long modified = file.lastModified();
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(key);
+            if (entry != null) {
+                if (entry.modified == modified) {
+                    HITS.incrementAndGet();
+                    return entry.sums;
+                }
+                CACHE.remove(key);
+                cacheBytes -= entry.getBytes();
+            }
+        }
+        MISSES.incrementAndGet();
+        int size = dataset.getSize(dim[0]);
+        int[][] ptC = new int[pt.length][2];
+        for (int i = 0; i < pt.length; i++) {
+            ptC[i][0] = pt[i][0];
+            ptC[i][1] = pt[i][1];
+        }
+        ptC[0][0] = 0;
+        ptC[0][1] = size - 1;
+        Vec rowVec = new Vec(size, false);
+        dataset.readVectorFromDatasetFile(ptC, dim.clone(), rowVec);
+        double[] sums = new double[size];
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += rowVec.getReal(i);
+            sums[i] = sum;
+        }
+        Entry entry = new Entry(file.getPath(), sums, modified);
+        put(key, entry);
+        return sums;
+    }
+
+    static void put(String key, Entry entry) {
+        if (entry.getBytes() > MAX_BYTES / 4) {
+            return;
+        }
+        synchronized (CACHE) {
+            Entry old = CACHE.put(key, entry);
+            if (old != null) {
+                cacheBytes -= old.getBytes();
+            }
+            cacheBytes += entry.getBytes();
+            Iterator<Entry> iter = CACHE.values().iterator();
+            while ((cacheBytes > MAX_BYTES) && iter.hasNext()) {
+                Entry oldest = iter.next();
+                cacheBytes -= oldest.getBytes();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Fill a vector with the integral curve of a region of a row. The
+     * baseline subtracted is a line from firstIntensity at the first point to
+     * lastIntensity at the last point.
+     *
+     * @param sums the cumulative sums of the row
+     * @param first the first point of the region
+     * @param last the last point of the region
+     * @param firstIntensity the baseline intensity at the first point
+     * @param lastIntensity the baseline intensity at the last point
+     * @param specVec the vector to fill, which is resized to the region
+     */
+    public static void fillIntegral(double[] sums, int first, int last, double firstIntensity, double lastIntensity, Vec specVec) {
+        first = Math.max(0, Math.min(sums.length - 1, first));
+        last = Math.max(first, Math.min(sums.length - 1, last));
+        int n = last - first + 1;
+        specVec.resize(n, false);
+        double start = first > 0 ? sums[first - 1] : 0.0;
+        double slope = n > 1 ? (lastIntensity - firstIntensity) / (n - 1) : 0.0;
+        for (int j = 0; j < n; j++) {
+            // sum of the baseline over points 0 to j of the region
+            double baseline = (j + 1) * firstIntensity + slope * j * (j + 1) / 2.0;
+            specVec.rvec[j] = sums[first + j] - start - baseline;
+        }
+    }
+
+    /**
+     * Get the integral of a region of a row, with its baseline subtracted,
+     * without creating the curve.
+     *
+     * @param sums the cumulative sums of the row
+     * @param first the first point of the region
+     * @param last the last point of the region
+     * @param firstIntensity the baseline intensity at the first point
+     * @param lastIntensity the baseline intensity at the last point
+     * @return the integral
+     */
+    public static double getIntegral(double[] sums, int first, int last, double firstIntensity, double lastIntensity) {
+        first = Math.max(0, Math.min(sums.length - 1, first));
+        last = Math.max(first, Math.min(sums.length - 1, last));
+        int n = last - first + 1;
+        double start = first > 0 ? sums[first - 1] : 0.0;
+        return sums[last] - start - n * (firstIntensity + lastIntensity) / 2.0;
+    }
+
+    /**
+     * Drop the cached rows of a dataset, for example after its values have
+     * been changed or the dataset has been closed.
+     *
+     * @param dataset the dataset
+     */
+    public static void invalidate(Dataset dataset) {
+        if ((dataset != null) && (dataset.getFile() != null)) {
+            invalidate(dataset.getFile());
+        }
+    }
+
+    public static void invalidate(File file) {
+        String fileName = file.getPath();
+        synchronized (CACHE) {
+            Iterator<Entry> iter = CACHE.values().iterator();
+            while (iter.hasNext()) {
+                Entry entry = iter.next();
+                if (entry.fileName.equals(fileName)) {
+                    cacheBytes -= entry.getBytes();
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (CACHE) {
+            stats.put("rows", CACHE.size());
+            stats.put("bytes", cacheBytes);
+        }
+        stats.put("maxBytes", MAX_BYTES);
+        stats.put("hits", HITS.get());
+        stats.put("misses", MISSES.get());
+        return stats;
+    }
+}
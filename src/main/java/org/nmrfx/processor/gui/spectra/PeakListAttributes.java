@@ -75,6 +75,9 @@ public class PeakListAttributes implements PeakListener {
     NMRAxis xAxis = null;
     NMRAxis yAxis = null;
     double[][] foldLimits = null;
+    PeakSpatialIndex peakIndex = null;
+    Set<Peak> peaksInRegionSet = null;
+    final PeakOverlayTracker overlayTracker = new PeakOverlayTracker();
 
     private IntegerProperty nplanes;
 
@@ -253,6 +256,10 @@ public class PeakListAttributes implements PeakListener {
     public PeakList getPeakList() {
         return peakList;
     }
+
+    public PeakOverlayTracker getOverlayTracker() {
+        return overlayTracker;
+    }
     private StringProperty peakListName;
 
     public StringProperty peakListNameProperty() {
@@ -265,7 +272,7 @@ public class PeakListAttributes implements PeakListener {
     public void setPeakList(PeakList peakList) {
         this.peakList = peakList;
         setPeakListName(peakList.getName());
-
+        invalidatePeakIndex();
     }
 
     public void setPeakListName(String value) {
@@ -354,9 +361,79 @@ public class PeakListAttributes implements PeakListener {
 
     public void clearPeaksInRegion() {
         peaksInRegion = Optional.empty();
+        peaksInRegionSet = null;
         multipletsInRegion = Optional.empty();
     }
 
+    /**
+     * Get the spatial index for the peak list, building it if the peak list,
+     * dimension mapping or folding limits have changed since it was built.
+     *
+     * @param peakDim the mapping of display dimensions to peak dimensions
+     * @return the spatial index
+     */
+    PeakSpatialIndex getPeakIndex(int[] peakDim) {
+        List<Peak> peaks = peakList.peaks();
+        if ((peakIndex == null) || !peakIndex.isValidFor(peaks, peakDim, foldLimits)) {
+            peakIndex = new PeakSpatialIndex(peaks, peakDim, foldLimits);
+        }
+        return peakIndex;
+    }
+
+    /**
+     * Discard the spatial index so it is rebuilt on next use. Called when the
+     * peak list reports changes that weren't made through this object.
+     */
+    public void invalidatePeakIndex() {
+        peakIndex = null;
+    }
+
+    void updatePeakIndex(Peak peak) {
+        if (peakIndex != null) {
+            peakIndex.update(peak);
+        }
+    }
+
+    List<Peak> getPeaksInRegion(double[][] limits, int[] peakDim) {
+        return getPeakIndex(peakDim).query(limits)
+                .stream()
+                .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
+                .collect(Collectors.toList());
+    }
+
+    private boolean isPeakInRegion(Peak peak) {
+        if (peaksInRegionSet == null) {
+            peaksInRegionSet = new HashSet<>(peaksInRegion.get());
+        }
+        return peaksInRegionSet.contains(peak);
+    }
+
+    /**
+     * Get the visible peaks that could be hit at the specified screen
+     * position. Peaks are looked up in the spatial index with a tolerance of
+     * the minimum hit size (in pixels) so that the exact hit test only needs to
+     * be done on nearby peaks.
+     *
+     * @param peakDim the mapping of display dimensions to peak dimensions
+     * @param pickX the x screen position
+     * @param pickY the y screen position
+     * @return candidate peaks in peak list order
+     */
+    List<Peak> getHitCandidates(int[] peakDim, double pickX, double pickY) {
+        double[] position = {
+            xAxis.getValueForDisplay(pickX).doubleValue(),
+            yAxis.getValueForDisplay(pickY).doubleValue()
+        };
+        double[] tolerance = {
+            Math.abs(xAxis.getValueForDisplay(pickX + minHitSize).doubleValue() - position[0]),
+            Math.abs(yAxis.getValueForDisplay(pickY + minHitSize).doubleValue() - position[1])
+        };
+        return getPeakIndex(peakDim).near(position, tolerance)
+                .stream()
+                .filter(this::isPeakInRegion)
+                .collect(Collectors.toList());
+    }
+
     public List<Peak> getPeaksInRegion() {
         if (!peaksInRegion.isPresent()) {
             findPeaksInRegion();
@@ -381,21 +458,19 @@ public class PeakListAttributes implements PeakListener {
 
     public void findPeaksInRegion() {
         peaksInRegion = Optional.empty();
+        peaksInRegionSet = null;
         updateFoldingLimits(dataAttr);
         if ((peakList != null) && (peakList.peaks() != null)) {
             double[][] limits = getRegionLimits(dataAttr);
             int[] peakDim = getPeakDim();
-            List<Peak> peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
-                    .collect(Collectors.toList());
+            List<Peak> peaks = getPeaksInRegion(limits, peakDim);
             peaksInRegion = Optional.of(peaks);
         }
     }
 
     public void findPeaksInRegion(double[][] crossLimits) {
         peaksInRegion = Optional.empty();
+        peaksInRegionSet = null;
         updateFoldingLimits(dataAttr);
         if ((peakList != null) && (peakList.peaks() != null)) {
             double[][] limits = getRegionLimits(dataAttr);
@@ -406,11 +481,7 @@ public class PeakListAttributes implements PeakListener {
                 limits[1][1] = crossLimits[1][1];
             }
             int[] peakDim = getPeakDim();
-            List<Peak> peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
-                    .collect(Collectors.toList());
+            List<Peak> peaks = getPeaksInRegion(limits, peakDim);
             peaksInRegion = Optional.of(peaks);
         }
     }
@@ -426,11 +497,7 @@ public class PeakListAttributes implements PeakListener {
                 limits[1][1] = crossLimits[1][1];
             }
             int[] peakDim = getPeakDim();
-            List<Peak> peaks = peakList.peaks()
-                    .stream()
-                    .parallel()
-                    .filter(peak -> peak.inRegion(limits, foldLimits, peakDim))
-                    .collect(Collectors.toList());
+            List<Peak> peaks = getPeaksInRegion(limits, peakDim);
             selectedPeaks.addAll(peaks);
             return (peaks);
         }
@@ -451,7 +518,7 @@ public class PeakListAttributes implements PeakListener {
             xAxis = (NMRAxis) chart.getXAxis();
             yAxis = (NMRAxis) chart.getYAxis();
             if (peakList.nDim > 1) {
-                hit = peaksInRegion.get().stream().parallel().filter(peak -> peak.getStatus() >= 0)
+                hit = getHitCandidates(peakDim, pickX, pickY).stream().filter(peak -> peak.getStatus() >= 0)
                         .filter((peak) -> pick2DPeak(peak, pickX, pickY)).findFirst();
             } else {
                 hit = peaksInRegion.get().stream().parallel().filter(peak -> peak.getStatus() >= 0)
@@ -468,7 +535,7 @@ public class PeakListAttributes implements PeakListener {
             xAxis = (NMRAxis) chart.getXAxis();
             yAxis = (NMRAxis) chart.getYAxis();
             if (peakList.nDim > 1) {
-                hit = peaksInRegion.get().stream().parallel().filter(peak -> peak.getStatus() >= 0)
+                hit = getHitCandidates(peakDim, pickX, pickY).stream().filter(peak -> peak.getStatus() >= 0)
                         .filter((peak) -> pick2DPeak(peak, pickX, pickY)).findFirst();
                 if (hit.isPresent()) {
                     if (!selectedPeaks.contains(hit.get()) && !append) {
@@ -529,7 +596,7 @@ public class PeakListAttributes implements PeakListener {
                 selectedPeaks.clear();
             }
             if (peakList.nDim > 1) {
-                List<Peak> peaks = peaksInRegion.get().stream().parallel()
+                List<Peak> peaks = getHitCandidates(peakDim, pickX, pickY).stream()
                         .filter((peak) -> pick2DPeak(peak, pickX, pickY))
                         .filter((peak) -> !selectedPeaks.contains(peak))
                         .collect(Collectors.toList());
@@ -559,6 +626,7 @@ public class PeakListAttributes implements PeakListener {
                 peakDim.setChemShiftValue((float) (shift + delta));
             }
         }
+        updatePeakIndex(peak);
     }
 
     public void resizePeak(Peak peak, double[] oldValue, double[] newValue) {
@@ -575,6 +643,7 @@ public class PeakListAttributes implements PeakListener {
             double width = peak.peakDims[peakDim[i]].getLineWidthValue();
             peak.peakDims[peakDim[i]].setLineWidthValue((float) (width * scale));
         }
+        updatePeakIndex(peak);
     }
 
     public void moveMultipletCoupling(MultipletSelection mSel, double[] oldValue, double[] newValue) {
@@ -746,6 +815,8 @@ public class PeakListAttributes implements PeakListener {
     @Override
     public void peakListChanged(PeakEvent peakEvent) {
         peaksInRegion = Optional.empty();
+        peaksInRegionSet = null;
+        invalidatePeakIndex();
     }
 
     public void copyTo(PeakListAttributes peakAttr) {
@@ -0,0 +1,153 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javafx.geometry.Bounds;
+import org.nmrfx.peaks.Peak;
+
+/**
+ * Keeps track of what was drawn for each peak of a peak list on the peak
+ * canvas so that, after peaks are edited or selected, only the screen regions
+ * of the peaks that changed need to be cleared and redrawn.
+ *
+ * @author brucejohnson
+ */
+public class PeakOverlayTracker {
+
+    /**
+     * The screen region covered by a drawn peak along with the other
+     * attributes that determine its appearance.
+     */
+    public static class PeakFootprint {
+
+        final Bounds bounds;
+        final String label;
+        final int status;
+        final int[] color;
+
+        public PeakFootprint(Bounds bounds, String label, int status, int[] color) {
+            this.bounds = bounds;
+            this.label = label;
+            this.status = status;
+            this.color = color == null ? null : color.clone();
+        }
+
+        public Bounds getBounds() {
+            return bounds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PeakFootprint)) {
+                return false;
+            }
+            PeakFootprint footprint = (PeakFootprint) o;
+            return (status == footprint.status) && bounds.equals(footprint.bounds)
+                    && Objects.equals(label, footprint.label) && Arrays.equals(color, footprint.color);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bounds, label, status) * 31 + Arrays.hashCode(color);
+        }
+    }
+
+    Map<Peak, PeakFootprint> drawnPeaks = new HashMap<>();
+    Set<Peak> drawnSelected = new HashSet<>();
+    boolean valid = false;
+
+    /**
+     * Forget everything that was drawn. Until the next full redraw records
+     * the peaks again, incremental drawing isn't possible.
+     */
+    public void invalidate() {
+        drawnPeaks.clear();
+        drawnSelected.clear();
+        valid = false;
+    }
+
+    /**
+     * Start recording a full redraw of the peak list.
+     */
+    public void startFullDraw() {
+        drawnPeaks.clear();
+        drawnSelected.clear();
+        valid = true;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void recordPeak(Peak peak, PeakFootprint footprint) {
+        drawnPeaks.put(peak, footprint);
+    }
+
+    public void recordSelected(Collection<Peak> peaks) {
+        drawnSelected.clear();
+        drawnSelected.addAll(peaks);
+    }
+
+    /**
+     * Compare the current footprints and selection of the peaks with what was
+     * last drawn, and return the screen regions that need to be repainted.
+     * Both the old and new regions of a changed peak are returned. The
+     * recorded state is replaced by the current state.
+     *
+     * @param current the current footprint of each visible peak
+     * @param selected the currently selected peaks
+     * @return the list of regions to repaint
+     */
+    public List<Bounds> update(Map<Peak, PeakFootprint> current, Set<Peak> selected) {
+        List<Bounds> dirty = new ArrayList<>();
+        for (Map.Entry<Peak, PeakFootprint> entry : current.entrySet()) {
+            Peak peak = entry.getKey();
+            PeakFootprint footprint = entry.getValue();
+            PeakFootprint lastFootprint = drawnPeaks.get(peak);
+            boolean selectionChanged = selected.contains(peak) != drawnSelected.contains(peak);
+            if (!footprint.equals(lastFootprint) || selectionChanged) {
+                dirty.add(footprint.getBounds());
+                if (lastFootprint != null) {
+                    dirty.add(lastFootprint.getBounds());
+                }
+            }
+        }
+        for (Map.Entry<Peak, PeakFootprint> entry : drawnPeaks.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                dirty.add(entry.getValue().getBounds());
+            }
+        }
+        drawnPeaks.clear();
+        drawnPeaks.putAll(current);
+        drawnSelected.clear();
+        drawnSelected.addAll(selected);
+        return dirty;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.processor.datasets.Dataset;
+
+/**
+ * A uniform grid over the chemical shifts of the first (up to two) displayed
+ * dimensions of a peak list. Peaks are stored in the cell of their raw shift
+ * and, if different, of their folded shift. Queries return candidate peaks (in
+ * peak list order) whose cells overlap the query region expanded by the
+ * largest peak half-bounds, so callers still apply their exact region or hit
+ * test to the (much smaller) candidate list.
+ *
+ * @author brucejohnson
+ */
+public class PeakSpatialIndex {
+
+    static final int PEAKS_PER_CELL = 4;
+
+    final int nIndexDim;
+    final int[] peakDim;
+    final double[][] foldLimits;
+    final int nPeaks;
+    final double[] minPos;
+    final double[] cellSize;
+    final int[] nCells;
+    final double[] maxHalfBounds;
+    final List<Peak>[] cells;
+    final Map<Peak, int[]> peakCells = new HashMap<>();
+    final Map<Peak, Integer> peakOrder = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    PeakSpatialIndex(List<Peak> peaks, int[] peakDim, double[][] foldLimits) {
+        this.peakDim = peakDim.clone();
+        this.foldLimits = foldLimits == null ? null : copyLimits(foldLimits);
+        this.nPeaks = peaks.size();
+        nIndexDim = Math.min(2, peakDim.length);
+        minPos = new double[nIndexDim];
+        cellSize = new double[nIndexDim];
+        nCells = new int[nIndexDim];
+        maxHalfBounds = new double[nIndexDim];
+        double[] maxPos = new double[nIndexDim];
+        Arrays.fill(minPos, Double.MAX_VALUE);
+        Arrays.fill(maxPos, -Double.MAX_VALUE);
+
+        for (Peak peak : peaks) {
+            for (int i = 0; i < nIndexDim; i++) {
+                if (peakDim[i] >= 0) {
+                    double shift = peak.peakDims[peakDim[i]].getChemShiftValue();
+                    double folded = foldShift(i, shift);
+                    minPos[i] = Math.min(minPos[i], Math.min(shift, folded));
+                    maxPos[i] = Math.max(maxPos[i], Math.max(shift, folded));
+                }
+            }
+        }
+        int nTotalCells = Math.max(1, nPeaks / PEAKS_PER_CELL);
+        int nPerDim = nIndexDim > 1 ? (int) Math.ceil(Math.sqrt(nTotalCells)) : nTotalCells;
+        int nAllCells = 1;
+        for (int i = 0; i < nIndexDim; i++) {
+            if ((peakDim[i] < 0) || (maxPos[i] <= minPos[i])) {
+                nCells[i] = 1;
+                minPos[i] = 0.0;
+                cellSize[i] = 1.0;
+            } else {
+                nCells[i] = nPerDim;
+                cellSize[i] = (maxPos[i] - minPos[i]) / nPerDim;
+            }
+            nAllCells *= nCells[i];
+        }
+        cells = new List[nAllCells];
+        for (int i = 0; i < nAllCells; i++) {
+            cells[i] = new ArrayList<>();
+        }
+        int order = 0;
+        for (Peak peak : peaks) {
+            peakOrder.put(peak, order++);
+            insert(peak);
+        }
+    }
+
+    static double[][] copyLimits(double[][] limits) {
+        double[][] copy = new double[limits.length][];
+        for (int i = 0; i < limits.length; i++) {
+            copy[i] = limits[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Check whether this index can still be used for the specified peaks,
+     * dimension mapping and folding limits.
+     *
+     * @param peaks the current peaks of the peak list
+     * @param peakDim the current mapping of display dimensions to peak
+     * dimensions
+     * @param foldLimits the current folding limits (may be null)
+     * @return true if the index is valid
+     */
+    boolean isValidFor(List<Peak> peaks, int[] peakDim, double[][] foldLimits) {
+        if ((peaks.size() != nPeaks) || !Arrays.equals(this.peakDim, peakDim)) {
+            return false;
+        }
+        if ((foldLimits == null) || (this.foldLimits == null)) {
+            return foldLimits == this.foldLimits;
+        }
+        return Arrays.deepEquals(this.foldLimits, foldLimits);
+    }
+
+    double foldShift(int iDim, double shift) {
+        if ((foldLimits != null) && (iDim < foldLimits.length)) {
+            shift = Dataset.foldPPM(shift, foldLimits[iDim]);
+        }
+        return shift;
+    }
+
+    int getCellIndex(int iDim, double value) {
+        int index = (int) Math.floor((value - minPos[iDim]) / cellSize[iDim]);
+        return Math.max(0, Math.min(nCells[iDim] - 1, index));
+    }
+
+    int getCell(double[] position) {
+        int cell = 0;
+        for (int i = nIndexDim - 1; i >= 0; i--) {
+            cell = cell * nCells[i] + getCellIndex(i, position[i]);
+        }
+        return cell;
+    }
+
+    private void insert(Peak peak) {
+        double[] raw = new double[nIndexDim];
+        double[] folded = new double[nIndexDim];
+        for (int i = 0; i < nIndexDim; i++) {
+            if (peakDim[i] >= 0) {
+                PeakDim pDim = peak.peakDims[peakDim[i]];
+                raw[i] = pDim.getChemShiftValue();
+                folded[i] = foldShift(i, raw[i]);
+                maxHalfBounds[i] = Math.max(maxHalfBounds[i], Math.abs(pDim.getBoundsValue()) / 2.0);
+            }
+        }
+        int rawCell = getCell(raw);
+        int foldedCell = getCell(folded);
+        int[] usedCells = rawCell == foldedCell ? new int[]{rawCell} : new int[]{rawCell, foldedCell};
+        for (int cell : usedCells) {
+            cells[cell].add(peak);
+        }
+        peakCells.put(peak, usedCells);
+    }
+
+    /**
+     * Move a peak to the cell(s) corresponding to its current position. Call
+     * after the chemical shift or bounds of an indexed peak are edited.
+     *
+     * @param peak the edited peak
+     */
+    void update(Peak peak) {
+        int[] oldCells = peakCells.remove(peak);
+        if (oldCells != null) {
+            for (int cell : oldCells) {
+                cells[cell].remove(peak);
+            }
+            insert(peak);
+        }
+    }
+
+    private List<Peak> collect(double[] lower, double[] upper) {
+        int[] lo = new int[nIndexDim];
+        int[] hi = new int[nIndexDim];
+        for (int i = 0; i < nIndexDim; i++) {
+            if (peakDim[i] < 0) {
+                lo[i] = 0;
+                hi[i] = nCells[i] - 1;
+            } else {
+                lo[i] = getCellIndex(i, Math.min(lower[i], upper[i]) - maxHalfBounds[i]);
+                hi[i] = getCellIndex(i, Math.max(lower[i], upper[i]) + maxHalfBounds[i]);
+            }
+        }
+        Set<Peak> result = new LinkedHashSet<>();
+        if (nIndexDim == 0) {
+            result.addAll(cells[0]);
+        } else if (nIndexDim == 1) {
+            for (int i = lo[0]; i <= hi[0]; i++) {
+                result.addAll(cells[i]);
+            }
+        } else {
+            for (int j = lo[1]; j <= hi[1]; j++) {
+                for (int i = lo[0]; i <= hi[0]; i++) {
+                    result.addAll(cells[j * nCells[0] + i]);
+                }
+            }
+        }
+        List<Peak> peaks = new ArrayList<>(result);
+        peaks.sort(Comparator.comparingInt(peakOrder::get));
+        return peaks;
+    }
+
+    /**
+     * Get the candidate peaks for a region of the display. Only the first
+     * two dimensions of the limits are used.
+     *
+     * @param limits the region limits in ppm, indexed by display dimension
+     * @return the candidate peaks in peak list order
+     */
+    List<Peak> query(double[][] limits) {
+        double[] lower = new double[nIndexDim];
+        double[] upper = new double[nIndexDim];
+        for (int i = 0; i < nIndexDim; i++) {
+            lower[i] = limits[i][0];
+            upper[i] = limits[i][1];
+        }
+        return collect(lower, upper);
+    }
+
+    /**
+     * Get the candidate peaks near a position.
+     *
+     * @param position the position in ppm, indexed by display dimension
+     * @param tolerance the distance in ppm, indexed by display dimension
+     * @return the candidate peaks in peak list order
+     */
+    List<Peak> near(double[] position, double[] tolerance) {
+        double[] lower = new double[nIndexDim];
+        double[] upper = new double[nIndexDim];
+        for (int i = 0; i < nIndexDim; i++) {
+            lower[i] = position[i] - tolerance[i];
+            upper[i] = position[i] + tolerance[i];
+        }
+        return collect(lower, upper);
+    }
+}
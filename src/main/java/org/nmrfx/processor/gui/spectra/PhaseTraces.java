@@ -0,0 +1,249 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.complex.Complex;
+import org.nmrfx.processor.gui.PreviewExecutor;
+import org.nmrfx.processor.math.Vec;
+
+/**
+ * A set of representative traces (rows or columns) of a 2D, or a plane of an
+ * nD, dataset along the dimension being phased, kept in their complex state
+ * before the phase correction being adjusted so they can be rephased for
+ * every move of the phase sliders without rereading the dataset. Traces are
+ * chosen from evenly spaced candidates across the displayed region, keeping
+ * those with the largest signals.
+ * <p>
+ * Rephasing uses a rotation recurrence (one complex multiply per point) into
+ * arrays allocated when the traces are read, and the traces are rephased in
+ * parallel.
+ *
+ * @author brucejohnson
+ */
+public class PhaseTraces {
+
+    static final double DEG_TO_RAD = Math.PI / 180.0;
+    // recompute the exact rotation at this interval to limit rounding drift
+    static final int RENORM_INTERVAL = 256;
+
+    public static final int DEFAULT_TRACES = Integer.getInteger("nmrfx.phaseTraces", 8);
+
+    final DatasetAttributes dataAttr;
+    final int axis;
+    final double[] limits;
+    final int[][] pt;
+    final double[] positions;
+    final double[][] real;
+    final double[][] imag;
+    final double[][] phased;
+    final double[] maxValues;
+    double lastPh0 = Double.NaN;
+    double lastPh1 = Double.NaN;
+
+    PhaseTraces(DatasetAttributes dataAttr, int axis, double[] limits, int[][] pt, double[] positions,
+            double[][] real, double[][] imag, double[] maxValues) {
+        this.dataAttr = dataAttr;
+        this.axis = axis;
+        this.limits = limits;
+        this.pt = pt;
+        this.positions = positions;
+        this.real = real;
+        this.imag = imag;
+        this.maxValues = maxValues;
+        phased = new double[real.length][];
+        for (int i = 0; i < real.length; i++) {
+            phased[i] = new double[real[i].length];
+        }
+    }
+
+    /**
+     * Read the traces. Can be called from a background thread, with copies of
+     * the point limits and dimension order taken on the FX thread, as the
+     * chart changes those of dataAttr (for example when stepping planes).
+     *
+     * @param dataAttr the attributes of the dataset in the chart
+     * @param axis the axis of the chart along which traces run (0 for rows, 1
+     * for columns)
+     * @param limits the displayed limits (ppm) of the chart axes {x1, x2, y1,
+     * y2}, which with the planes of pt identify the traces
+     * @param pt a copy of the point limits of each dataset dimension
+     * @param dim a copy of the dimension order
+     * @param nTraces the number of traces to keep
+     * @param token cancels the read if a newer request is made, may be null
+     * @return the traces
+     * @throws IOException if the dataset can't be read
+     */
+    public static PhaseTraces read(DatasetAttributes dataAttr, int axis, double[] limits, int[][] pt, int[] dim,
+            int nTraces, PreviewExecutor.Token token) throws IOException {
+        int nCandidates = Math.max(32, nTraces * 4);
+        int otherAxis = axis == 0 ? 1 : 0;
+        double lower = Math.min(limits[otherAxis * 2], limits[otherAxis * 2 + 1]);
+        double upper = Math.max(limits[otherAxis * 2], limits[otherAxis * 2 + 1]);
+        double[][] candidateReal = new double[nCandidates][];
+        double[][] candidateImag = new double[nCandidates][];
+        double[] candidatePositions = new double[nCandidates];
+        double[] candidateMax = new double[nCandidates];
+        Vec vec = new Vec(32, false);
+        for (int i = 0; i < nCandidates; i++) {
+            if (token != null) {
+                token.checkCancelled();
+            }
+            double position = lower + (upper - lower) * (i + 0.5) / nCandidates;
+            double ppmx = axis == 0 ? 0.0 : position;
+            double ppmy = axis == 0 ? position : 0.0;
+            dataAttr.getSlice(vec, axis, ppmx, ppmy, pt, dim);
+            if (!vec.isComplex()) {
+                vec.hft();
+            }
+            int size = vec.getSize();
+            double[] re = new double[size];
+            double[] im = new double[size];
+            double max = 0.0;
+            for (int j = 0; j < size; j++) {
+                Complex value = vec.getComplex(j);
+                re[j] = value.getReal();
+                im[j] = value.getImaginary();
+                max = Math.max(max, Math.abs(re[j]));
+            }
+            candidateReal[i] = re;
+            candidateImag[i] = im;
+            candidatePositions[i] = position;
+            candidateMax[i] = max;
+        }
+        Integer[] order = new Integer[nCandidates];
+        for (int i = 0; i < nCandidates; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> -candidateMax[i]));
+        int nKeep = Math.min(nTraces, nCandidates);
+        List<Integer> keep = new ArrayList<>(Arrays.asList(order).subList(0, nKeep));
+        keep.sort(Comparator.comparingDouble(i -> candidatePositions[i]));
+        double[][] real = new double[nKeep][];
+        double[][] imag = new double[nKeep][];
+        double[] positions = new double[nKeep];
+        double[] maxValues = new double[nKeep];
+        for (int i = 0; i < nKeep; i++) {
+            int k = keep.get(i);
+            real[i] = candidateReal[k];
+            imag[i] = candidateImag[k];
+            positions[i] = candidatePositions[k];
+            maxValues[i] = candidateMax[k];
+        }
+        return new PhaseTraces(dataAttr, axis, limits.clone(), pt, positions, real, imag, maxValues);
+    }
+
+    /**
+     * Check whether these traces were read for the current state of a chart.
+     *
+     * @param dataAttr the attributes of the dataset in the chart
+     * @param axis the axis being phased
+     * @param limits the displayed limits of the chart axes
+     * @param pt the point limits of each dataset dimension
+     * @return true if the traces can be used
+     */
+    public boolean matches(DatasetAttributes dataAttr, int axis, double[] limits, int[][] pt) {
+        return (this.dataAttr == dataAttr) && (this.axis == axis) && Arrays.equals(this.limits, limits)
+                && samePlanes(this.pt, pt);
+    }
+
+    /**
+     * Check whether two sets of point limits show the same planes, that is
+     * have the same limits in the dimensions after the first two.
+     *
+     * @param pt1 the first point limits
+     * @param pt2 the second point limits
+     * @return true if the planes are the same
+     */
+    public static boolean samePlanes(int[][] pt1, int[][] pt2) {
+        if (pt1.length != pt2.length) {
+            return false;
+        }
+        for (int i = 2; i < pt1.length; i++) {
+            if (!Arrays.equals(pt1[i], pt2[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply a phase correction to the traces. The phase at point i is ph0 + i
+     * * ph1 / (size - 1), as used for drawing slices.
+     *
+     * @param ph0 the zero order phase (degrees)
+     * @param ph1 the first order phase (degrees)
+     */
+    public void phase(double ph0, double ph1) {
+        if ((ph0 == lastPh0) && (ph1 == lastPh1)) {
+            return;
+        }
+        IntStream.range(0, real.length).parallel().forEach(i -> phaseTrace(i, ph0, ph1));
+        lastPh0 = ph0;
+        lastPh1 = ph1;
+    }
+
+    void phaseTrace(int iTrace, double ph0, double ph1) {
+        double[] re = real[iTrace];
+        double[] im = imag[iTrace];
+        double[] out = phased[iTrace];
+        int size = re.length;
+        double delta = size > 1 ? ph1 / (size - 1) * DEG_TO_RAD : 0.0;
+        double stepCos = Math.cos(delta);
+        double stepSin = Math.sin(delta);
+        double c = 1.0;
+        double s = 0.0;
+        for (int j = 0; j < size; j++) {
+            if ((j % RENORM_INTERVAL) == 0) {
+                double p = ph0 * DEG_TO_RAD + j * delta;
+                c = Math.cos(p);
+                s = Math.sin(p);
+            }
+            // real part of (re + i im) * (cos p - i sin p)
+            out[j] = re[j] * c + im[j] * s;
+            double nextC = c * stepCos - s * stepSin;
+            s = s * stepCos + c * stepSin;
+            c = nextC;
+        }
+    }
+
+    public int getAxis() {
+        return axis;
+    }
+
+    public int getNTraces() {
+        return real.length;
+    }
+
+    public double[] getPositions() {
+        return positions;
+    }
+
+    public double[] getPhased(int iTrace) {
+        return phased[iTrace];
+    }
+
+    public double getMaxValue(int iTrace) {
+        return maxValues[iTrace];
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import org.nmrfx.processor.datasets.Dataset;
+
+/**
+ * Prefetches the planes of nD datasets into the {@link DatasetBlockCache}, so
+ * that stepping through the planes doesn't wait for them to be read from the
+ * file. When the displayed plane changes, the next planes in the direction of
+ * travel are read on a background thread, in the same blocks as contouring
+ * reads them. The number of planes to prefetch is set with the
+ * nmrfx.prefetchPlanes property.
+ *
+ * @author brucejohnson
+ */
+public class PlanePrefetcher {
+
+    static final int MAX_CHUNK = 2048;
+    static final int N_PREFETCH = Integer.getInteger("nmrfx.prefetchPlanes", 4);
+
+    // the latest prefetch of each dataset file, so a new prefetch of one file
+    // only abandons earlier prefetches of the same file
+    static final Map<String, AtomicLong> GENERATIONS = new ConcurrentHashMap<>();
+    static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PlanePrefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Get the regions that drawing a plane reads, in the same chunks as
+     * DatasetAttributes.getMatrixRegion uses when contouring.
+     *
+     * @param dataset the dataset
+     * @param dim the dimension order
+     * @param pt the point limits of the plane
+     * @return the list of regions
+     */
+    static List<int[][]> getRegions(Dataset dataset, int[] dim, int[][] pt) {
+        List<int[][]> regions = new ArrayList<>();
+        List<int[]> ranges0 = getChunkRanges(pt[0], dataset.getSize(dim[0]));
+        List<int[]> ranges1 = getChunkRanges(pt[1], dataset.getSize(dim[1]));
+        // each plane of a thick slab is read separately
+        int[] planes = new int[pt.length];
+        for (int i = 2; i < pt.length; i++) {
+            planes[i] = pt[i][0];
+        }
+        while (true) {
+            for (int[] range1 : ranges1) {
+                for (int[] range0 : ranges0) {
+                    int[][] apt = new int[pt.length][2];
+                    apt[0] = range0.clone();
+                    apt[1] = range1.clone();
+                    for (int i = 2; i < pt.length; i++) {
+                        apt[i][0] = planes[i];
+                        apt[i][1] = planes[i];
+                    }
+                    regions.add(apt);
+                }
+            }
+            int i = 2;
+            while ((i < pt.length) && (planes[i] >= pt[i][1])) {
+                planes[i] = pt[i][0];
+                i++;
+            }
+            if (i >= pt.length) {
+                break;
+            }
+            planes[i]++;
+        }
+        return regions;
+    }
+
+    static List<int[]> getChunkRanges(int[] limits, int size) {
+        List<int[]> ranges = new ArrayList<>();
+        for (int start = 0; start <= limits[1]; start += MAX_CHUNK) {
+            int end = start + MAX_CHUNK;
+            if (end < limits[0]) {
+                continue;
+            }
+            int[] range = {Math.max(start, limits[0]), Math.min(end, limits[1])};
+            range[1] = Math.min(range[1], size - 1);
+            ranges.add(range);
+        }
+        return ranges;
+    }
+
+    /**
+     * Read the planes following the displayed plane of a dataset into the
+     * block cache on a background thread. Earlier prefetches of the same
+     * dataset file that haven't finished are abandoned.
+     *
+     * @param dataset the dataset
+     * @param dim the dimension order
+     * @param pt the point limits of the displayed plane
+     * @param axis the axis the plane is being moved along
+     * @param direction the direction of travel, positive or negative
+     */
+    public static void prefetch(Dataset dataset, int[] dim, int[][] pt, int axis, int direction) {
+        if (!DatasetBlockCache.isCacheable(dataset) || (axis < 2) || (axis >= pt.length) || (direction == 0) || (N_PREFETCH < 1)) {
+            return;
+        }
+        AtomicLong fileGeneration = GENERATIONS.computeIfAbsent(dataset.getFile().getPath(), k -> new AtomicLong());
+        long generation = fileGeneration.incrementAndGet();
+        int[] dimCopy = dim.clone();
+        int[][] ptCopy = new int[pt.length][];
+        for (int i = 0; i < pt.length; i++) {
+            ptCopy[i] = pt[i].clone();
+        }
+        int step = direction > 0 ? 1 : -1;
+        int size = dataset.getSize(dimCopy[axis]);
+        EXECUTOR.submit(() -> {
+            for (int iPlane = 1; iPlane <= N_PREFETCH; iPlane++) {
+                int[][] planePt = new int[ptCopy.length][];
+                for (int i = 0; i < ptCopy.length; i++) {
+                    planePt[i] = ptCopy[i].clone();
+                }
+                planePt[axis][0] += step * iPlane;
+                planePt[axis][1] += step * iPlane;
+                if ((planePt[axis][0] < 0) || (planePt[axis][1] >= size)) {
+                    break;
+                }
+                for (int[][] apt : getRegions(dataset, dimCopy, planePt)) {
+                    if (fileGeneration.get() != generation) {
+                        return;
+                    }
+                    try {
+                        DatasetBlockCache.prefetch(dataset, apt, dimCopy);
+                    } catch (IOException ioE) {
+                        System.out.println("Can't prefetch plane " + planePt[axis][0] + " of " + dataset.getName() + " " + ioE.getMessage());
+                        return;
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rendering statistics for one chart. A frame starts each time the chart is
+ * laid out and drawn, and includes the contours that are computed and drawn in
+ * the background after the layout returns, so the counts of the most recent
+ * frame keep growing until its drawing is complete. Counters may be updated
+ * from the contouring threads as well as the FX thread.
+ *
+ * @author brucejohnson
+ */
+public class RenderMetrics {
+
+    static class Frame {
+
+        final long startTime = System.nanoTime();
+        final long textHits0 = TextMetricsCache.getHits();
+        final long textMisses0 = TextMetricsCache.getMisses();
+        final AtomicLong endTime = new AtomicLong(startTime);
+        final AtomicLong fxTime = new AtomicLong();
+        final AtomicLong chunks = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong contours = new AtomicLong();
+        final AtomicLong contoursDrawn = new AtomicLong();
+        final AtomicLong vectors = new AtomicLong();
+        final AtomicLong peaks = new AtomicLong();
+        volatile long textHits = 0;
+        volatile long textMisses = 0;
+
+        void markActivity() {
+            endTime.accumulateAndGet(System.nanoTime(), Math::max);
+            textHits = TextMetricsCache.getHits() - textHits0;
+            textMisses = TextMetricsCache.getMisses() - textMisses0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("frameTime", (endTime.get() - startTime) / 1.0e6);
+            map.put("fxTime", fxTime.get() / 1.0e6);
+            map.put("chunksRead", chunks.get());
+            map.put("bytesRead", bytes.get());
+            map.put("contours", contours.get());
+            map.put("contoursDrawn", contoursDrawn.get());
+            map.put("vectors", vectors.get());
+            map.put("peaksDrawn", peaks.get());
+            long nText = textHits + textMisses;
+            map.put("textCacheHitRatio", nText > 0 ? (double) textHits / nText : 1.0);
+            return map;
+        }
+    }
+
+    volatile Frame current = new Frame();
+    volatile Frame last = null;
+    final AtomicLong nFrames = new AtomicLong();
+    final AtomicLong totalFxTime = new AtomicLong();
+    final AtomicLong maxFxTime = new AtomicLong();
+    final AtomicLong maxFrameTime = new AtomicLong();
+
+    /**
+     * Start a new frame. The current frame becomes the last frame.
+     */
+    public void beginFrame() {
+        Frame previous = current;
+        if (nFrames.get() > 0) {
+            maxFrameTime.accumulateAndGet(previous.endTime.get() - previous.startTime, Math::max);
+            last = previous;
+        }
+        current = new Frame();
+        nFrames.incrementAndGet();
+    }
+
+    /**
+     * Add time spent on the FX thread drawing the current frame.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void addFxTime(long nanos) {
+        Frame frame = current;
+        long total = frame.fxTime.addAndGet(nanos);
+        totalFxTime.addAndGet(nanos);
+        maxFxTime.accumulateAndGet(total, Math::max);
+        frame.markActivity();
+    }
+
+    public void addChunk(float[][] z) {
+        Frame frame = current;
+        frame.chunks.incrementAndGet();
+        if ((z != null) && (z.length > 0)) {
+            frame.bytes.addAndGet(4L * z.length * z[0].length);
+        }
+    }
+
+    public void addContour() {
+        current.contours.incrementAndGet();
+    }
+
+    public void addContourDrawn() {
+        Frame frame = current;
+        frame.contoursDrawn.incrementAndGet();
+        frame.markActivity();
+    }
+
+    public void addVector() {
+        current.vectors.incrementAndGet();
+    }
+
+    public void addPeaksDrawn(long n) {
+        current.peaks.addAndGet(n);
+    }
+
+    public long getFrameCount() {
+        return nFrames.get();
+    }
+
+    /**
+     * Get the metrics of the most recent frame, which may still be drawing.
+     * Times are in milliseconds.
+     *
+     * @return map of metric name to value
+     */
+    public Map<String, Object> getCurrentFrame() {
+        return current.toMap();
+    }
+
+    /**
+     * Get the metrics of the frame before the most recent one, which is
+     * complete.
+     *
+     * @return map of metric name to value, empty if there is no such frame
+     */
+    public Map<String, Object> getLastFrame() {
+        Frame frame = last;
+        return frame == null ? new LinkedHashMap<>() : frame.toMap();
+    }
+
+    /**
+     * Get the metrics of the most recent frame along with totals over all the
+     * frames drawn by the chart.
+     *
+     * @return map of metric name to value
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> map = getCurrentFrame();
+        long n = nFrames.get();
+        map.put("frames", n);
+        map.put("meanFxTime", n > 0 ? totalFxTime.get() / n / 1.0e6 : 0.0);
+        map.put("maxFxTime", maxFxTime.get() / 1.0e6);
+        map.put("maxFrameTime", maxFrameTime.get() / 1.0e6);
+        map.put("blockCacheHitRatio", DatasetBlockCache.getHitRatio());
+        return map;
+    }
+
+    /**
+     * Get the last complete frame's metrics formatted as lines of text for
+     * display on the chart.
+     *
+     * @return the lines of text
+     */
+    public List<String> getOverlayLines() {
+        List<String> lines = new ArrayList<>();
+        Map<String, Object> map = getLastFrame();
+        if (map.isEmpty()) {
+            map = getCurrentFrame();
+        }
+        lines.add(String.format("frame %.1f ms  fx %.1f ms", (Double) map.get("frameTime"), (Double) map.get("fxTime")));
+        lines.add(String.format("chunks %d  %.1f MB", (Long) map.get("chunksRead"), (Long) map.get("bytesRead") / 1.0e6));
+        lines.add(String.format("contours %d/%d  vectors %d", (Long) map.get("contoursDrawn"), (Long) map.get("contours"), (Long) map.get("vectors")));
+        lines.add(String.format("peaks %d  text cache %.0f%%", (Long) map.get("peaksDrawn"), 100.0 * (Double) map.get("textCacheHitRatio")));
+        return lines;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * NMRFx Processor : A Program for Processing NMR Data
+ * Copyright (C) 2004-2021 One Moon Scientific, Inc., Westfield, N.J., USA
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.VPos;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Caches the unrotated layout bounds of label strings, keyed by font, so that
+ * label placement doesn't have to build a Text node for every measurement.
+ * Rotated bounds are derived from the cached bounds analytically.
+ *
+ * @author brucejohnson
+ */
+public class TextMetricsCache {
+
+    static final int MAX_STRINGS_PER_FONT = 4096;
+    static final Map<Font, Map<String, Bounds>> FONT_CACHES = new HashMap<>();
+    static final Text HELPER = new Text();
+    static long hits = 0;
+    static long misses = 0;
+
+    static {
+        HELPER.setTextAlignment(TextAlignment.CENTER);
+        HELPER.setTextOrigin(VPos.TOP);
+    }
+
+    private TextMetricsCache() {
+    }
+
+    /**
+     * Get the local bounds of a string rendered with the specified font, with
+     * the text origin at the top and centered alignment.
+     *
+     * @param s the string to measure
+     * @param font the font used to render the string
+     * @return the local bounds of the string
+     */
+    public static synchronized Bounds getLocalBounds(String s, Font font) {
+        Map<String, Bounds> fontCache = FONT_CACHES.computeIfAbsent(font, f -> new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bounds> eldest) {
+                return size() > MAX_STRINGS_PER_FONT;
+            }
+        });
+        Bounds bounds = fontCache.get(s);
+        if (bounds == null) {
+            misses++;
+            HELPER.setFont(font);
+            HELPER.setText(s);
+            bounds = HELPER.getBoundsInLocal();
+            fontCache.put(s, bounds);
+        } else {
+            hits++;
+        }
+        return bounds;
+    }
+
+    /**
+     * Get the axis aligned bounding box of the local bounds after rotating
+     * them by angle (in degrees) about the origin and then translating them to
+     * x,y. This gives the same result as transforming the bounds with an
+     * Affine that has a translation followed by a rotation appended.
+     *
+     * @param bounds the unrotated bounds
+     * @param angle the rotation angle in degrees
+     * @param x the x translation
+     * @param y the y translation
+     * @return the bounding box of the rotated and translated bounds
+     */
+    public static Bounds rotate(Bounds bounds, double angle, double x, double y) {
+        double radians = Math.toRadians(angle);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        double[] xs = {bounds.getMinX(), bounds.getMaxX()};
+        double[] ys = {bounds.getMinY(), bounds.getMaxY()};
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (double bx : xs) {
+            for (double by : ys) {
+                double tx = bx * cos - by * sin + x;
+                double ty = bx * sin + by * cos + y;
+                minX = Math.min(minX, tx);
+                maxX = Math.max(maxX, tx);
+                minY = Math.min(minY, ty);
+                maxY = Math.max(maxY, ty);
+            }
+        }
+        return new BoundingBox(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    public static synchronized void clear() {
+        FONT_CACHES.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -39,12 +40,10 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import org.nmrfx.processor.gui.FXMLController;
-import org.nmrfx.processor.gui.GUIScripter;
-import org.nmrfx.processor.gui.MainApp;
+import org.nmrfx.processor.gui.WindowLayout;
 import org.nmrfx.project.ProjectBase;
 import org.nmrfx.utilities.FileWatchListener;
 import org.nmrfx.utilities.NMRFxFileWatcher;
-import org.python.util.PythonInterpreter;
 import org.nmrfx.utils.GUIUtils;
 
 /**
@@ -202,32 +201,28 @@ public class WindowIO implements FileWatchListener {
     }
 
     public static void loadWindow(File file) throws IOException {
-        final PythonInterpreter interp = MainApp.getInterpreter();
-        interp.exec("import nwyaml\\n");
-        interp.set("yamlFileName", file.toString());
-        interp.set("yamlFileNum", 1);
-        interp.exec("nwyaml.loadYamlWin(yamlFileName, yamlFileNum)");
-
+        List<WindowLayout> layouts = new ArrayList<>();
+        layouts.add(WindowLayout.read(file.toPath(), 1));
+        WindowLayout.restore(layouts);
     }
 
     public static void loadWindows(Path directory) throws IOException {
         Predicate<String> predicate = STAGE_PATTERN1.asPredicate();
         Predicate<String> predicate2 = STAGE_PATTERN2.asPredicate();
-        final PythonInterpreter interp = MainApp.getInterpreter();
-        interp.exec("import nwyaml\\n");
         if (Files.isDirectory(directory)) {
-            Files.list(directory).sequential().filter(path
+            List<Path> paths = Files.list(directory).sequential().filter(path
                     -> predicate.test(path.getFileName().toString()) || predicate2.test(path.getFileName().toString())).
                     sorted(new ProjectBase.FileComparator()).
-                    forEach(path -> {
-                        String fileName = path.getFileName().toString();
-                        Optional<Integer> fileNum = ProjectBase.getIndex(fileName);
-                        if (fileNum.isPresent()) {
-                            interp.set("yamlFileName", path.toString());
-                            interp.set("yamlFileNum", fileNum.get());
-                            interp.exec("nwyaml.loadYamlWin(yamlFileName, yamlFileNum)");
-                        }
-                    });
+                    collect(Collectors.toList());
+            List<WindowLayout> layouts = new ArrayList<>();
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                Optional<Integer> fileNum = ProjectBase.getIndex(fileName);
+                if (fileNum.isPresent()) {
+                    layouts.add(WindowLayout.read(path, fileNum.get()));
+                }
+            }
+            WindowLayout.restore(layouts);
         }
     }
 
@@ -252,12 +247,7 @@ public class WindowIO implements FileWatchListener {
     }
 
     public static void saveWindow(FXMLController controller, Path path) throws IOException {
-        PythonInterpreter interp = MainApp.getInterpreter();
-        interp.exec("import nwyaml\\n");
-        FXMLController activeController = GUIScripter.getController();
-        GUIScripter.setController(controller);
-        interp.exec("nwyaml.dumpYamlWin('" + path.toString() + "')");
-        GUIScripter.setController(activeController);
+        WindowLayout.write(controller, path);
     }
 
     public static void saveWindows(Path projectDir) throws IOException {
@@ -265,20 +255,14 @@ public class WindowIO implements FileWatchListener {
             throw new IllegalArgumentException("Project directory not set");
         }
         cleanWindows(projectDir);
-        PythonInterpreter interp = MainApp.getInterpreter();
         int i = 0;
-        interp.exec("import nwyaml\\n");
-        FXMLController activeController = GUIScripter.getController();
         List<FXMLController> controllers = FXMLController.getControllers();
         for (FXMLController controller : controllers) {
-            GUIScripter.setController(controller);
             String fileName = "stage_" + String.valueOf(i) + ".yaml";
             Path path = Paths.get(projectDir.toString(), "windows", fileName);
-            interp.set("yamlFileName", path.toString());
-            interp.exec("nwyaml.dumpYamlWin(yamlFileName)");
+            WindowLayout.write(controller, path);
             i++;
         }
-        GUIScripter.setController(activeController);
     }
 
     void updateFavoritesOnFxThread() {
@@ -142,6 +142,23 @@ public class PathPlotTool {
         System.out.println("items " + tableView.getItems().size());
     }
 
+    /**
+     * Add a path to the end of the table, or refresh its row if it is already
+     * present. Used to show fit results as they become available.
+     *
+     * @param path the path to show
+     */
+    public void addOrRefreshPath(PeakPath path) {
+        if (tableView == null) {
+            return;
+        }
+        if (tableView.getItems().contains(path)) {
+            tableView.refresh();
+        } else {
+            tableView.getItems().add(path);
+        }
+    }
+
     void initTable() {
         tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         ListChangeListener selectionListener = (ListChangeListener) (ListChangeListener.Change c) -> {
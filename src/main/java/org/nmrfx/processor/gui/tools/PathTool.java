@@ -7,11 +7,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.geometry.Insets;
@@ -398,21 +405,130 @@ public class PathTool implements PeakNavigable {
 
     void fitAllPathes() {
         if (peakPaths != null) {
+            List<PeakPath> fitPaths = new ArrayList<>();
             for (PeakPath path : peakPaths.getPaths()) {
-                try {
-                    if (pathUsable(path)) {
-                        PathFitter fitPath = new PathFitter();
-                        fitPath.setup(peakPaths, path);
-                        fitPath.fit();
+                if (pathUsable(path)) {
+                    fitPaths.add(path);
+                }
+            }
+            showPlotTool();
+            fitPathsInBackground(fitPaths, true);
+        }
+    }
+
+    /**
+     * Fits a set of independent paths concurrently. Each path gets its own
+     * PathFitter. A path that fails to fit is recorded in the failures map and
+     * doesn't stop the fitting of the remaining paths. Fitted paths are passed
+     * to the result consumer (on the FX thread) as they finish.
+     */
+    static class PathFitTask extends Task<List<PeakPath>> {
+
+        final PeakPaths peakPaths;
+        final List<PeakPath> paths;
+        final Consumer<PeakPath> resultConsumer;
+        final Map<PeakPath, Exception> failures = new ConcurrentHashMap<>();
+
+        PathFitTask(PeakPaths peakPaths, List<PeakPath> paths, Consumer<PeakPath> resultConsumer) {
+            this.peakPaths = peakPaths;
+            this.paths = new ArrayList<>(paths);
+            this.resultConsumer = resultConsumer;
+        }
+
+        Map<PeakPath, Exception> getFailures() {
+            return failures;
+        }
+
+        boolean fitPath(PeakPath path) {
+            if (isCancelled()) {
+                return false;
+            }
+            try {
+                PathFitter fitPath = new PathFitter();
+                fitPath.setup(peakPaths, path);
+                fitPath.fit();
+                Platform.runLater(() -> resultConsumer.accept(path));
+                return true;
+            } catch (Exception ex) {
+                failures.put(path, ex);
+                return false;
+            }
+        }
+
+        @Override
+        protected List<PeakPath> call() throws Exception {
+            updateMessage("Fitting paths");
+            int nThreads = Math.max(1, Math.min(paths.size(), Runtime.getRuntime().availableProcessors()));
+            ExecutorService executor = Executors.newFixedThreadPool(nThreads, r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+            List<PeakPath> fitted = new ArrayList<>();
+            try {
+                ExecutorCompletionService<PeakPath> completionService = new ExecutorCompletionService<>(executor);
+                for (PeakPath path : paths) {
+                    completionService.submit(() -> fitPath(path) ? path : null);
+                }
+                for (int i = 0; i < paths.size(); i++) {
+                    if (isCancelled()) {
+                        break;
                     }
-                } catch (Exception ex) {
-                    ExceptionDialog eDialog = new ExceptionDialog(ex);
-                    eDialog.showAndWait();
-                    break;
+                    PeakPath path = completionService.take().get();
+                    if (path != null) {
+                        fitted.add(path);
+                    }
+                    updateProgress(i + 1, paths.size());
+                    updateMessage(String.format("Fit %d of %d paths", i + 1, paths.size()));
                 }
+            } finally {
+                executor.shutdownNow();
             }
+            return fitted;
         }
+    }
 
+    void fitPathsInBackground(List<PeakPath> fitPaths, boolean addToTable) {
+        if ((peakPaths == null) || fitPaths.isEmpty()) {
+            return;
+        }
+        PathFitTask task = new PathFitTask(peakPaths, fitPaths, path -> {
+            if (addToTable && path.hasPars() && !activePaths.contains(path)) {
+                activePaths.add(path);
+            }
+            plotTool.addOrRefreshPath(path);
+        });
+        task.setOnSucceeded(e -> finishPathFits(task, task.getValue()));
+        task.setOnCancelled(e -> finishPathFits(task, null));
+        task.setOnFailed(e -> {
+            ExceptionDialog eDialog = new ExceptionDialog(task.getException());
+            eDialog.showAndWait();
+        });
+        controller.getStatusBar().showJob(task);
+        Thread th = new Thread(task);
+        th.setDaemon(true);
+        th.start();
+    }
+
+    void finishPathFits(PathFitTask task, List<PeakPath> fitted) {
+        if ((fitted != null) && !fitted.isEmpty()) {
+            showXYPaths(fitted);
+        }
+        Map<PeakPath, Exception> failures = task.getFailures();
+        if (!failures.isEmpty()) {
+            StringBuilder sBuilder = new StringBuilder();
+            sBuilder.append(String.format("%d of %d paths could not be fit", failures.size(), task.paths.size()));
+            int nShown = 0;
+            for (Map.Entry<PeakPath, Exception> entry : failures.entrySet()) {
+                if (nShown++ == 10) {
+                    sBuilder.append("\n...");
+                    break;
+                }
+                sBuilder.append("\n").append(entry.getKey().toString()).append(": ").append(entry.getValue().getMessage());
+            }
+            Alert alert = new Alert(Alert.AlertType.WARNING, sBuilder.toString());
+            alert.showAndWait();
+        }
     }
 
     void addAllPaths() {
@@ -473,24 +589,11 @@ public class PathTool implements PeakNavigable {
     }
 
     void fitPathsIndividual() {
-        PathFitter fitPath = new PathFitter();
         List<PeakPath> fitPaths = plotTool.getSelected();
         if (fitPaths.isEmpty()) {
             fitPaths.addAll(activePaths);
         }
-        if (!fitPaths.isEmpty()) {
-            try {
-                for (PeakPath path : fitPaths) {
-                    fitPath.setup(peakPaths, path);
-                    fitPath.fit();
-                }
-                plotTool.tableView.refresh();
-                showXYPaths(fitPaths);
-            } catch (Exception ex) {
-                ExceptionDialog eDialog = new ExceptionDialog(ex);
-                eDialog.showAndWait();
-            }
-        }
+        fitPathsInBackground(fitPaths, false);
     }
 
     void addPathToTable() {
@@ -21,9 +21,15 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javafx.beans.Observable;
 import javafx.collections.ListChangeListener;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Scene;
@@ -34,6 +40,7 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.MenuButton;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToolBar;
@@ -45,6 +52,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.controlsfx.dialog.ExceptionDialog;
 import org.nmrfx.chart.Axis;
 import org.nmrfx.chart.DataSeries;
@@ -77,8 +85,107 @@ public class TRACTGUI {
     DataSeries series1 = new DataSeries();
     TextField resultsField;
     TextField scaleField;
+    TextField nSimField;
+    ChoiceBox<String> mcParChoice = new ChoiceBox<>();
+    ProgressBar mcProgressBar = new ProgressBar(0.0);
+    Button mcCancelButton;
+    MonteCarloTask mcTask = null;
+    double[][] mcResults = null;
     PolyChart chart;
 
+    static final String[] MC_PAR_NAMES = {"Ra", "Rb", "tau"};
+    static final int MC_HISTOGRAM_BINS = 40;
+
+    /**
+     * The data used for a TRACT fit: the delays (and the series each delay
+     * belongs to), intensities and errors.
+     */
+    static class TRACTData {
+
+        final double[][] xValues;
+        final double[] yValues;
+        final double[] errValues;
+        final double maxX;
+
+        TRACTData(double[][] xValues, double[] yValues, double[] errValues, double maxX) {
+            this.xValues = xValues;
+            this.yValues = yValues;
+            this.errValues = errValues;
+            this.maxX = maxX;
+        }
+
+        /**
+         * Get a bootstrap resampling of the data. Points are drawn, with
+         * replacement, separately from each of the two series so each series
+         * keeps its number of points.
+         *
+         * @param random the random number generator
+         * @return the resampled data
+         */
+        TRACTData resample(Random random) {
+            int n = yValues.length;
+            double[][] newX = new double[2][n];
+            double[] newY = new double[n];
+            double[] newE = new double[n];
+            for (int i = 0; i < n; i++) {
+                int series = i % 2;
+                int nInSeries = (n - series + 1) / 2;
+                int j = random.nextInt(nInSeries) * 2 + series;
+                newX[0][i] = xValues[0][j];
+                newX[1][i] = xValues[1][j];
+                newY[i] = yValues[j];
+                newE[i] = errValues[j];
+            }
+            return new TRACTData(newX, newY, newE, maxX);
+        }
+    }
+
+    /**
+     * Fits bootstrap resamplings of the data in parallel and returns, for each
+     * successful fit, the values of Ra, Rb and tau.
+     */
+    static class MonteCarloTask extends Task<double[][]> {
+
+        final TRACTData data;
+        final double sf;
+        final int nSim;
+        final long seed;
+
+        MonteCarloTask(TRACTData data, double sf, int nSim, long seed) {
+            this.data = data;
+            this.sf = sf;
+            this.nSim = nSim;
+            this.seed = seed;
+        }
+
+        double[] fitSample(int iSim) {
+            if (isCancelled()) {
+                return null;
+            }
+            // each sample has its own generator and fitter so the fits are independent and reproducible
+            TRACTData sample = data.resample(new Random(seed + iSim));
+            TRACTSimFit tractFit = new TRACTSimFit(sf, "H", "N");
+            tractFit.setXYE(sample.xValues, sample.yValues, sample.errValues);
+            try {
+                double[] values = tractFit.fit().getPoint();
+                return new double[]{tractFit.getR1(values), values[1], values[3]};
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected double[][] call() throws Exception {
+            AtomicInteger nDone = new AtomicInteger(0);
+            List<double[]> results = IntStream.range(0, nSim).parallel().mapToObj(iSim -> {
+                double[] result = fitSample(iSim);
+                updateProgress(nDone.incrementAndGet(), nSim);
+                return result;
+            }).filter(r -> r != null).collect(Collectors.toList());
+            return results.toArray(new double[results.size()][]);
+        }
+    }
+
     public TRACTGUI(ScannerController scanController) {
         this.scanController = scanController;
         chart = PolyChart.getActiveChart();
@@ -129,6 +236,23 @@ public class TRACTGUI {
             toolBar.getItems().addAll(fileMenu, fitButton);
 
             fitButton.setOnAction(e -> analyze());
+
+            Button mcButton = new Button("Monte Carlo");
+            mcButton.setOnAction(e -> analyzeMonteCarlo());
+            nSimField = new TextField("1000");
+            nSimField.setPrefWidth(70);
+            mcCancelButton = new Button("Cancel");
+            mcCancelButton.setDisable(true);
+            mcCancelButton.setOnAction(e -> {
+                if (mcTask != null) {
+                    mcTask.cancel();
+                }
+            });
+            mcParChoice.getItems().addAll(MC_PAR_NAMES);
+            mcParChoice.setValue(MC_PAR_NAMES[2]);
+            mcParChoice.valueProperty().addListener((Observable p) -> showMCDistribution());
+            mcProgressBar.setPrefWidth(100);
+            toolBar.getItems().addAll(mcButton, new Label("N:"), nSimField, mcParChoice, mcProgressBar, mcCancelButton);
             scaleField = new TextField("2.0e-3");
             scaleField.setOnKeyPressed(e -> {
                 if (e.getCode() == KeyCode.ENTER) {
@@ -241,41 +365,49 @@ public class TRACTGUI {
         }
     }
 
+    /**
+     * Get the data to fit from the scan table (in the same form as it's
+     * plotted by updateMCplot), rather than from the chart, which may be
+     * showing something else.
+     *
+     * @return the data, or null if no columns are selected
+     */
+    TRACTData getTRACTData() {
+        String xElem = xArrayChoice.getValue();
+        String yElem = yArrayChoice.getValue();
+        if ((scanController == null) || (xElem == null) || (yElem == null)) {
+            return null;
+        }
+        List<FileTableItem> items = scanController.getScanTable().getItems();
+        int nValues = items.size();
+        if (nValues == 0) {
+            return null;
+        }
+        double[][] xValues = new double[2][nValues];
+        double[] yValues = new double[nValues];
+        double[] errValues = new double[nValues];
+        int i = 0;
+        double maxX = 0.0;
+        for (FileTableItem item : items) {
+            double xValue = getXValue(item, xElem);
+            xValues[0][i] = xValue;
+            maxX = Math.max(xValues[0][i], maxX);
+            xValues[1][i] = i % 2;
+            yValues[i] = item.getDoubleExtra(yElem);
+            errValues[i] = 1.0;
+            i++;
+        }
+        return new TRACTData(xValues, yValues, errValues, maxX);
+    }
+
     @FXML
     void analyze() {
         double sf = 1.0e6 * chart.getDataset().getSf(0);
         TRACTSimFit tractFit = new TRACTSimFit(sf, "H", "N");
-        String xElem = xArrayChoice.getValue();
-        String yElem = yArrayChoice.getValue();
+        TRACTData data = getTRACTData();
 
-        if ((xElem != null) && (yElem != null)) {
-            ScanTable scanTable = scanController.getScanTable();
-            List<FileTableItem> items = scanTable.getItems();
-            double[][] xValues = new double[2][items.size()];
-            double[] yValues = new double[items.size()];
-            double[] errValues = new double[items.size()];
-            int i = 0;
-            double maxX = 0.0;
-            DataSeries series = activeChart.getData().get(0);
-            for (XYValue value : series.getData()) {
-                double xValue = value.getXValue();
-                xValues[0][i] = xValue;
-                maxX = Math.max(xValues[0][i], maxX);
-                xValues[1][i] = i % 2;
-                yValues[i] = value.getYValue();
-                errValues[i] = 1.0;
-                i++;
-            }
-//            for (FileTableItem item : items) {
-//                double xValue = getXValue(item, xElem);
-//                xValues[0][i] = xValue;
-//                maxX = Math.max(xValues[0][i], maxX);
-//                xValues[1][i] = i % 2;
-//                yValues[i] = item.getDoubleExtra(yElem);
-//                errValues[i] = 1.0;
-//                i++;
-//            }
-            tractFit.setXYE(xValues, yValues, errValues);
+        if (data != null) {
+            tractFit.setXYE(data.xValues, data.yValues, data.errValues);
             PointValuePair result = tractFit.fit(); // fixme
             double[] errs = tractFit.getParErrs();
             double[] values = result.getPoint();
@@ -287,6 +419,7 @@ public class TRACTGUI {
             sBuilder.append(String.format("%3s %.1f +/- %.1f ns", "tau", values[3], errs[3]));
             resultsField.setText(sBuilder.toString());
 
+            double maxX = data.maxX;
             double[][] curve0 = tractFit.getSimValues(0.0, maxX, 200, false);
             double[][] curve1 = tractFit.getSimValues(0.0, maxX, 200, true);
             series0.getData().clear();
@@ -307,6 +440,121 @@ public class TRACTGUI {
 
     }
 
+    /**
+     * Estimate the errors of the TRACT parameters by fitting bootstrap
+     * resamplings of the data. The fits run in the background, in parallel,
+     * and can be cancelled.
+     */
+    void analyzeMonteCarlo() {
+        if ((mcTask != null) && mcTask.isRunning()) {
+            return;
+        }
+        TRACTData data = getTRACTData();
+        if (data == null) {
+            return;
+        }
+        int nSim;
+        try {
+            nSim = Integer.parseInt(nSimField.getText().trim());
+        } catch (NumberFormatException nfE) {
+            nSim = 1000;
+        }
+        double sf = 1.0e6 * chart.getDataset().getSf(0);
+        mcTask = new MonteCarloTask(data, sf, nSim, System.currentTimeMillis());
+        MonteCarloTask task = mcTask;
+        mcProgressBar.progressProperty().bind(task.progressProperty());
+        mcCancelButton.setDisable(false);
+        resultsField.setText("Running " + nSim + " Monte Carlo fits");
+        task.setOnSucceeded(e -> {
+            finishMonteCarlo();
+            mcResults = task.getValue();
+            showMCResults(nSim);
+            showMCDistribution();
+        });
+        task.setOnCancelled(e -> {
+            finishMonteCarlo();
+            resultsField.setText("Monte Carlo cancelled");
+        });
+        task.setOnFailed(e -> {
+            finishMonteCarlo();
+            ExceptionDialog eDialog = new ExceptionDialog(task.getException());
+            eDialog.showAndWait();
+        });
+        Thread th = new Thread(task);
+        th.setDaemon(true);
+        th.start();
+    }
+
+    void finishMonteCarlo() {
+        mcProgressBar.progressProperty().unbind();
+        mcProgressBar.setProgress(0.0);
+        mcCancelButton.setDisable(true);
+    }
+
+    double[] getMCValues(int iPar) {
+        double[] values = new double[mcResults.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = mcResults[i][iPar];
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    void showMCResults(int nSim) {
+        if ((mcResults == null) || (mcResults.length < 2)) {
+            resultsField.setText("Too few successful Monte Carlo fits");
+            return;
+        }
+        StringBuilder sBuilder = new StringBuilder();
+        for (int iPar = 0; iPar < MC_PAR_NAMES.length; iPar++) {
+            double[] values = getMCValues(iPar);
+            DescriptiveStatistics stats = new DescriptiveStatistics(values);
+            String units = iPar == 2 ? " ns" : "";
+            sBuilder.append(String.format("%3s %.1f +/- %.1f [%.1f,%.1f]%s    ", MC_PAR_NAMES[iPar],
+                    stats.getMean(), stats.getStandardDeviation(),
+                    stats.getPercentile(2.5), stats.getPercentile(97.5), units));
+        }
+        sBuilder.append(String.format("(%d of %d fits)", mcResults.length, nSim));
+        resultsField.setText(sBuilder.toString());
+    }
+
+    /**
+     * Plot a histogram of the Monte Carlo values of the selected parameter in
+     * the chart. The data to fit is read from the scan table, so the fits
+     * aren't affected by the chart showing the histogram.
+     */
+    void showMCDistribution() {
+        if ((mcResults == null) || (mcResults.length < 2) || (activeChart == null)) {
+            return;
+        }
+        int iPar = Math.max(0, Arrays.asList(MC_PAR_NAMES).indexOf(mcParChoice.getValue()));
+        double[] values = getMCValues(iPar);
+        double min = values[0];
+        double max = values[values.length - 1];
+        double width = (max - min) / MC_HISTOGRAM_BINS;
+        if (width == 0.0) {
+            width = 1.0;
+        }
+        int[] counts = new int[MC_HISTOGRAM_BINS];
+        for (double value : values) {
+            int bin = Math.min(MC_HISTOGRAM_BINS - 1, (int) ((value - min) / width));
+            counts[bin]++;
+        }
+        DataSeries series = new DataSeries();
+        for (int i = 0; i < MC_HISTOGRAM_BINS; i++) {
+            series.getData().add(new XYValue(min + (i + 0.5) * width, counts[i]));
+        }
+        series.drawLine(true);
+        series.drawSymbol(true);
+        series.fillSymbol(true);
+        activeChart.getData().clear();
+        activeChart.getXAxis().setLabel(MC_PAR_NAMES[iPar]);
+        activeChart.getYAxis().setLabel("Count");
+        activeChart.getXAxis().setZeroIncluded(false);
+        activeChart.getData().add(series);
+        activeChart.autoScale(true);
+    }
+
     @FXML
     void exportBarPlotSVGAction(ActionEvent event) {
         FileChooser fileChooser = new FileChooser();
@@ -1,6 +1,7 @@
 from org.nmrfx.processor.gui import FXMLController
 from org.nmrfx.processor.gui import MainApp
 from org.nmrfx.processor.gui import GUIScripter
+from org.nmrfx.processor.gui import FigureRenderer
 from org.nmrfx.peaks import PeakList
 from org.nmrfx.processor.datasets import Dataset
 from javafx.stage import Stage
@@ -272,6 +273,24 @@ class NMRFxWindowScripting:
     def draw(self):
         self.cmd.draw()
 
+    def metrics(self, last=False):
+        if last:
+            return dict(self.cmd.lastFrameMetrics())
+        else:
+            return dict(self.cmd.metrics())
+
+    def metricsOverlay(self, state=True):
+        self.cmd.metricsOverlay(state)
+
+    def cacheStats(self):
+        return dict(self.cmd.blockCacheStats())
+
+    def dataChanged(self, datasetName=None):
+        self.cmd.dataChanged(datasetName)
+
+    def stalls(self):
+        return self.cmd.stalls()
+
     def drawAll(self):
         self.cmd.drawAll()
 
@@ -362,14 +381,165 @@ class NMRFxWindowScripting:
     def export(self, fileName):
         self.cmd.export(fileName)
 
+    def render(self, figures, threads=4):
+        errors = self.cmd.render(figures, threads)
+        return dict(errors)
+
+    def batch(self):
+        return NMRFxBatch(self.cmd.batch())
+
+class NMRFxBatch:
+    """Queue up configuration operations and apply them together with commit.
+
+    Setters return the batch so they can be chained.  Queries (the get
+    methods and nCharts) return an index into the list that commit returns.
+    """
+    def __init__(self, batch):
+        self.batch = batch
+
+    def active(self, chart):
+        self.batch.chart(chart)
+        return self
+
+    def datasets(self, datasets):
+        datasetNames = []
+        for dataset in datasets:
+            if isinstance(dataset,basestring):
+                datasetNames.append(dataset)
+            else:
+                datasetNames.append(dataset.getName())
+        self.batch.datasets(datasetNames)
+        return self
+
+    def peakLists(self, peakListNames):
+        self.batch.peakLists(peakListNames)
+        return self
+
+    def config(self, datasets=None, pars=None,  **kwargs):
+        if datasets != None and not isinstance(datasets,list):
+            datasets = [datasets]
+        configData = {}
+        if pars != None:
+            configData.update(pars)
+        configData.update(kwargs)
+        self.batch.config(datasets, configData)
+        return self
+
+    def pconfig(self, peakLists=None, pars=None,  **kwargs):
+        if peakLists != None and not isinstance(peakLists,list):
+            peakLists = [peakLists]
+        configData = {}
+        if pars != None:
+            configData.update(pars)
+        configData.update(kwargs)
+        self.batch.pconfig(peakLists, configData)
+        return self
+
+    def cconfig(self, pars=None,  **kwargs):
+        configData = {}
+        if pars != None:
+            configData.update(pars)
+        configData.update(kwargs)
+        self.batch.cconfig(configData)
+        return self
+
+    def lim(self, pars=None, **kwargs):
+        limits = {}
+        if pars != None:
+            limits.update(pars)
+        limits.update(kwargs)
+        for elem in limits:
+            value = limits[elem]
+            if isinstance(value, (float,int)):
+                v1 = value
+                v2 = value
+            elif len(value) == 1:
+                v1 = value[0]
+                v2 = v1
+            else:
+                (v1,v2) = value
+            self.batch.limit(elem, v1, v2)
+        return self
+
+    def setDims(self, dataset, dims):
+        self.batch.setDims(dataset, dims)
+        return self
+
+    def grid(self, rows=1, columns=1):
+        self.batch.grid(rows, columns)
+        return self
+
+    def geometry(self, x=None, y=None, width=None, height=None):
+        self.batch.geometry(x, y, width, height)
+        return self
+
+    def cursor(self, name):
+        self.batch.cursor(name)
+        return self
+
+    def sconfig(self, pars=None,  **kwargs):
+        configData = {}
+        if pars != None:
+            configData.update(pars)
+        configData.update(kwargs)
+        self.batch.sconfig(configData)
+        return self
+
+    def getConfig(self, datasets=None):
+        if datasets != None and not isinstance(datasets,list):
+            datasets = [datasets]
+        return self.batch.getConfig(datasets)
+
+    def getPConfig(self, peakLists=None):
+        if peakLists != None and not isinstance(peakLists,list):
+            peakLists = [peakLists]
+        return self.batch.getPConfig(peakLists)
+
+    def getCConfig(self):
+        return self.batch.getCConfig()
+
+    def getLim(self):
+        return self.batch.getLimits()
+
+    def getDatasets(self):
+        return self.batch.getDatasets()
+
+    def getPeakLists(self):
+        return self.batch.getPeakLists()
+
+    def getDims(self, dataset):
+        return self.batch.getDims(dataset)
+
+    def getGrid(self):
+        return self.batch.getGrid()
+
+    def nCharts(self):
+        return self.batch.nCharts()
+
+    def getGeometry(self):
+        return self.batch.getGeometry()
+
+    def getCursor(self):
+        return self.batch.getCursor()
+
+    def getSConfig(self):
+        return self.batch.getSConfig()
+
+    def commit(self):
+        return list(self.batch.commit())
+
 def parseArgs(argv):
     nw = NMRFxWindowScripting()
     parser = argparse.ArgumentParser(description="Evaluate NMRFx Command Line Args")
     parser.add_argument("-r", dest="rows",default='1', help="Number of chart rows")
     parser.add_argument("-c", dest="columns",default='1', help="Number of chart columns")
     #parser.add_argument("-g", dest="groupList",default='', help="Residues to fit in groups")
+    parser.add_argument("--figures", dest="figures",default='', help="YAML file of figures to render without showing windows, then exit (needs a display, e.g. run under xvfb-run)")
     parser.add_argument("fileNames",nargs="*")
     args = parser.parse_args(args=argv)
+    if args.figures != '':
+        FigureRenderer.renderFile(args.figures, True)
+        return
     rows = int(args.rows)
     columns = int(args.columns)
     nw.grid(rows,columns)
@@ -0,0 +1,119 @@
+package org.nmrfx.processor.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchAutoPhaseTest {
+
+    static BatchAutoPhase.Result makeResult(double[] ph0, double[] ph1) {
+        List<int[]> rows = new ArrayList<>();
+        for (int i = 0; i < ph0.length; i++) {
+            rows.add(new int[]{i});
+        }
+        BatchAutoPhase.Result result = new BatchAutoPhase.Result(BatchAutoPhase.Mode.FLAT01, rows);
+        System.arraycopy(ph0, 0, result.ph0, 0, ph0.length);
+        System.arraycopy(ph1, 0, result.ph1, 0, ph1.length);
+        result.calculateConsensus();
+        return result;
+    }
+
+    static double angleDifference(double a, double b) {
+        return BatchAutoPhase.Result.wrap(a - b);
+    }
+
+    @Test
+    public void testParseRange() {
+        Assert.assertEquals(List.of(0, 4, 8, 12), BatchAutoPhase.parseRows("1-16:4", 64));
+        Assert.assertEquals(16, BatchAutoPhase.parseRows("1-64:4", 64).size());
+        Assert.assertEquals(List.of(2, 3, 4), BatchAutoPhase.parseRows("3-5", 64));
+    }
+
+    @Test
+    public void testParseList() {
+        Assert.assertEquals(List.of(0, 4, 8), BatchAutoPhase.parseRows("1,5,9", 64));
+        Assert.assertEquals(List.of(0, 4, 8), BatchAutoPhase.parseRows(" 1, 5 ,9,", 64));
+        // repeated rows are only used once
+        Assert.assertEquals(List.of(0, 1, 2, 5), BatchAutoPhase.parseRows("1-3,2,6", 64));
+        Assert.assertEquals(List.of(9, 10, 0, 2), BatchAutoPhase.parseRows("10-11,1-3:2", 64));
+    }
+
+    @Test
+    public void testParseLimitedToSize() {
+        Assert.assertEquals(List.of(6, 7), BatchAutoPhase.parseRows("7-100", 8));
+        Assert.assertEquals(List.of(0), BatchAutoPhase.parseRows("1,20", 8));
+    }
+
+    @Test
+    public void testParseDefault() {
+        List<Integer> rows = BatchAutoPhase.parseRows(BatchAutoPhase.getDefaultSpec(128, 16), 128);
+        Assert.assertEquals(16, rows.size());
+        Assert.assertEquals(0, (int) rows.get(0));
+        Assert.assertEquals(8, rows.get(1) - rows.get(0));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        String[] specs = {"", "0", "5-3", "1-10:0", "a", "1-b", "20", ","};
+        for (String spec : specs) {
+            try {
+                BatchAutoPhase.parseRows(spec, 8);
+                Assert.fail("parsed invalid rows \"" + spec + "\"");
+            } catch (IllegalArgumentException iaE) {
+            }
+        }
+    }
+
+    @Test
+    public void testConsensus() {
+        BatchAutoPhase.Result result = makeResult(
+                new double[]{12.0, 10.0, 11.0, 95.0, 9.0},
+                new double[]{-30.0, -32.0, -31.0, 60.0, -29.0});
+        // the outlying row doesn't pull the consensus away
+        Assert.assertEquals(11.0, result.getPh0(), 1.0e-9);
+        Assert.assertEquals(-30.0, result.getPh1(), 1.0e-9);
+        Assert.assertEquals(1.0, result.spreadPh0, 1.0e-9);
+        Assert.assertEquals(1.0, result.spreadPh1, 1.0e-9);
+    }
+
+    @Test
+    public void testConsensusWrapped() {
+        // phases either side of +/-180 degrees are close together, not 360 degrees apart
+        BatchAutoPhase.Result result = makeResult(
+                new double[]{178.0, -178.0, 179.0, -179.0, 177.0},
+                new double[]{0.0, 0.0, 0.0, 0.0, 0.0});
+        Assert.assertEquals(0.0, angleDifference(result.getPh0(), 179.0), 1.0e-9);
+        Assert.assertEquals(2.0, result.spreadPh0, 1.0e-9);
+
+        result = makeResult(
+                new double[]{-2.0, 358.0, 2.0, 362.0, 0.0},
+                new double[]{5.0, 5.0, 5.0, 5.0, 5.0});
+        Assert.assertEquals(0.0, angleDifference(result.getPh0(), 0.0), 1.0e-9);
+        Assert.assertEquals(2.0, result.spreadPh0, 1.0e-9);
+    }
+
+    @Test
+    public void testConsensusSkipsFailedRows() {
+        BatchAutoPhase.Result result = makeResult(
+                new double[]{20.0, Double.NaN, 22.0, 24.0},
+                new double[]{1.0, Double.NaN, 3.0, 5.0});
+        Assert.assertEquals(22.0, result.getPh0(), 1.0e-9);
+        Assert.assertEquals(3.0, result.getPh1(), 1.0e-9);
+        Assert.assertTrue(result.getReport().contains("failed"));
+
+        try {
+            makeResult(new double[]{Double.NaN}, new double[]{Double.NaN});
+            Assert.fail("consensus of failed rows");
+        } catch (IllegalStateException isE) {
+        }
+    }
+
+    @Test
+    public void testWrap() {
+        Assert.assertEquals(-170.0, BatchAutoPhase.Result.wrap(190.0), 1.0e-9);
+        Assert.assertEquals(170.0, BatchAutoPhase.Result.wrap(-190.0), 1.0e-9);
+        Assert.assertEquals(10.0, BatchAutoPhase.Result.wrap(730.0), 1.0e-9);
+        Assert.assertEquals(-10.0, BatchAutoPhase.Result.wrap(-370.0), 1.0e-9);
+    }
+}
@@ -0,0 +1,69 @@
+package org.nmrfx.processor.gui;
+
+import java.io.IOException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandServerTest {
+
+    CommandServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new CommandServer(0);
+        // stands in for the FX thread, running queued commands a little later
+        server.guiExecutor = runnable -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException iE) {
+                    return;
+                }
+                runnable.run();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        };
+        server.register("echo", false, args -> String.join(" ", args));
+        server.register("guiEcho", true, args -> String.join(" ", args));
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testPing() throws IOException {
+        try (CommandClient client = new CommandClient(server.getPort())) {
+            Assert.assertEquals("OK pong", client.send("ping"));
+        }
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        try (CommandClient client = new CommandClient(server.getPort())) {
+            Assert.assertEquals("ERR Unknown command \"nothing\"", client.send("nothing"));
+        }
+    }
+
+    @Test
+    public void testPipelined() throws IOException {
+        try (CommandClient client = new CommandClient(server.getPort())) {
+            List<String> responses = client.send(List.of("guiEcho a", "echo b", "guiEcho c", "echo d"));
+            Assert.assertEquals(List.of("OK a", "OK b", "OK c", "OK d"), responses);
+        }
+    }
+
+    @Test
+    public void testHalfClosed() throws IOException {
+        try (CommandClient client = new CommandClient(server.getPort())) {
+            List<String> responses = client.send(List.of("echo a", "guiEcho b", "ping"), true);
+            Assert.assertEquals(List.of("OK a", "OK b", "OK pong"), responses);
+        }
+    }
+}
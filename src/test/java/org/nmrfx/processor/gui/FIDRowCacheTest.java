@@ -0,0 +1,101 @@
+package org.nmrfx.processor.gui;
+
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.nmrfx.processor.math.Vec;
+
+public class FIDRowCacheTest {
+
+    static final int VEC_DIM = 1;
+
+    FIDRowCache cache;
+    Vec vec;
+
+    @Before
+    public void makeCache() {
+        cache = new FIDRowCache();
+        // one vector, shared by all the rows, takes a sixteenth of the cache
+        vec = new Vec((int) (FIDRowCache.MAX_BYTES / 16 / 8), false);
+    }
+
+    // rows that take an eighth of the cache once processed
+    FIDRowCache.RowVectors makeRows(int row, boolean processed) {
+        FIDRowCache.RowVectors rowVectors = new FIDRowCache.RowVectors(new int[]{row}, List.of(vec), new int[]{row});
+        if (processed) {
+            rowVectors.processed = List.of(vec);
+        }
+        return rowVectors;
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        Assert.assertNull(cache.get(VEC_DIM, new int[]{0}));
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(0, true), cache.getGeneration()));
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(1, false), cache.getGeneration()));
+
+        Assert.assertTrue(cache.contains(VEC_DIM, new int[]{0}));
+        Assert.assertNotNull(cache.get(VEC_DIM, new int[]{0}));
+        // rows are cached per dimension
+        Assert.assertFalse(cache.contains(2, new int[]{0}));
+        Assert.assertNull(cache.get(2, new int[]{0}));
+        // rows that haven't been processed aren't counted as cached
+        Assert.assertFalse(cache.contains(VEC_DIM, new int[]{1}));
+        Assert.assertTrue(cache.getStatistics().contains("hits 1 misses 2"));
+    }
+
+    @Test
+    public void testEviction() {
+        for (int row = 0; row < 8; row++) {
+            Assert.assertTrue(cache.put(VEC_DIM, makeRows(row, true), cache.getGeneration()));
+        }
+        for (int row = 0; row < 8; row++) {
+            Assert.assertTrue(cache.contains(VEC_DIM, new int[]{row}));
+        }
+        Assert.assertEquals(FIDRowCache.MAX_BYTES, cache.cacheBytes);
+
+        // using row 0 makes row 1 the least recently used
+        cache.get(VEC_DIM, new int[]{0});
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(8, true), cache.getGeneration()));
+        Assert.assertFalse(cache.contains(VEC_DIM, new int[]{1}));
+        Assert.assertTrue(cache.contains(VEC_DIM, new int[]{0}));
+        Assert.assertTrue(cache.contains(VEC_DIM, new int[]{8}));
+        Assert.assertTrue(cache.cacheBytes <= FIDRowCache.MAX_BYTES);
+    }
+
+    @Test
+    public void testReplace() {
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(0, false), cache.getGeneration()));
+        long bytes = cache.cacheBytes;
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(0, true), cache.getGeneration()));
+        Assert.assertEquals(2 * bytes, cache.cacheBytes);
+        Assert.assertTrue(cache.contains(VEC_DIM, new int[]{0}));
+    }
+
+    @Test
+    public void testTooLarge() {
+        FIDRowCache.RowVectors rowVectors = new FIDRowCache.RowVectors(new int[]{0},
+                Collections.nCopies(5, vec), new int[]{0});
+        rowVectors.processed = Collections.nCopies(5, vec);
+        Assert.assertFalse(cache.put(VEC_DIM, rowVectors, cache.getGeneration()));
+        Assert.assertFalse(cache.contains(VEC_DIM, new int[]{0}));
+    }
+
+    @Test
+    public void testClear() {
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(0, true), cache.getGeneration()));
+        long generation = cache.getGeneration();
+        cache.clear();
+        Assert.assertFalse(cache.contains(VEC_DIM, new int[]{0}));
+        Assert.assertEquals(0, cache.cacheBytes);
+        Assert.assertNotEquals(generation, cache.getGeneration());
+
+        // rows requested before the cache was cleared are rejected
+        Assert.assertFalse(cache.put(VEC_DIM, makeRows(1, true), generation));
+        Assert.assertFalse(cache.contains(VEC_DIM, new int[]{1}));
+        Assert.assertTrue(cache.put(VEC_DIM, makeRows(1, true), cache.getGeneration()));
+        Assert.assertTrue(cache.contains(VEC_DIM, new int[]{1}));
+    }
+}
@@ -0,0 +1,110 @@
+package org.nmrfx.processor.gui.spectra;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatasetBlockCacheTest {
+
+    static final int[] DIM = {0, 1};
+    static final long MODIFIED = 1000L;
+
+    float[] row;
+
+    @Before
+    public void clearCache() {
+        DatasetBlockCache.clear();
+        // blocks share one row, so the cache can be filled without allocating it
+        row = new float[(int) (DatasetBlockCache.MAX_BYTES / 64 / 4)];
+    }
+
+    @After
+    public void clearCacheAfter() {
+        DatasetBlockCache.clear();
+    }
+
+    // a block that takes about a sixteenth of the cache
+    DatasetBlockCache.Entry makeEntry(int nRows, long modified) {
+        float[][] matrix = new float[nRows][];
+        for (int i = 0; i < nRows; i++) {
+            matrix[i] = row;
+        }
+        return new DatasetBlockCache.Entry(matrix, 1.0f, modified);
+    }
+
+    static DatasetBlockCache.Key makeKey(String fileName, int block) {
+        int[][] apt = {{0, 127}, {block * 4, block * 4 + 3}};
+        return new DatasetBlockCache.Key(fileName, DIM, apt, 1.0);
+    }
+
+    @Test
+    public void testGet() {
+        DatasetBlockCache.put(makeKey("a.nv", 0), makeEntry(4, MODIFIED));
+        Assert.assertNotNull(DatasetBlockCache.get(makeKey("a.nv", 0), MODIFIED));
+        Assert.assertNull(DatasetBlockCache.get(makeKey("a.nv", 1), MODIFIED));
+        Assert.assertNull(DatasetBlockCache.get(makeKey("b.nv", 0), MODIFIED));
+        // blocks read with another scale have other values
+        int[][] apt = {{0, 127}, {0, 3}};
+        Assert.assertNull(DatasetBlockCache.get(new DatasetBlockCache.Key("a.nv", DIM, apt, 2.0), MODIFIED));
+    }
+
+    @Test
+    public void testModified() {
+        DatasetBlockCache.put(makeKey("a.nv", 0), makeEntry(4, MODIFIED));
+        // a block read before the file was modified is dropped
+        Assert.assertNull(DatasetBlockCache.get(makeKey("a.nv", 0), MODIFIED + 1));
+        Assert.assertNull(DatasetBlockCache.get(makeKey("a.nv", 0), MODIFIED));
+        Assert.assertEquals(0, DatasetBlockCache.cacheBytes);
+    }
+
+    @Test
+    public void testEviction() {
+        DatasetBlockCache.Entry entry = makeEntry(4, MODIFIED);
+        int nBlocks = (int) (DatasetBlockCache.MAX_BYTES / entry.bytes);
+        for (int i = 0; i < nBlocks; i++) {
+            DatasetBlockCache.put(makeKey("a.nv", i), makeEntry(4, MODIFIED));
+        }
+        Assert.assertEquals(nBlocks * entry.bytes, DatasetBlockCache.cacheBytes);
+        for (int i = 0; i < nBlocks; i++) {
+            Assert.assertNotNull(DatasetBlockCache.get(makeKey("a.nv", i), MODIFIED));
+        }
+
+        // using block 0 makes block 1 the least recently used
+        DatasetBlockCache.get(makeKey("a.nv", 0), MODIFIED);
+        DatasetBlockCache.put(makeKey("a.nv", nBlocks), makeEntry(4, MODIFIED));
+        Assert.assertNull(DatasetBlockCache.get(makeKey("a.nv", 1), MODIFIED));
+        Assert.assertNotNull(DatasetBlockCache.get(makeKey("a.nv", 0), MODIFIED));
+        Assert.assertNotNull(DatasetBlockCache.get(makeKey("a.nv", nBlocks), MODIFIED));
+        Assert.assertTrue(DatasetBlockCache.cacheBytes <= DatasetBlockCache.MAX_BYTES);
+    }
+
+    @Test
+    public void testTooLarge() {
+        DatasetBlockCache.put(makeKey("a.nv", 0), makeEntry(17, MODIFIED));
+        Assert.assertNull(DatasetBlockCache.get(makeKey("a.nv", 0), MODIFIED));
+        Assert.assertEquals(0, DatasetBlockCache.cacheBytes);
+    }
+
+    @Test
+    public void testInvalidate() {
+        String fileA = new File("a.nv").getPath();
+        String fileB = new File("b.nv").getPath();
+        for (int i = 0; i < 4; i++) {
+            DatasetBlockCache.put(makeKey(fileA, i), makeEntry(4, MODIFIED));
+            DatasetBlockCache.put(makeKey(fileB, i), makeEntry(4, MODIFIED));
+        }
+        long bytes = DatasetBlockCache.cacheBytes;
+        DatasetBlockCache.invalidate(new File("a.nv"));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertNull(DatasetBlockCache.get(makeKey(fileA, i), MODIFIED));
+            Assert.assertNotNull(DatasetBlockCache.get(makeKey(fileB, i), MODIFIED));
+        }
+        Assert.assertEquals(bytes / 2, DatasetBlockCache.cacheBytes);
+
+        DatasetBlockCache.clear();
+        Assert.assertNull(DatasetBlockCache.get(makeKey(fileB, 0), MODIFIED));
+        Assert.assertEquals(0, DatasetBlockCache.cacheBytes);
+    }
+}
@@ -0,0 +1,99 @@
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nmrfx.processor.math.Vec;
+
+public class IntegralCacheTest {
+
+    static final double TOLERANCE = 1.0e-8;
+
+    static Vec randomRow(Random random, int size) {
+        Vec row = new Vec(size, false);
+        for (int i = 0; i < size; i++) {
+            row.rvec[i] = random.nextGaussian() * 100.0 + (i % 97 == 0 ? 5000.0 : 0.0);
+        }
+        return row;
+    }
+
+    static double[] cumulativeSums(Vec row) {
+        double[] sums = new double[row.getSize()];
+        double sum = 0.0;
+        for (int i = 0; i < sums.length; i++) {
+            sum += row.getReal(i);
+            sums[i] = sum;
+        }
+        return sums;
+    }
+
+    // the integral as it was drawn before the cache: the region is copied and integrated in place
+    static Vec integrateRegion(Vec row, int first, int last, double[] offsets) {
+        int dimSize = last - first + 1;
+        Vec specVec = new Vec(dimSize, false);
+        for (int j = 0; j < dimSize; j++) {
+            specVec.rvec[j] = row.getReal(first + j);
+        }
+        if (offsets != null) {
+            specVec.integrate(0, dimSize, offsets[1], offsets[0]);
+        } else {
+            specVec.integrate(0, dimSize);
+        }
+        return specVec;
+    }
+
+    static void checkRegion(Vec row, double[] sums, int first, int last, double[] offsets) {
+        Vec expected = integrateRegion(row, first, last, offsets);
+        double firstIntensity = offsets != null ? offsets[1] : 0.0;
+        double lastIntensity = offsets != null ? offsets[0] : 0.0;
+        Vec specVec = new Vec(8, false);
+        IntegralCache.fillIntegral(sums, first, last, firstIntensity, lastIntensity, specVec);
+        Assert.assertEquals(expected.getSize(), specVec.getSize());
+        double scale = Math.max(1.0, Math.abs(sums[sums.length - 1]));
+        for (int j = 0; j < expected.getSize(); j++) {
+            Assert.assertEquals(expected.getReal(j), specVec.getReal(j), TOLERANCE * scale);
+        }
+        double integral = IntegralCache.getIntegral(sums, first, last, firstIntensity, lastIntensity);
+        Assert.assertEquals(expected.getReal(expected.getSize() - 1), integral, TOLERANCE * scale);
+    }
+
+    @Test
+    public void testWithoutOffsets() {
+        Random random = new Random(5);
+        Vec row = randomRow(random, 4096);
+        double[] sums = cumulativeSums(row);
+        checkRegion(row, sums, 0, 4095, null);
+        checkRegion(row, sums, 0, 0, null);
+        for (int i = 0; i < 100; i++) {
+            int first = random.nextInt(4096);
+            int last = first + random.nextInt(4096 - first);
+            checkRegion(row, sums, first, last, null);
+        }
+    }
+
+    @Test
+    public void testWithOffsets() {
+        Random random = new Random(7);
+        Vec row = randomRow(random, 4096);
+        double[] sums = cumulativeSums(row);
+        for (int i = 0; i < 100; i++) {
+            int first = random.nextInt(4095);
+            int last = first + 1 + random.nextInt(4095 - first);
+            double[] offsets = {random.nextGaussian() * 50.0, random.nextGaussian() * 50.0};
+            checkRegion(row, sums, first, last, offsets);
+        }
+        checkRegion(row, sums, 0, 4095, new double[]{-20.0, 30.0});
+    }
+
+    @Test
+    public void testClamped() {
+        Random random = new Random(11);
+        Vec row = randomRow(random, 512);
+        double[] sums = cumulativeSums(row);
+        Vec specVec = new Vec(8, false);
+        IntegralCache.fillIntegral(sums, -10, 600, 0.0, 0.0, specVec);
+        Assert.assertEquals(512, specVec.getSize());
+        Assert.assertEquals(sums[511], specVec.getReal(511), TOLERANCE);
+        Assert.assertEquals(sums[511], IntegralCache.getIntegral(sums, -10, 600, 0.0, 0.0), TOLERANCE);
+    }
+}
@@ -0,0 +1,147 @@
+package org.nmrfx.processor.gui.spectra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.nmrfx.peaks.Peak;
+import org.nmrfx.peaks.PeakDim;
+import org.nmrfx.peaks.PeakList;
+import org.nmrfx.processor.datasets.Dataset;
+
+public class PeakSpatialIndexTest {
+
+    static final String LIST_NAME = "spatialIndexTest";
+    static final int[] PEAK_DIM = {0, 1};
+
+    PeakList peakList;
+    Random random;
+
+    @Before
+    public void makePeakList() {
+        random = new Random(17);
+        peakList = new PeakList(LIST_NAME, 2);
+        for (int k = 0; k < 2000; k++) {
+            Peak peak = peakList.getNewPeak();
+            setPeakDim(peak.peakDims[0], 6.0 + random.nextDouble() * 4.5, 0.01 + random.nextDouble() * 0.03);
+            setPeakDim(peak.peakDims[1], 102.0 + random.nextDouble() * 30.0, 0.1 + random.nextDouble() * 0.5);
+        }
+    }
+
+    @After
+    public void removePeakList() {
+        PeakList.remove(LIST_NAME);
+    }
+
+    static void setPeakDim(PeakDim peakDim, double shift, double width) {
+        peakDim.setChemShiftValue((float) shift);
+        peakDim.setLineWidthValue((float) width);
+        peakDim.setBoundsValue((float) (width * 3.0));
+    }
+
+    static double fold(double shift, double[][] foldLimits, int iDim) {
+        return foldLimits == null ? shift : Dataset.foldPPM(shift, foldLimits[iDim]);
+    }
+
+    // the peaks whose bounds, at their raw or folded position, overlap the region
+    static List<Peak> bruteForce(List<Peak> peaks, double[][] limits, double[][] foldLimits) {
+        List<Peak> result = new ArrayList<>();
+        for (Peak peak : peaks) {
+            boolean rawInside = true;
+            boolean foldedInside = true;
+            for (int i = 0; i < 2; i++) {
+                PeakDim peakDim = peak.peakDims[PEAK_DIM[i]];
+                double halfBounds = Math.abs(peakDim.getBoundsValue()) / 2.0;
+                double lower = Math.min(limits[i][0], limits[i][1]) - halfBounds;
+                double upper = Math.max(limits[i][0], limits[i][1]) + halfBounds;
+                double shift = peakDim.getChemShiftValue();
+                double folded = fold(shift, foldLimits, i);
+                rawInside &= (shift >= lower) && (shift <= upper);
+                foldedInside &= (folded >= lower) && (folded <= upper);
+            }
+            if (rawInside || foldedInside) {
+                result.add(peak);
+            }
+        }
+        return result;
+    }
+
+    double[][] randomRegion() {
+        double x = 6.0 + random.nextDouble() * 4.5;
+        double y = 102.0 + random.nextDouble() * 30.0;
+        double dx = random.nextDouble() * 0.5;
+        double dy = random.nextDouble() * 4.0;
+        // display limits are often given high to low
+        return new double[][]{{x + dx, x}, {y, y + dy}};
+    }
+
+    static void assertCandidates(List<Peak> peaks, List<Peak> expected, List<Peak> candidates) {
+        for (Peak peak : expected) {
+            Assert.assertTrue("missing peak " + peak.getName(), candidates.contains(peak));
+        }
+        int last = -1;
+        for (Peak peak : candidates) {
+            int index = peaks.indexOf(peak);
+            Assert.assertTrue("candidates not in peak list order", index > last);
+            last = index;
+        }
+    }
+
+    void checkQueries(PeakSpatialIndex index, double[][] foldLimits) {
+        List<Peak> peaks = peakList.peaks();
+        for (int i = 0; i < 200; i++) {
+            double[][] limits = randomRegion();
+            List<Peak> candidates = index.query(limits);
+            assertCandidates(peaks, bruteForce(peaks, limits, foldLimits), candidates);
+            Assert.assertTrue(candidates.size() < peaks.size());
+
+            double[] position = {limits[0][1], limits[1][0]};
+            double[] tolerance = {0.05, 0.5};
+            double[][] nearLimits = {
+                {position[0] - tolerance[0], position[0] + tolerance[0]},
+                {position[1] - tolerance[1], position[1] + tolerance[1]}};
+            assertCandidates(peaks, bruteForce(peaks, nearLimits, foldLimits), index.near(position, tolerance));
+        }
+    }
+
+    @Test
+    public void testQuery() {
+        PeakSpatialIndex index = new PeakSpatialIndex(peakList.peaks(), PEAK_DIM, null);
+        checkQueries(index, null);
+    }
+
+    @Test
+    public void testFolded() {
+        double[][] foldLimits = {{6.0, 10.5}, {110.0, 125.0}};
+        PeakSpatialIndex index = new PeakSpatialIndex(peakList.peaks(), PEAK_DIM, foldLimits);
+        checkQueries(index, foldLimits);
+    }
+
+    @Test
+    public void testUpdate() {
+        List<Peak> peaks = peakList.peaks();
+        PeakSpatialIndex index = new PeakSpatialIndex(peaks, PEAK_DIM, null);
+        for (int i = 0; i < 100; i++) {
+            Peak peak = peaks.get(random.nextInt(peaks.size()));
+            setPeakDim(peak.peakDims[0], 5.0 + random.nextDouble() * 6.5, 0.01 + random.nextDouble() * 0.1);
+            setPeakDim(peak.peakDims[1], 100.0 + random.nextDouble() * 34.0, 0.1 + random.nextDouble() * 2.0);
+            index.update(peak);
+        }
+        checkQueries(index, null);
+    }
+
+    @Test
+    public void testValidFor() {
+        List<Peak> peaks = peakList.peaks();
+        double[][] foldLimits = {{6.0, 10.5}, {110.0, 125.0}};
+        PeakSpatialIndex index = new PeakSpatialIndex(peaks, PEAK_DIM, foldLimits);
+        Assert.assertTrue(index.isValidFor(peaks, PEAK_DIM, new double[][]{{6.0, 10.5}, {110.0, 125.0}}));
+        Assert.assertFalse(index.isValidFor(peaks, PEAK_DIM, null));
+        Assert.assertFalse(index.isValidFor(peaks, new int[]{1, 0}, foldLimits));
+        peakList.getNewPeak();
+        Assert.assertFalse(index.isValidFor(peakList.peaks(), PEAK_DIM, foldLimits));
+    }
+}